@@ -0,0 +1,71 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.benchmark;
+
+import net.raphimc.javadowngrader.JavaDowngrader;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link JavaDowngrader#downgrade} on classes of a single {@link SyntheticCorpus.Shape shape}.<br>
+ * Every invocation has to read the classes again, so {@link #read} is the baseline which has to be subtracted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DowngradeBenchmark {
+
+    @Param({"PLAIN", "STRING_CONCAT", "COLLECTIONS", "LAMBDA", "RECORD", "NEST"})
+    public SyntheticCorpus.Shape shape;
+
+    @Param({"61", "65"})
+    public int classVersion;
+
+    private List<byte[]> corpus;
+
+    @Setup
+    public void setup() {
+        this.corpus = SyntheticCorpus.generate(this.shape, this.classVersion, 16, 20);
+    }
+
+    @Benchmark
+    public void read(final Blackhole blackhole) {
+        for (byte[] bytecode : this.corpus) {
+            final ClassNode classNode = new ClassNode();
+            new ClassReader(bytecode).accept(classNode, 0);
+            blackhole.consume(classNode);
+        }
+    }
+
+    @Benchmark
+    public void downgrade(final Blackhole blackhole) {
+        for (byte[] bytecode : this.corpus) {
+            final ClassNode classNode = new ClassNode();
+            new ClassReader(bytecode).accept(classNode, 0);
+            blackhole.consume(JavaDowngrader.downgrade(classNode, Opcodes.V1_8));
+            blackhole.consume(classNode);
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.benchmark;
+
+import net.raphimc.javadowngrader.JavaDowngrader;
+import net.raphimc.javadowngrader.RuntimeDepCollector;
+import net.raphimc.javadowngrader.transformer.DowngradePlan;
+import net.raphimc.javadowngrader.transformer.DowngradeResult;
+import net.raphimc.javadowngrader.transformer.DowngradingClassVisitor;
+import net.raphimc.javadowngrader.util.ConstantPoolScan;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the tree engine ({@link JavaDowngrader#downgrade}) with the streaming engine ({@link DowngradingClassVisitor}).<br>
+ * Neither benchmark computes stack map frames, as that is the same for both engines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EngineBenchmark {
+
+    @Param({"20"})
+    public int methodsPerClass;
+
+    private List<byte[]> corpus;
+
+    @Setup
+    public void setup() {
+        this.corpus = SyntheticCorpus.generate(64, this.methodsPerClass);
+    }
+
+    @Benchmark
+    public void tree(final Blackhole blackhole) {
+        for (byte[] bytecode : this.corpus) {
+            final ClassNode classNode = new ClassNode();
+            new ClassReader(bytecode).accept(classNode, 0);
+            JavaDowngrader.downgrade(classNode, Opcodes.V1_8);
+
+            final ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+            classNode.accept(classWriter);
+            blackhole.consume(classWriter.toByteArray());
+        }
+    }
+
+    @Benchmark
+    public void streaming(final Blackhole blackhole) {
+        for (byte[] bytecode : this.corpus) {
+            final ConstantPoolScan scan = ConstantPoolScan.scan(bytecode);
+            final DowngradePlan plan = JavaDowngrader.getPlan(scan.getMajorVersion(), Opcodes.V1_8);
+
+            final ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+            new ClassReader(bytecode).accept(new DowngradingClassVisitor(classWriter, plan, scan, RuntimeDepCollector.NULL, new DowngradeResult()), 0);
+            blackhole.consume(classWriter.toByteArray());
+        }
+    }
+
+}
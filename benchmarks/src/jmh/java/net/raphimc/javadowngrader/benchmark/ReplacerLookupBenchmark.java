@@ -0,0 +1,121 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.benchmark;
+
+import net.raphimc.javadowngrader.JavaDowngrader;
+import net.raphimc.javadowngrader.transformer.DowngradePlan;
+import net.raphimc.javadowngrader.transformer.MethodCallReplacer;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the owner/name/descriptor index of {@link DowngradePlan} with probing a map keyed by concatenated strings.<br>
+ * Run with {@code -prof gc} to see the allocation rate of both lookups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ReplacerLookupBenchmark {
+
+    private static final String[][] COMMON_CALLS = {
+            {"java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;"},
+            {"java/lang/StringBuilder", "toString", "()Ljava/lang/String;"},
+            {"java/lang/String", "length", "()I"},
+            {"java/lang/String", "strip", "()Ljava/lang/String;"},
+            {"java/lang/Object", "equals", "(Ljava/lang/Object;)Z"},
+            {"java/util/List", "size", "()I"},
+            {"java/util/List", "of", "(Ljava/lang/Object;)Ljava/util/List;"},
+            {"java/util/Map", "get", "(Ljava/lang/Object;)Ljava/lang/Object;"},
+            {"java/util/Objects", "requireNonNull", "(Ljava/lang/Object;)Ljava/lang/Object;"},
+            {"java/io/InputStream", "transferTo", "(Ljava/io/OutputStream;)J"},
+    };
+
+    private String[] owners;
+    private String[] names;
+    private String[] descriptors;
+    private DowngradePlan plan;
+    private Map<String, MethodCallReplacer> stringKeyedReplacers;
+
+    @Setup
+    public void setup() {
+        final List<String[]> calls = new ArrayList<>();
+        for (String[] call : COMMON_CALLS) {
+            calls.add(call);
+        }
+        for (byte[] bytecode : SyntheticCorpus.generate(8, 10)) {
+            final ClassNode classNode = new ClassNode();
+            new ClassReader(bytecode).accept(classNode, 0);
+            for (MethodNode methodNode : classNode.methods) {
+                for (AbstractInsnNode insn : methodNode.instructions) {
+                    if (insn instanceof MethodInsnNode) {
+                        final MethodInsnNode methodInsn = (MethodInsnNode) insn;
+                        calls.add(new String[]{methodInsn.owner, methodInsn.name, methodInsn.desc});
+                    }
+                }
+            }
+        }
+
+        this.owners = new String[calls.size()];
+        this.names = new String[calls.size()];
+        this.descriptors = new String[calls.size()];
+        this.plan = JavaDowngrader.getPlan(Opcodes.V17, Opcodes.V1_8);
+        this.stringKeyedReplacers = new HashMap<>();
+        for (int i = 0; i < calls.size(); i++) {
+            final String[] call = calls.get(i);
+            this.owners[i] = call[0];
+            this.names[i] = call[1];
+            this.descriptors[i] = call[2];
+
+            final MethodCallReplacer replacer = this.plan.getMethodCallReplacer(call[0], call[1], call[2]);
+            if (replacer != null) {
+                this.stringKeyedReplacers.put(call[0] + '.' + call[1] + call[2], replacer);
+            }
+        }
+    }
+
+    @Benchmark
+    public void index(final Blackhole blackhole) {
+        for (int i = 0; i < this.owners.length; i++) {
+            blackhole.consume(this.plan.getMethodCallReplacer(this.owners[i], this.names[i], this.descriptors[i]));
+        }
+    }
+
+    @Benchmark
+    public void stringKeys(final Blackhole blackhole) {
+        for (int i = 0; i < this.owners.length; i++) {
+            MethodCallReplacer replacer = this.stringKeyedReplacers.get(this.owners[i] + '.' + this.names[i] + this.descriptors[i]);
+            if (replacer == null) {
+                replacer = this.stringKeyedReplacers.get(this.owners[i] + '.' + this.names[i]);
+            }
+            blackhole.consume(replacer);
+        }
+    }
+
+}
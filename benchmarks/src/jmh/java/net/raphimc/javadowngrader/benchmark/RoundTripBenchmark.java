@@ -0,0 +1,104 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.benchmark;
+
+import net.lenni0451.classtransform.TransformerManager;
+import net.lenni0451.classtransform.utils.tree.BasicClassProvider;
+import net.lenni0451.classtransform.utils.tree.IClassProvider;
+import net.raphimc.javadowngrader.impl.classtransform.JavaDowngraderTransformer;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Measures the read-transform-write round trip of {@link JavaDowngraderTransformer} over all
+ * {@link SyntheticCorpus.Shape shapes}, with and without stack map frame computation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoundTripBenchmark {
+
+    @Param({"61", "65"})
+    public int classVersion;
+
+    @Param({"false", "true"})
+    public boolean computeFrames;
+
+    @Param({"false", "true"})
+    public boolean streaming;
+
+    private Map<String, byte[]> corpus;
+    private JavaDowngraderTransformer transformer;
+
+    @Setup
+    public void setup() {
+        this.corpus = new LinkedHashMap<>();
+        for (SyntheticCorpus.Shape shape : SyntheticCorpus.Shape.values()) {
+            for (byte[] bytecode : SyntheticCorpus.generate(shape, this.classVersion, 8, 20)) {
+                this.corpus.put(new ClassReader(bytecode).getClassName().replace('/', '.'), bytecode);
+            }
+        }
+
+        final TransformerManager transformerManager = new TransformerManager(new CorpusClassProvider(this.corpus));
+        this.transformer = JavaDowngraderTransformer.builder(transformerManager)
+                .targetVersion(Opcodes.V1_8)
+                .streaming(this.streaming)
+                .build();
+    }
+
+    @Benchmark
+    public void roundTrip(final Blackhole blackhole) {
+        for (Map.Entry<String, byte[]> entry : this.corpus.entrySet()) {
+            blackhole.consume(this.transformer.transform(entry.getKey(), entry.getValue(), this.computeFrames));
+        }
+    }
+
+    private static final class CorpusClassProvider implements IClassProvider {
+
+        private final Map<String, byte[]> corpus;
+        private final IClassProvider parent = new BasicClassProvider();
+
+        private CorpusClassProvider(final Map<String, byte[]> corpus) {
+            this.corpus = corpus;
+        }
+
+        @Override
+        public byte[] getClass(final String name) throws ClassNotFoundException {
+            final byte[] bytecode = this.corpus.get(name);
+            return bytecode != null ? bytecode : this.parent.getClass(name);
+        }
+
+        @Override
+        public Map<String, Supplier<byte[]>> getAllClasses() {
+            final Map<String, Supplier<byte[]>> classes = new LinkedHashMap<>(this.parent.getAllClasses());
+            for (Map.Entry<String, byte[]> entry : this.corpus.entrySet()) {
+                classes.put(entry.getKey(), entry::getValue);
+            }
+            return classes;
+        }
+
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.benchmark;
+
+import net.raphimc.javadowngrader.runtime.java.lang.StringMethods;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the runtime helper which replaces {@code String.strip()} with the regex it used to be lowered to and with
+ * the native Java 11 implementation.<br>
+ * The native baseline is called through a method handle, so run the benchmark on Java 11 or newer to include it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StringStripBenchmark {
+
+    private static final String[] INPUTS = {
+            "identifier",
+            "  leading",
+            "trailing  ",
+            "  both sides  ",
+            "\t\ttabs and newlines\r\n",
+            "\u2003em space\u2003",
+            "    ",
+            "",
+    };
+
+    private MethodHandle nativeStrip;
+
+    @Setup
+    public void setup() {
+        try {
+            this.nativeStrip = MethodHandles.publicLookup().findVirtual(String.class, "strip", MethodType.methodType(String.class));
+        } catch (ReflectiveOperationException ignored) {
+            // String.strip() is not available before Java 11
+        }
+    }
+
+    @Benchmark
+    public void regex(final Blackhole blackhole) {
+        for (String input : INPUTS) {
+            blackhole.consume(input.replaceAll("^\\s++|\\s++$", ""));
+        }
+    }
+
+    @Benchmark
+    public void runtimeHelper(final Blackhole blackhole) {
+        for (String input : INPUTS) {
+            blackhole.consume(StringMethods.strip(input));
+        }
+    }
+
+    @Benchmark
+    public void nativeStrip(final Blackhole blackhole) throws Throwable {
+        if (this.nativeStrip == null) {
+            throw new UnsupportedOperationException("String.strip() requires Java 11 or newer");
+        }
+        for (String input : INPUTS) {
+            blackhole.consume((String) this.nativeStrip.invokeExact(input));
+        }
+    }
+
+}
@@ -0,0 +1,342 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.benchmark;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.*;
+
+/**
+ * Generates Java 17+ classes which exercise the common downgrading paths, so the benchmarks don't depend on any jar
+ * being present on the machine.
+ */
+public class SyntheticCorpus {
+
+    public enum Shape {
+        PLAIN,
+        STRING_CONCAT,
+        COLLECTIONS,
+        LAMBDA,
+        RECORD,
+        NEST
+    }
+
+    private static final Handle STRING_CONCAT_BSM = new Handle(
+            Opcodes.H_INVOKESTATIC,
+            "java/lang/invoke/StringConcatFactory",
+            "makeConcatWithConstants",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;",
+            false
+    );
+    private static final Handle OBJECT_METHODS_BSM = new Handle(
+            Opcodes.H_INVOKESTATIC,
+            "java/lang/runtime/ObjectMethods",
+            "bootstrap",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/TypeDescriptor;Ljava/lang/Class;Ljava/lang/String;[Ljava/lang/invoke/MethodHandle;)Ljava/lang/Object;",
+            false
+    );
+    private static final Handle METAFACTORY_BSM = new Handle(
+            Opcodes.H_INVOKESTATIC,
+            "java/lang/invoke/LambdaMetafactory",
+            "metafactory",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;",
+            false
+    );
+
+    /**
+     * @param classCount      The amount of classes to generate
+     * @param methodsPerClass The amount of methods per class
+     * @return The generated class files
+     */
+    public static List<byte[]> generate(final int classCount, final int methodsPerClass) {
+        final List<byte[]> classes = new ArrayList<>(classCount);
+        for (int i = 0; i < classCount; i++) {
+            classes.addAll(generate(Shape.values()[i % 4], Opcodes.V17, "corpus/Class" + i, methodsPerClass));
+        }
+        return classes;
+    }
+
+    /**
+     * Generates classes of a single shape.
+     *
+     * @param shape           The shape of the classes
+     * @param version         The class file version
+     * @param classCount      The amount of classes to generate. Nests generate two classes each
+     * @param methodsPerClass The amount of methods per class
+     * @return The generated class files
+     */
+    public static List<byte[]> generate(final Shape shape, final int version, final int classCount, final int methodsPerClass) {
+        final List<byte[]> classes = new ArrayList<>(classCount);
+        for (int i = 0; i < classCount; i++) {
+            classes.addAll(generate(shape, version, "corpus/" + shape.name().toLowerCase(Locale.ROOT) + "/Class" + i, methodsPerClass));
+        }
+        return classes;
+    }
+
+    private static List<byte[]> generate(final Shape shape, final int version, final String name, final int methods) {
+        switch (shape) {
+            case PLAIN:
+                return Collections.singletonList(plainClass(version, name, methods));
+            case STRING_CONCAT:
+                return Collections.singletonList(stringConcatClass(version, name, methods));
+            case COLLECTIONS:
+                return Collections.singletonList(collectionsClass(version, name, methods));
+            case LAMBDA:
+                return Collections.singletonList(lambdaClass(version, name, methods));
+            case RECORD:
+                return Collections.singletonList(recordClass(version, name, methods));
+            case NEST:
+                return nestClasses(version, name, methods);
+            default:
+                throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+    }
+
+    /**
+     * A class which only needs its version lowered.
+     */
+    public static byte[] plainClass(final int version, final String name, final int methods) {
+        final ClassWriter classWriter = createClass(version, name);
+        for (int i = 0; i < methods; i++) {
+            final MethodVisitor methodVisitor = classWriter.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "compute" + i, "(II)I", null, null);
+            methodVisitor.visitCode();
+            methodVisitor.visitVarInsn(Opcodes.ILOAD, 0);
+            methodVisitor.visitVarInsn(Opcodes.ILOAD, 1);
+            methodVisitor.visitInsn(Opcodes.IMUL);
+            methodVisitor.visitLdcInsn(i);
+            methodVisitor.visitInsn(Opcodes.IADD);
+            methodVisitor.visitInsn(Opcodes.IRETURN);
+            methodVisitor.visitMaxs(0, 0);
+            methodVisitor.visitEnd();
+        }
+        return finishClass(classWriter);
+    }
+
+    /**
+     * A class where every method builds a string using {@code StringConcatFactory}.
+     */
+    public static byte[] stringConcatClass(final int version, final String name, final int methods) {
+        final ClassWriter classWriter = createClass(version, name);
+        for (int i = 0; i < methods; i++) {
+            final MethodVisitor methodVisitor = classWriter.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "describe" + i, "(Ljava/lang/String;IJ)Ljava/lang/String;", null, null);
+            methodVisitor.visitCode();
+            methodVisitor.visitVarInsn(Opcodes.ALOAD, 0);
+            methodVisitor.visitVarInsn(Opcodes.ILOAD, 1);
+            methodVisitor.visitVarInsn(Opcodes.LLOAD, 2);
+            methodVisitor.visitInvokeDynamicInsn("makeConcatWithConstants", "(Ljava/lang/String;IJ)Ljava/lang/String;", STRING_CONCAT_BSM, "name=\u0001, id=\u0001, time=\u0001 #" + i);
+            methodVisitor.visitInsn(Opcodes.ARETURN);
+            methodVisitor.visitMaxs(0, 0);
+            methodVisitor.visitEnd();
+        }
+        return finishClass(classWriter);
+    }
+
+    /**
+     * A class where every method creates immutable collections using {@code List.of}, {@code Map.of} and {@code Set.of}.
+     */
+    public static byte[] collectionsClass(final int version, final String name, final int methods) {
+        final ClassWriter classWriter = createClass(version, name);
+        for (int i = 0; i < methods; i++) {
+            final MethodVisitor methodVisitor = classWriter.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "collect" + i, "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)Ljava/util/Set;", null, null);
+            methodVisitor.visitCode();
+            methodVisitor.visitVarInsn(Opcodes.ALOAD, 0);
+            methodVisitor.visitVarInsn(Opcodes.ALOAD, 1);
+            methodVisitor.visitVarInsn(Opcodes.ALOAD, 2);
+            methodVisitor.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/List", "of", "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)Ljava/util/List;", true);
+            methodVisitor.visitInsn(Opcodes.POP);
+            methodVisitor.visitVarInsn(Opcodes.ALOAD, 0);
+            methodVisitor.visitVarInsn(Opcodes.ALOAD, 1);
+            methodVisitor.visitVarInsn(Opcodes.ALOAD, 1);
+            methodVisitor.visitVarInsn(Opcodes.ALOAD, 2);
+            methodVisitor.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/Map", "of", "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)Ljava/util/Map;", true);
+            methodVisitor.visitInsn(Opcodes.POP);
+            methodVisitor.visitVarInsn(Opcodes.ALOAD, 0);
+            methodVisitor.visitVarInsn(Opcodes.ALOAD, 1);
+            methodVisitor.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/Set", "of", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/util/Set;", true);
+            methodVisitor.visitInsn(Opcodes.ARETURN);
+            methodVisitor.visitMaxs(0, 0);
+            methodVisitor.visitEnd();
+        }
+        return finishClass(classWriter);
+    }
+
+    /**
+     * A class where every method creates a method reference to {@code String::strip}, which requires a bridge method.
+     */
+    public static byte[] lambdaClass(final int version, final String name, final int methods) {
+        final ClassWriter classWriter = createClass(version, name);
+        for (int i = 0; i < methods; i++) {
+            final MethodVisitor methodVisitor = classWriter.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "stripper" + i, "()Ljava/util/function/Function;", null, null);
+            methodVisitor.visitCode();
+            methodVisitor.visitInvokeDynamicInsn("apply", "()Ljava/util/function/Function;", METAFACTORY_BSM,
+                    Type.getType("(Ljava/lang/Object;)Ljava/lang/Object;"),
+                    new Handle(Opcodes.H_INVOKEVIRTUAL, "java/lang/String", "strip", "()Ljava/lang/String;", false),
+                    Type.getType("(Ljava/lang/String;)Ljava/lang/String;")
+            );
+            methodVisitor.visitInsn(Opcodes.ARETURN);
+            methodVisitor.visitMaxs(0, 0);
+            methodVisitor.visitEnd();
+        }
+        return finishClass(classWriter);
+    }
+
+    /**
+     * A record with four components whose {@code toString}, {@code hashCode} and {@code equals} methods use
+     * {@code ObjectMethods}, plus methods which read the components.
+     */
+    public static byte[] recordClass(final int version, final String name, final int methods) {
+        final String[][] components = {{"id", "I"}, {"timestamp", "J"}, {"name", "Ljava/lang/String;"}, {"weight", "D"}};
+        final ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(version, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_RECORD, name, null, "java/lang/Record", null);
+
+        final StringBuilder names = new StringBuilder();
+        final StringBuilder constructorDesc = new StringBuilder("(");
+        final Handle[] getters = new Handle[components.length];
+        for (int i = 0; i < components.length; i++) {
+            classWriter.visitRecordComponent(components[i][0], components[i][1], null).visitEnd();
+            classWriter.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, components[i][0], components[i][1], null, null).visitEnd();
+            if (i > 0) names.append(';');
+            names.append(components[i][0]);
+            constructorDesc.append(components[i][1]);
+            getters[i] = new Handle(Opcodes.H_GETFIELD, name, components[i][0], components[i][1], false);
+        }
+        constructorDesc.append(")V");
+
+        final MethodVisitor constructor = classWriter.visitMethod(Opcodes.ACC_PUBLIC, "<init>", constructorDesc.toString(), null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Record", "<init>", "()V", false);
+        int local = 1;
+        for (String[] component : components) {
+            final Type type = Type.getType(component[1]);
+            constructor.visitVarInsn(Opcodes.ALOAD, 0);
+            constructor.visitVarInsn(type.getOpcode(Opcodes.ILOAD), local);
+            constructor.visitFieldInsn(Opcodes.PUTFIELD, name, component[0], component[1]);
+            local += type.getSize();
+        }
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        for (String[] component : components) {
+            final MethodVisitor accessor = classWriter.visitMethod(Opcodes.ACC_PUBLIC, component[0], "()" + component[1], null, null);
+            accessor.visitCode();
+            accessor.visitVarInsn(Opcodes.ALOAD, 0);
+            accessor.visitFieldInsn(Opcodes.GETFIELD, name, component[0], component[1]);
+            accessor.visitInsn(Type.getType(component[1]).getOpcode(Opcodes.IRETURN));
+            accessor.visitMaxs(0, 0);
+            accessor.visitEnd();
+        }
+
+        final Object[] bsmArgs = new Object[getters.length + 2];
+        bsmArgs[0] = Type.getObjectType(name);
+        bsmArgs[1] = names.toString();
+        System.arraycopy(getters, 0, bsmArgs, 2, getters.length);
+        final String[][] objectMethods = {{"toString", "()Ljava/lang/String;", "(L" + name + ";)Ljava/lang/String;"}, {"hashCode", "()I", "(L" + name + ";)I"}, {"equals", "(Ljava/lang/Object;)Z", "(L" + name + ";Ljava/lang/Object;)Z"}};
+        for (String[] objectMethod : objectMethods) {
+            final MethodVisitor methodVisitor = classWriter.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, objectMethod[0], objectMethod[1], null, null);
+            methodVisitor.visitCode();
+            methodVisitor.visitVarInsn(Opcodes.ALOAD, 0);
+            if (objectMethod[0].equals("equals")) methodVisitor.visitVarInsn(Opcodes.ALOAD, 1);
+            methodVisitor.visitInvokeDynamicInsn(objectMethod[0], objectMethod[2], OBJECT_METHODS_BSM, bsmArgs);
+            methodVisitor.visitInsn(Type.getReturnType(objectMethod[1]).getOpcode(Opcodes.IRETURN));
+            methodVisitor.visitMaxs(0, 0);
+            methodVisitor.visitEnd();
+        }
+
+        for (int i = 0; i < methods; i++) {
+            final MethodVisitor methodVisitor = classWriter.visitMethod(Opcodes.ACC_PUBLIC, "score" + i, "()J", null, null);
+            methodVisitor.visitCode();
+            methodVisitor.visitVarInsn(Opcodes.ALOAD, 0);
+            methodVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, "id", "()I", false);
+            methodVisitor.visitInsn(Opcodes.I2L);
+            methodVisitor.visitVarInsn(Opcodes.ALOAD, 0);
+            methodVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, "timestamp", "()J", false);
+            methodVisitor.visitInsn(Opcodes.LADD);
+            methodVisitor.visitLdcInsn((long) i);
+            methodVisitor.visitInsn(Opcodes.LMUL);
+            methodVisitor.visitInsn(Opcodes.LRETURN);
+            methodVisitor.visitMaxs(0, 0);
+            methodVisitor.visitEnd();
+        }
+        return finishClass(classWriter);
+    }
+
+    /**
+     * A nest host with a private field and method, and a nest member whose methods access them directly.
+     */
+    public static List<byte[]> nestClasses(final int version, final String name, final int methods) {
+        final String memberName = name + "$Member";
+
+        final ClassWriter host = createClass(version, name);
+        host.visitNestMember(memberName);
+        host.visitInnerClass(memberName, name, "Member", Opcodes.ACC_STATIC);
+        host.visitField(Opcodes.ACC_PRIVATE, "secret", "I", null, null).visitEnd();
+        final MethodVisitor secretMethod = host.visitMethod(Opcodes.ACC_PRIVATE, "secret", "(I)I", null, null);
+        secretMethod.visitCode();
+        secretMethod.visitVarInsn(Opcodes.ALOAD, 0);
+        secretMethod.visitFieldInsn(Opcodes.GETFIELD, name, "secret", "I");
+        secretMethod.visitVarInsn(Opcodes.ILOAD, 1);
+        secretMethod.visitInsn(Opcodes.IXOR);
+        secretMethod.visitInsn(Opcodes.IRETURN);
+        secretMethod.visitMaxs(0, 0);
+        secretMethod.visitEnd();
+
+        final ClassWriter member = createClass(version, memberName);
+        member.visitNestHost(name);
+        member.visitInnerClass(memberName, name, "Member", Opcodes.ACC_STATIC);
+        for (int i = 0; i < methods; i++) {
+            final MethodVisitor methodVisitor = member.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "reveal" + i, "(L" + name + ";)I", null, null);
+            methodVisitor.visitCode();
+            methodVisitor.visitVarInsn(Opcodes.ALOAD, 0);
+            methodVisitor.visitVarInsn(Opcodes.ALOAD, 0);
+            methodVisitor.visitFieldInsn(Opcodes.GETFIELD, name, "secret", "I");
+            methodVisitor.visitLdcInsn(i);
+            methodVisitor.visitInsn(Opcodes.IADD);
+            methodVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, "secret", "(I)I", false);
+            methodVisitor.visitInsn(Opcodes.IRETURN);
+            methodVisitor.visitMaxs(0, 0);
+            methodVisitor.visitEnd();
+        }
+        return Arrays.asList(finishClass(host), finishClass(member));
+    }
+
+    private static ClassWriter createClass(final int version, final String name) {
+        final ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(version, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+
+        final MethodVisitor constructor = classWriter.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+        return classWriter;
+    }
+
+    private static byte[] finishClass(final ClassWriter classWriter) {
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+}
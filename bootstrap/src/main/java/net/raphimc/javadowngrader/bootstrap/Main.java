@@ -23,6 +23,7 @@ import net.lenni0451.classtransform.utils.loader.InjectionClassLoader;
 import net.lenni0451.classtransform.utils.tree.BasicClassProvider;
 import net.lenni0451.reflect.ClassLoaders;
 import net.lenni0451.reflect.Methods;
+import net.raphimc.javadowngrader.bootstrap.util.CacheUtil;
 import net.raphimc.javadowngrader.impl.classtransform.JavaDowngraderTransformer;
 
 import java.io.File;
@@ -67,7 +68,7 @@ public class Main {
         args = Arrays.copyOfRange(args, 1, args.length);
 
         final TransformerManager transformerManager = new TransformerManager(new LazyFileClassProvider(Collections.singletonList(jarFile), new BasicClassProvider()));
-        transformerManager.addBytecodeTransformer(new JavaDowngraderTransformer(transformerManager));
+        transformerManager.addBytecodeTransformer(JavaDowngraderTransformer.builder(transformerManager).cache(CacheUtil.fromSystemProperties(), CacheUtil.classPathFingerprint(jarFile)).build());
         final InjectionClassLoader injectionClassLoader = new InjectionClassLoader(transformerManager, urls);
         Thread.currentThread().setContextClassLoader(injectionClassLoader);
         Methods.invoke(null, Methods.getDeclaredMethod(injectionClassLoader.loadClass(mainClass), "main", String[].class), (Object) args);
@@ -0,0 +1,65 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.bootstrap.util;
+
+import net.raphimc.javadowngrader.impl.classtransform.cache.DowngradeCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CacheUtil {
+
+    /**
+     * Creates the cache configured with the {@code javaDowngraderCache} (directory) and
+     * {@code javaDowngraderCacheSize} (megabytes, default 512) system properties.
+     *
+     * @return The cache or null if no cache directory is set
+     */
+    public static DowngradeCache fromSystemProperties() {
+        final String directory = System.getProperty("javaDowngraderCache");
+        if (directory == null) {
+            return null;
+        }
+        try {
+            return new DowngradeCache(Paths.get(directory), Long.getLong("javaDowngraderCacheSize", 512) * 1024 * 1024);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Unable to open downgrade cache '" + directory + "': " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Computes the class path fingerprint of the cache from the {@code java.class.path} system property.
+     *
+     * @param additionalFiles Files which are loaded in addition to the system class path
+     * @return The fingerprint
+     */
+    public static String classPathFingerprint(final File... additionalFiles) {
+        final List<File> classPath = new ArrayList<>();
+        for (String path : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+            if (!path.isEmpty()) classPath.add(new File(path));
+        }
+        classPath.addAll(Arrays.asList(additionalFiles));
+        return DowngradeCache.classPathFingerprint(classPath);
+    }
+
+}
@@ -19,32 +19,33 @@ package net.raphimc.javadowngrader.gradle.task;
 
 import net.lenni0451.classtransform.TransformerManager;
 import net.lenni0451.classtransform.additionalclassprovider.LazyFileClassProvider;
-import net.lenni0451.classtransform.additionalclassprovider.PathClassProvider;
 import net.lenni0451.classtransform.utils.tree.BasicClassProvider;
 import net.raphimc.javadowngrader.impl.classtransform.JavaDowngraderTransformer;
+import net.raphimc.javadowngrader.impl.classtransform.cache.DowngradeCache;
+import net.raphimc.javadowngrader.impl.classtransform.jar.*;
 import net.raphimc.javadowngrader.impl.classtransform.util.ClassNameUtil;
 import net.raphimc.javadowngrader.runtime.RuntimeRoot;
+import net.raphimc.javadowngrader.transformer.DowngradeResult;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.TaskAction;
 import org.objectweb.asm.Opcodes;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UncheckedIOException;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.nio.file.*;
+import java.nio.file.Files;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashSet;
-import java.util.stream.Stream;
 
 public abstract class DowngradeJarTask extends DefaultTask {
 
@@ -63,69 +64,74 @@ public abstract class DowngradeJarTask extends DefaultTask {
     @Input
     public abstract Property<Boolean> getCopyRuntimeClasses();
 
+    @Input
+    public abstract Property<Integer> getHotSpots();
+
+    @Input
+    public abstract Property<Boolean> getSharedHelpers();
+
+    @Input
+    @Optional
+    public abstract Property<Integer> getFlattenMultiRelease();
+
+    @Internal
+    public abstract DirectoryProperty getCacheDirectory();
+
+    @Internal
+    public abstract Property<Integer> getCacheSize();
+
     public DowngradeJarTask() {
         getOutputSuffix().convention("-downgraded");
         getTargetVersion().convention(Opcodes.V1_8);
         getCopyRuntimeClasses().convention(true);
+        getHotSpots().convention(0);
+        getSharedHelpers().convention(false);
+        getCacheSize().convention(512);
     }
 
     @TaskAction
-    public void run() throws IOException, URISyntaxException {
+    public void run() throws IOException {
         final File inputFile = getInput().getAsFile().get();
         System.out.println("Downgrading jar: " + inputFile);
+        final DowngradeCache cache = getCacheDirectory().isPresent() ? new DowngradeCache(getCacheDirectory().get().getAsFile().toPath(), getCacheSize().get() * 1024L * 1024L) : null;
 
-        try (FileSystem inFs = FileSystems.newFileSystem(inputFile.toPath(), (ClassLoader) null)) {
-            final Path inRoot = inFs.getRootDirectories().iterator().next();
-
+        try (ZipSource inZip = new ZipSource(inputFile);
+             NestedJarClassProvider nestedClasses = new NestedJarClassProvider(inZip, new LazyFileClassProvider(getCompileClassPath().getFiles(), new BasicClassProvider()))) {
             final Collection<String> runtimeDeps = new HashSet<>();
-            final TransformerManager transformerManager = new TransformerManager(
-                    new PathClassProvider(inRoot, new LazyFileClassProvider(getCompileClassPath().getFiles(), new BasicClassProvider()))
-            );
+            final DowngradeResult stats = new DowngradeResult();
+            final int multiReleaseVersion = getFlattenMultiRelease().getOrElse(0);
+            final JarClassProvider jarClasses = multiReleaseVersion != 0 ? new JarClassProvider(inZip, multiReleaseVersion, nestedClasses) : new JarClassProvider(inZip, nestedClasses);
+            final TransformerManager transformerManager = new TransformerManager(jarClasses);
             transformerManager.addBytecodeTransformer(
                     JavaDowngraderTransformer.builder(transformerManager)
                             .targetVersion(getTargetVersion().get())
-                            .classFilter(c -> Files.isRegularFile(inRoot.resolve(ClassNameUtil.toClassFilename(c))))
+                            .classFilter(c -> jarClasses.contains(c) || nestedClasses.contains(c))
                             .depCollector(runtimeDeps::add)
+                            .resultConsumer(getHotSpots().get() > 0 ? stats::add : null)
+                            .sharedHelpers(getSharedHelpers().get())
+                            .cache(cache, cache != null ? DowngradeCache.classPathFingerprint(getCompileClassPath().getFiles()) + DowngradeCache.classHeaderFingerprint(inZip) : null)
                             .build()
             );
 
             final String outputName = inputFile.getName().substring(0, inputFile.getName().length() - 4) + getOutputSuffix().get();
             final File outputFile = new File(inputFile.getParentFile(), outputName + ".jar");
 
-            try (FileSystem outFs = FileSystems.newFileSystem(new URI("jar:" + outputFile.toURI()), Collections.singletonMap("create", "true"))) {
-                final Path outRoot = outFs.getRootDirectories().iterator().next();
-
-                // Downgrade classes
-                try (Stream<Path> stream = Files.walk(inRoot)) {
-                    stream.forEach(path -> {
-                        try {
-                            final String relative = ClassNameUtil.slashName(inRoot.relativize(path));
-                            final Path dest = outRoot.resolve(relative);
-                            if (Files.isDirectory(path)) {
-                                Files.createDirectories(dest);
-                                return;
-                            }
-                            final Path parent = dest.getParent();
-                            if (parent != null) {
-                                Files.createDirectories(parent);
-                            }
-                            if (!relative.endsWith(".class") || relative.contains("META-INF/versions/")) {
-                                Files.copy(path, dest, StandardCopyOption.REPLACE_EXISTING);
-                                return;
-                            }
-                            final String className = ClassNameUtil.toClassName(relative);
-                            final byte[] bytecode = Files.readAllBytes(path);
-                            final byte[] result;
-                            try {
-                                result = transformerManager.transform(className, bytecode);
-                            } catch (Throwable e) {
-                                throw new RuntimeException("Failed to transform " + className, e);
-                            }
-                            Files.write(dest, result != null ? result : bytecode);
-                        } catch (IOException e) {
-                            throw new UncheckedIOException(e);
-                        }
-                    });
+            try (ZipSink outZip = new ZipSink(new BufferedOutputStream(Files.newOutputStream(outputFile.toPath())))) {
+                // Downgrade classes, everything else is copied as it is
+                final JarPipeline pipeline = new JarPipeline(inZip, Runnable::run, 1)
+                        .nestedJars(NestedJarClassProvider::isNestedJar)
+                        .flattenMultiRelease(multiReleaseVersion);
+                pipeline.run(outZip, name -> name.endsWith(".class") && !name.startsWith("META-INF/versions/"), (name, data) -> {
+                    final String className = ClassNameUtil.toClassName(JarPipeline.stripNestedJars(name));
+                    try {
+                        return transformerManager.transform(className, data);
+                    } catch (Throwable e) {
+                        throw new RuntimeException("Failed to transform " + name, e);
+                    }
+                });
+
+                if (getHotSpots().get() > 0) {
+                    System.out.print(stats.formatHotSpots(getHotSpots().get()));
                 }
 
                 // Copy runtime classes
@@ -136,12 +142,12 @@ public abstract class DowngradeJarTask extends DefaultTask {
                             if (is == null) {
                                 throw new IllegalStateException("Missing runtime class " + runtimeDep);
                             }
-                            final Path dest = outRoot.resolve(classPath);
-                            final Path parent = dest.getParent();
-                            if (parent != null) {
-                                Files.createDirectories(parent);
+                            if (outZip.contains(classPath)) {
+                                continue;
                             }
-                            Files.copy(is, dest, StandardCopyOption.REPLACE_EXISTING);
+                            final ZipEntryData entry = pipeline.compress(classPath, is);
+                            outZip.writeParentDirectories(classPath);
+                            outZip.write(entry);
                         }
                     }
                 }
@@ -22,11 +22,15 @@ import net.lenni0451.classtransform.additionalclassprovider.LazyFileClassProvide
 import net.lenni0451.classtransform.additionalclassprovider.PathClassProvider;
 import net.lenni0451.classtransform.utils.tree.BasicClassProvider;
 import net.raphimc.javadowngrader.impl.classtransform.JavaDowngraderTransformer;
+import net.raphimc.javadowngrader.impl.classtransform.cache.DowngradeCache;
 import net.raphimc.javadowngrader.impl.classtransform.util.ClassNameUtil;
 import net.raphimc.javadowngrader.runtime.RuntimeRoot;
+import net.raphimc.javadowngrader.transformer.DowngradeResult;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.TaskAction;
 import org.objectweb.asm.Opcodes;
@@ -52,18 +56,35 @@ public abstract class DowngradeSourceSetTask extends DefaultTask {
     @Input
     public abstract Property<Boolean> getCopyRuntimeClasses();
 
+    @Input
+    public abstract Property<Integer> getHotSpots();
+
+    @Input
+    public abstract Property<Boolean> getSharedHelpers();
+
+    @Internal
+    public abstract DirectoryProperty getCacheDirectory();
+
+    @Internal
+    public abstract Property<Integer> getCacheSize();
+
     public DowngradeSourceSetTask() {
         getTargetVersion().convention(Opcodes.V1_8);
         getCopyRuntimeClasses().convention(true);
+        getHotSpots().convention(0);
+        getSharedHelpers().convention(false);
+        getCacheSize().convention(512);
     }
 
     @TaskAction
     public void run() throws IOException {
+        final DowngradeCache cache = getCacheDirectory().isPresent() ? new DowngradeCache(getCacheDirectory().get().getAsFile().toPath(), getCacheSize().get() * 1024L * 1024L) : null;
         for (File classesDir : getSourceSet().get().getOutput().getClassesDirs()) {
             System.out.println("Downgrading source set: " + this.getProject().getProjectDir().toPath().relativize(classesDir.toPath()));
             final Path inRoot = classesDir.toPath();
 
             final Collection<String> runtimeDeps = new HashSet<>();
+            final DowngradeResult stats = new DowngradeResult();
             final TransformerManager transformerManager = new TransformerManager(
                     new PathClassProvider(inRoot, new LazyFileClassProvider(getSourceSet().get().getCompileClasspath().getFiles(), new BasicClassProvider()))
             );
@@ -72,6 +93,9 @@ public abstract class DowngradeSourceSetTask extends DefaultTask {
                             .targetVersion(getTargetVersion().get())
                             .classFilter(c -> Files.isRegularFile(inRoot.resolve(ClassNameUtil.toClassFilename(c))))
                             .depCollector(runtimeDeps::add)
+                            .resultConsumer(getHotSpots().get() > 0 ? stats::add : null)
+                            .sharedHelpers(getSharedHelpers().get())
+                            .cache(cache, cache != null ? DowngradeCache.classPathFingerprint(getSourceSet().get().getCompileClasspath().getFiles()) + DowngradeCache.classHeaderFingerprint(inRoot) : null)
                             .build()
             );
 
@@ -98,6 +122,10 @@ public abstract class DowngradeSourceSetTask extends DefaultTask {
                 });
             }
 
+            if (getHotSpots().get() > 0) {
+                System.out.print(stats.formatHotSpots(getHotSpots().get()));
+            }
+
             // Copy runtime classes
             if (getCopyRuntimeClasses().get()) {
                 for (final String runtimeDep : runtimeDeps) {
@@ -20,12 +20,28 @@ package net.raphimc.javadowngrader.impl.classtransform;
 import net.lenni0451.classtransform.TransformerManager;
 import net.lenni0451.classtransform.transformer.IBytecodeTransformer;
 import net.lenni0451.classtransform.utils.ASMUtils;
+import net.raphimc.javadowngrader.ClassHierarchy;
 import net.raphimc.javadowngrader.JavaDowngrader;
 import net.raphimc.javadowngrader.RuntimeDepCollector;
+import net.raphimc.javadowngrader.impl.classtransform.cache.DowngradeCache;
+import net.raphimc.javadowngrader.impl.classtransform.util.ClassProviderHierarchy;
+import net.raphimc.javadowngrader.transformer.DowngradePlan;
 import net.raphimc.javadowngrader.transformer.DowngradeResult;
+import net.raphimc.javadowngrader.transformer.DowngradingClassVisitor;
+import net.raphimc.javadowngrader.util.ConstantPoolScan;
+import net.raphimc.javadowngrader.util.JfrEvent;
+import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 public class JavaDowngraderTransformer implements IBytecodeTransformer {
@@ -44,6 +60,11 @@ public class JavaDowngraderTransformer implements IBytecodeTransformer {
     private final int targetVersion;
     private final Predicate<String> classFilter;
     private final RuntimeDepCollector depCollector;
+    private final boolean streaming;
+    private final ClassHierarchy classHierarchy;
+    private final Consumer<DowngradeResult> resultConsumer;
+    private final DowngradeCache cache;
+    private final String classPathFingerprint;
 
     public JavaDowngraderTransformer(final TransformerManager transformerManager) {
         this(transformerManager, NATIVE_CLASS_VERSION);
@@ -60,19 +81,29 @@ public class JavaDowngraderTransformer implements IBytecodeTransformer {
 
     @Deprecated
     public JavaDowngraderTransformer(final TransformerManager transformerManager, final int targetVersion, final Predicate<String> classFilter) {
-        this(transformerManager, targetVersion, classFilter, RuntimeDepCollector.NULL);
+        this(transformerManager, targetVersion, classFilter, RuntimeDepCollector.NULL, false, null, null, null, null);
     }
 
     JavaDowngraderTransformer(
             TransformerManager transformerManager,
             int targetVersion,
             Predicate<String> classFilter,
-            RuntimeDepCollector depCollector
+            RuntimeDepCollector depCollector,
+            boolean streaming,
+            ClassHierarchy classHierarchy,
+            Consumer<DowngradeResult> resultConsumer,
+            DowngradeCache cache,
+            String classPathFingerprint
     ) {
         this.transformerManager = transformerManager;
         this.targetVersion = targetVersion;
         this.classFilter = classFilter;
         this.depCollector = depCollector;
+        this.streaming = streaming;
+        this.classHierarchy = classHierarchy != null ? classHierarchy : new ClassProviderHierarchy(transformerManager.getClassProvider());
+        this.resultConsumer = resultConsumer;
+        this.cache = cache;
+        this.classPathFingerprint = classPathFingerprint;
     }
 
     @Override
@@ -85,17 +116,124 @@ public class JavaDowngraderTransformer implements IBytecodeTransformer {
             return null;
         }
 
+        final Object event = JfrEvent.CLASS_DOWNGRADE.begin();
+        // The transformers are only timed if someone looks at the results
+        final DowngradeResult result = new DowngradeResult(this.resultConsumer != null);
+        final byte[] downgraded = this.downgrade(majorVersion, bytecode, calculateStackMapFrames, result);
+        JfrEvent.CLASS_DOWNGRADE.commit(event, className, bytecode.length, result.getTransformerCount());
+        return downgraded;
+    }
+
+    private byte[] downgrade(final int majorVersion, final byte[] bytecode, final boolean calculateStackMapFrames, final DowngradeResult result) {
+        final DowngradePlan plan = JavaDowngrader.getPlan(majorVersion, this.targetVersion);
+        final ConstantPoolScan scan = ConstantPoolScan.scan(bytecode);
+        if (!plan.requiresTransformation(scan, this.classHierarchy)) {
+            return plan.downgradeVersion(bytecode);
+        }
+        if (this.cache == null) {
+            return this.transform(plan, scan, bytecode, calculateStackMapFrames, this.depCollector, result);
+        }
+
+        final String key = this.cache.key(bytecode, this.targetVersion, calculateStackMapFrames, this.streaming, this.depCollector.useSharedHelpers(), this.classPathFingerprint);
+        final DowngradeCache.Entry entry = this.cache.get(key);
+        if (entry != null) {
+            entry.getRuntimeDeps().forEach(this.depCollector);
+            return entry.getBytecode();
+        }
+        final Set<String> runtimeDeps = new LinkedHashSet<>();
+        final RuntimeDepCollector cachingCollector = dep -> {
+            runtimeDeps.add(dep);
+            this.depCollector.accept(dep);
+        };
+        final byte[] downgraded = this.transform(plan, scan, bytecode, calculateStackMapFrames, this.depCollector.useSharedHelpers() ? RuntimeDepCollector.withSharedHelpers(cachingCollector) : cachingCollector, result);
+        this.cache.put(key, downgraded, runtimeDeps);
+        return downgraded;
+    }
+
+    private byte[] transform(final DowngradePlan plan, final ConstantPoolScan scan, final byte[] bytecode, final boolean calculateStackMapFrames, final RuntimeDepCollector depCollector, final DowngradeResult result) {
+        if (this.streaming && plan.canStream(scan, this.classHierarchy)) {
+            return this.transformStreaming(plan, scan, bytecode, calculateStackMapFrames, depCollector, result);
+        }
+
         final ClassNode classNode = ASMUtils.fromBytes(bytecode, 0);
-        final DowngradeResult result = JavaDowngrader.downgrade(classNode, this.targetVersion, this.depCollector);
+        plan.transform(classNode, scan, this.classHierarchy, depCollector, result);
+        if (this.resultConsumer != null) {
+            this.resultConsumer.accept(result);
+        }
 
         if (calculateStackMapFrames) {
-            int flags = result.requiresStackMapFrames() ? ClassWriter.COMPUTE_FRAMES : ClassWriter.COMPUTE_MAXS;
-            return ASMUtils.toBytes(classNode, this.transformerManager.getClassTree(), this.transformerManager.getClassProvider(), flags);
+            if (!result.requiresStackMapFrames()) {
+                return this.toBytes(classNode, ClassWriter.COMPUTE_MAXS);
+            }
+            return this.toBytesWithFrames(classNode, methodNode -> result.getModifiedMethods().isEmpty() || result.isModified(methodNode), result);
         } else {
             return ASMUtils.toStacklessBytes(classNode);
         }
     }
 
+    private byte[] transformStreaming(final DowngradePlan plan, final ConstantPoolScan scan, final byte[] bytecode, final boolean calculateStackMapFrames, final RuntimeDepCollector depCollector, final DowngradeResult result) {
+        final ClassReader classReader = new ClassReader(bytecode);
+        final ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        final DowngradingClassVisitor downgradingVisitor = new DowngradingClassVisitor(classWriter, plan, scan, depCollector, result);
+        classReader.accept(downgradingVisitor, calculateStackMapFrames ? 0 : ClassReader.SKIP_FRAMES);
+        final byte[] downgraded = classWriter.toByteArray();
+        if (this.resultConsumer != null) {
+            this.resultConsumer.accept(result);
+        }
+
+        if (calculateStackMapFrames && result.requiresStackMapFrames()) {
+            // The streamed methods are gone, so the modified ones have to be found again by their position in the output
+            final BitSet modifiedIndices = downgradingVisitor.getModifiedMethods();
+            final ClassNode classNode = ASMUtils.fromBytes(downgraded, 0);
+            final Set<MethodNode> modifiedMethods = new HashSet<>();
+            for (int i = modifiedIndices.nextSetBit(0); i >= 0; i = modifiedIndices.nextSetBit(i + 1)) {
+                modifiedMethods.add(classNode.methods.get(i));
+            }
+            return this.toBytesWithFrames(classNode, methodNode -> modifiedMethods.isEmpty() || modifiedMethods.contains(methodNode), result);
+        }
+        return downgraded;
+    }
+
+    /**
+     * Writes the class and recomputes the stack map frames of the given methods. All other methods keep their
+     * original frames, so the class hierarchy only has to be queried for the modified code.
+     */
+    private byte[] toBytesWithFrames(final ClassNode classNode, final Predicate<MethodNode> modified, final DowngradeResult result) {
+        final Object event = JfrEvent.FRAME_COMPUTATION.begin();
+        final byte[] bytecode = this.computeFrames(classNode, modified);
+        JfrEvent.FRAME_COMPUTATION.commit(event, classNode.name, bytecode.length, result.getTransformerCount());
+        return bytecode;
+    }
+
+    private byte[] computeFrames(final ClassNode classNode, final Predicate<MethodNode> modified) {
+        final ClassNode frameNode = new ClassNode();
+        frameNode.version = classNode.version;
+        frameNode.access = classNode.access;
+        frameNode.name = classNode.name;
+        frameNode.superName = classNode.superName;
+        frameNode.interfaces = classNode.interfaces;
+        final List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < classNode.methods.size(); i++) {
+            if (modified.test(classNode.methods.get(i))) {
+                frameNode.methods.add(classNode.methods.get(i));
+                indices.add(i);
+            }
+        }
+        if (indices.size() == classNode.methods.size()) {
+            return this.toBytes(classNode, ClassWriter.COMPUTE_FRAMES);
+        }
+
+        final ClassNode computedNode = ASMUtils.fromBytes(this.toBytes(frameNode, ClassWriter.COMPUTE_FRAMES), 0);
+        for (int i = 0; i < indices.size(); i++) {
+            classNode.methods.set(indices.get(i), computedNode.methods.get(i));
+        }
+        return this.toBytes(classNode, ClassWriter.COMPUTE_MAXS);
+    }
+
+    private byte[] toBytes(final ClassNode classNode, final int flags) {
+        return ASMUtils.toBytes(classNode, this.transformerManager.getClassTree(), this.transformerManager.getClassProvider(), flags);
+    }
+
     public static Builder builder(TransformerManager transformerManager) {
         return new Builder(transformerManager);
     }
@@ -105,6 +243,12 @@ public class JavaDowngraderTransformer implements IBytecodeTransformer {
         private int targetVersion = NATIVE_CLASS_VERSION;
         private Predicate<String> classFilter = c -> true;
         private RuntimeDepCollector depCollector = RuntimeDepCollector.NULL;
+        private boolean sharedHelpers = false;
+        private boolean streaming = false;
+        private ClassHierarchy classHierarchy = null;
+        private Consumer<DowngradeResult> resultConsumer = null;
+        private DowngradeCache cache = null;
+        private String classPathFingerprint = null;
 
         Builder(TransformerManager transformerManager) {
             this.transformerManager = transformerManager;
@@ -125,12 +269,76 @@ public class JavaDowngraderTransformer implements IBytecodeTransformer {
             return this;
         }
 
+        /**
+         * Calls helper methods like {@code InputStream.transferTo} from shared runtime classes instead of copying them
+         * into every class which needs them.<br>
+         * The runtime classes are passed to the dep collector and have to be shipped with the downgraded classes.
+         *
+         * @see RuntimeDepCollector#useSharedHelpers()
+         */
+        public Builder sharedHelpers(boolean sharedHelpers) {
+            this.sharedHelpers = sharedHelpers;
+            return this;
+        }
+
+        /**
+         * Transforms classes which don't need whole-class rewrites with a {@link DowngradingClassVisitor} instead of
+         * building a full {@link ClassNode}.
+         */
+        public Builder streaming(boolean streaming) {
+            this.streaming = streaming;
+            return this;
+        }
+
+        /**
+         * Sets the hierarchy used to find interfaces which are only implemented indirectly.<br>
+         * Defaults to reading the class headers from the class provider of the transformer manager.
+         */
+        public Builder classHierarchy(ClassHierarchy classHierarchy) {
+            this.classHierarchy = classHierarchy;
+            return this;
+        }
+
+        /**
+         * Sets a consumer which receives the {@link DowngradeResult} of every transformed class.<br>
+         * Classes which only got their version lowered don't produce a result. The consumer may be called from
+         * multiple threads at once.
+         */
+        public Builder resultConsumer(Consumer<DowngradeResult> resultConsumer) {
+            this.resultConsumer = resultConsumer;
+            return this;
+        }
+
+        /**
+         * Sets a persistent cache which is used to skip downgrading classes which were already downgraded before.<br>
+         * Classes which are loaded from the cache don't produce a {@link DowngradeResult}.
+         *
+         * @param cache                The cache or null to disable it
+         * @param classPathFingerprint The fingerprint of the class path the classes are downgraded against, including the
+         *                             headers of the classes which are downgraded together
+         * @see DowngradeCache#classPathFingerprint(java.util.Collection)
+         * @see DowngradeCache#classHeaderFingerprint(net.raphimc.javadowngrader.impl.classtransform.jar.ZipSource)
+         */
+        public Builder cache(DowngradeCache cache, String classPathFingerprint) {
+            if (cache != null && classPathFingerprint == null) {
+                throw new IllegalArgumentException("The cache requires a class path fingerprint");
+            }
+            this.cache = cache;
+            this.classPathFingerprint = classPathFingerprint;
+            return this;
+        }
+
         public JavaDowngraderTransformer build() {
             return new JavaDowngraderTransformer(
                     transformerManager,
                     targetVersion,
                     classFilter,
-                    depCollector
+                    sharedHelpers && !depCollector.useSharedHelpers() ? RuntimeDepCollector.withSharedHelpers(depCollector) : depCollector,
+                    streaming,
+                    classHierarchy,
+                    resultConsumer,
+                    cache,
+                    classPathFingerprint
             );
         }
     }
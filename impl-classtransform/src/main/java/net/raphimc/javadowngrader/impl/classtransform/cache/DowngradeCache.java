@@ -0,0 +1,409 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.impl.classtransform.cache;
+
+import net.raphimc.javadowngrader.impl.classtransform.jar.NestedJarClassProvider;
+import net.raphimc.javadowngrader.impl.classtransform.jar.ZipSource;
+import net.raphimc.javadowngrader.impl.classtransform.util.BuildInfo;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * A persistent cache for downgraded classes which can be shared by multiple processes.<br>
+ * Entries are stored in files named after the SHA-256 hash of the input class, the target version, the frame
+ * computation mode, the class path and class header fingerprints and the JavaDowngrader build. Files are written to a temporary file
+ * first and then moved into place, so other processes never see partially written entries.<br>
+ * The modification time of an entry is updated on every hit. If the cache grows larger than the maximum size, the
+ * least recently used entries are deleted.
+ */
+public class DowngradeCache {
+
+    private static final int MAGIC = 0x4A444301;
+    private static final String LOCK_FILE = "cache.lock";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final byte[] BUILD_ID = BuildInfo.BUILD_ID.getBytes(StandardCharsets.UTF_8);
+
+    private final Path directory;
+    private final long maxSize;
+    private final AtomicLong size = new AtomicLong(-1);
+
+    /**
+     * @param directory The directory to store the entries in
+     * @param maxSize   The maximum size of all entries in bytes
+     * @throws IOException If the directory can't be created
+     */
+    public DowngradeCache(final Path directory, final long maxSize) throws IOException {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The maximum cache size has to be positive");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Computes the key of a class.
+     *
+     * @param bytecode      The input class
+     * @param targetVersion The target class version
+     * @param computeFrames If the stack map frames are computed
+     * @param streaming     If the class is transformed while streaming
+     * @param sharedHelpers If helper methods are called from shared runtime classes
+     * @param classPath     The fingerprint of the class path the class hierarchy is resolved against
+     * @return The key
+     * @see #classPathFingerprint(Collection)
+     * @see #classHeaderFingerprint(ZipSource)
+     */
+    public String key(final byte[] bytecode, final int targetVersion, final boolean computeFrames, final boolean streaming, final boolean sharedHelpers, final String classPath) {
+        final MessageDigest digest = sha256();
+        digest.update(BUILD_ID);
+        digest.update(new byte[]{
+                (byte) (targetVersion >>> 24), (byte) (targetVersion >>> 16), (byte) (targetVersion >>> 8), (byte) targetVersion,
+                (byte) ((computeFrames ? 1 : 0) | (streaming ? 2 : 0) | (sharedHelpers ? 4 : 0))
+        });
+        digest.update(classPath.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(bytecode);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Computes a fingerprint of a class path which changes if any of the files or the running java version changes.<br>
+     * Frame computation and method inserters depend on the class hierarchy, so entries created against one class path
+     * can't be used for another.
+     *
+     * @param classPath The class path files
+     * @return The fingerprint
+     */
+    public static String classPathFingerprint(final Collection<File> classPath) {
+        final MessageDigest digest = sha256();
+        digest.update(System.getProperty("java.version", "").getBytes(StandardCharsets.UTF_8));
+        for (File file : classPath) {
+            digest.update((byte) 0);
+            digest.update((file.getAbsolutePath() + '/' + file.length() + '/' + file.lastModified()).getBytes(StandardCharsets.UTF_8));
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Computes a fingerprint of the headers of all classes in a jar and the jars nested in it.<br>
+     * The classes of the jar are part of the class hierarchy as well, so entries created for one version of the jar
+     * can't be used for another one whose classes extend, implement or declare something else.
+     *
+     * @param jar The jar
+     * @return The fingerprint
+     * @throws IOException If the jar can't be read
+     * @see #classHeaderFingerprint(Path)
+     */
+    public static String classHeaderFingerprint(final ZipSource jar) throws IOException {
+        final Map<String, byte[]> headers = new TreeMap<>();
+        addClassHeaders(jar, "", headers);
+        for (ZipSource.Entry entry : jar.getEntries()) {
+            if (entry.isDirectory() || !NestedJarClassProvider.isNestedJar(entry.getName())) continue;
+
+            try (ZipSource nestedJar = new ZipSource(jar.readBuffer(entry))) {
+                addClassHeaders(nestedJar, entry.getName() + '!', headers);
+            }
+        }
+        return hashHeaders(headers);
+    }
+
+    /**
+     * Computes a fingerprint of the headers of all classes in a directory.
+     *
+     * @param directory The directory
+     * @return The fingerprint
+     * @throws IOException If the directory can't be read
+     * @see #classHeaderFingerprint(ZipSource)
+     */
+    public static String classHeaderFingerprint(final Path directory) throws IOException {
+        final Map<String, byte[]> headers = new TreeMap<>();
+        try (Stream<Path> stream = Files.walk(directory)) {
+            final Iterator<Path> it = stream.iterator();
+            while (it.hasNext()) {
+                final Path path = it.next();
+                final String name = directory.relativize(path).toString().replace(File.separatorChar, '/');
+                if (name.endsWith(".class") && Files.isRegularFile(path)) {
+                    headers.put(name, classHeader(Files.readAllBytes(path)));
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return hashHeaders(headers);
+    }
+
+    private static void addClassHeaders(final ZipSource jar, final String prefix, final Map<String, byte[]> headers) throws IOException {
+        for (ZipSource.Entry entry : jar.getEntries()) {
+            if (entry.isDirectory() || !entry.getName().endsWith(".class")) continue;
+
+            headers.putIfAbsent(prefix + entry.getName(), classHeader(jar.read(entry)));
+        }
+    }
+
+    /**
+     * @return The access flags, name, super class and interfaces of the class and the names and descriptors of its methods.
+     * Classes which can't be parsed are represented by their bytecode
+     */
+    private static byte[] classHeader(final byte[] bytecode) {
+        final StringBuilder header = new StringBuilder();
+        final List<String> methods = new ArrayList<>();
+        try {
+            final ClassReader reader = new ClassReader(bytecode);
+            header.append(reader.getAccess()).append(' ').append(reader.getClassName()).append(' ').append(reader.getSuperName());
+            for (String itf : reader.getInterfaces()) {
+                header.append(' ').append(itf);
+            }
+            // Method inserters are skipped for classes with a super type which already declares the method
+            reader.accept(new ClassVisitor(Opcodes.ASM9) {
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                    methods.add(name + descriptor);
+                    return null;
+                }
+            }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        } catch (RuntimeException e) {
+            return bytecode;
+        }
+        Collections.sort(methods);
+        for (String method : methods) {
+            header.append('\n').append(method);
+        }
+        return header.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String hashHeaders(final Map<String, byte[]> headers) {
+        final MessageDigest digest = sha256();
+        for (Map.Entry<String, byte[]> header : headers.entrySet()) {
+            digest.update(header.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(header.getValue());
+            digest.update((byte) 0);
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String toHex(final byte[] hash) {
+        final char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = Character.forDigit((hash[i] >> 4) & 0xF, 16);
+            hex[i * 2 + 1] = Character.forDigit(hash[i] & 0xF, 16);
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Looks up a cached class.<br>
+     * Damaged entries are deleted and treated as missing.
+     *
+     * @param key The key returned by {@link #key}
+     * @return The cached entry or null if there is none
+     */
+    public Entry get(final String key) {
+        final Path file = this.file(key);
+        final Entry entry;
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("Invalid cache entry");
+            }
+            final int depCount = dis.readInt();
+            final List<String> runtimeDeps = new ArrayList<>(Math.min(depCount, 64));
+            for (int i = 0; i < depCount; i++) {
+                runtimeDeps.add(dis.readUTF());
+            }
+            final byte[] bytecode = new byte[dis.readInt()];
+            dis.readFully(bytecode);
+            entry = new Entry(bytecode, Collections.unmodifiableList(runtimeDeps));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+            }
+            return null;
+        }
+
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+            // The entry might have been evicted by another process in the meantime
+        }
+        return entry;
+    }
+
+    /**
+     * Stores a downgraded class. Errors are ignored because the cache is only an optimization.
+     *
+     * @param key         The key returned by {@link #key}
+     * @param bytecode    The downgraded class
+     * @param runtimeDeps The runtime dependencies which were collected while downgrading the class
+     */
+    public void put(final String key, final byte[] bytecode, final Collection<String> runtimeDeps) {
+        final Path file = this.file(key);
+        Path tempFile = null;
+        try {
+            Files.createDirectories(file.getParent());
+            tempFile = Files.createTempFile(this.directory, key, TEMP_SUFFIX);
+            try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                dos.writeInt(MAGIC);
+                dos.writeInt(runtimeDeps.size());
+                for (String runtimeDep : runtimeDeps) {
+                    dos.writeUTF(runtimeDep);
+                }
+                dos.writeInt(bytecode.length);
+                dos.write(bytecode);
+            }
+            try {
+                Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException | AccessDeniedException e) {
+                // Another process stored the same class
+                Files.deleteIfExists(tempFile);
+                return;
+            }
+        } catch (IOException e) {
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException ignored) {
+                }
+            }
+            return;
+        }
+
+        final long entrySize = bytecode.length + 12;
+        if (this.size.get() < 0 || this.size.addAndGet(entrySize) > this.maxSize) {
+            this.evict();
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache is smaller than 90% of the maximum size.<br>
+     * If another process is evicting entries at the same time, nothing is done.
+     */
+    public synchronized void evict() {
+        try (FileChannel channel = FileChannel.open(this.directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            if (lock == null) {
+                return;
+            }
+
+            final List<CachedFile> files = new ArrayList<>();
+            final long staleTime = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+            try (Stream<Path> stream = Files.walk(this.directory, 2)) {
+                stream.forEach(path -> {
+                    try {
+                        final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                        if (!attributes.isRegularFile() || path.getFileName().toString().equals(LOCK_FILE)) return;
+
+                        if (path.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                            // Left behind by a process which was killed while writing
+                            if (attributes.lastModifiedTime().toMillis() < staleTime) {
+                                Files.deleteIfExists(path);
+                            }
+                            return;
+                        }
+                        files.add(new CachedFile(path, attributes.lastModifiedTime().toMillis(), attributes.size()));
+                    } catch (IOException ignored) {
+                    }
+                });
+            }
+
+            long totalSize = 0;
+            for (CachedFile file : files) {
+                totalSize += file.size;
+            }
+            if (totalSize > this.maxSize) {
+                files.sort(Comparator.comparingLong(file -> file.lastUsed));
+                final long targetSize = this.maxSize / 10 * 9;
+                for (int i = 0; i < files.size() && totalSize > targetSize; i++) {
+                    try {
+                        Files.deleteIfExists(files.get(i).path);
+                        totalSize -= files.get(i).size;
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+            this.size.set(totalSize);
+        } catch (IOException | UncheckedIOException | OverlappingFileLockException ignored) {
+        }
+    }
+
+    private Path file(final String key) {
+        return this.directory.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    public static final class Entry {
+
+        private final byte[] bytecode;
+        private final List<String> runtimeDeps;
+
+        private Entry(final byte[] bytecode, final List<String> runtimeDeps) {
+            this.bytecode = bytecode;
+            this.runtimeDeps = runtimeDeps;
+        }
+
+        public byte[] getBytecode() {
+            return this.bytecode;
+        }
+
+        public List<String> getRuntimeDeps() {
+            return this.runtimeDeps;
+        }
+
+    }
+
+    private static final class CachedFile {
+
+        private final Path path;
+        private final long lastUsed;
+        private final long size;
+
+        private CachedFile(final Path path, final long lastUsed, final long size) {
+            this.path = path;
+            this.lastUsed = lastUsed;
+            this.size = size;
+        }
+
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.impl.classtransform.jar;
+
+import net.lenni0451.classtransform.utils.tree.IClassProvider;
+import net.raphimc.javadowngrader.impl.classtransform.util.ClassNameUtil;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Provides the classes of a jar opened as a {@link ZipSource}, so the jar doesn't have to be opened as a zip file
+ * system as well.<br>
+ * Multi-release jars can be viewed as {@link MultiReleaseJar#flatten flattened} for a Java version.
+ */
+public class JarClassProvider implements IClassProvider {
+
+    private final ZipSource source;
+    private final Map<String, ZipSource.Entry> flatEntries;
+    private final IClassProvider parent;
+
+    public JarClassProvider(final ZipSource source, final IClassProvider parent) {
+        this.source = source;
+        this.flatEntries = null;
+        this.parent = parent;
+    }
+
+    /**
+     * @param source       The jar
+     * @param classVersion The class file version of the Java version to flatten the multi-release jar for
+     * @param parent       The parent class provider
+     * @throws IOException If the manifest of the jar can't be read
+     */
+    public JarClassProvider(final ZipSource source, final int classVersion, final IClassProvider parent) throws IOException {
+        this.source = source;
+        this.flatEntries = MultiReleaseJar.flatten(source, classVersion);
+        this.parent = parent;
+    }
+
+    /**
+     * @param name The name of the class
+     * @return If the jar contains the class
+     */
+    public boolean contains(final String name) {
+        return this.getEntry(ClassNameUtil.toClassFilename(name)) != null;
+    }
+
+    @Override
+    public byte[] getClass(final String name) throws ClassNotFoundException {
+        final ZipSource.Entry entry = this.getEntry(ClassNameUtil.toClassFilename(name));
+        if (entry == null) {
+            return this.parent.getClass(name);
+        }
+        try {
+            return this.source.read(entry);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+    }
+
+    @Override
+    public Map<String, Supplier<byte[]>> getAllClasses() {
+        final Map<String, Supplier<byte[]>> classes = new HashMap<>(this.parent.getAllClasses());
+        final Map<String, ZipSource.Entry> entries = this.flatEntries != null ? this.flatEntries : this.getEntries();
+        for (Map.Entry<String, ZipSource.Entry> flatEntry : entries.entrySet()) {
+            final ZipSource.Entry entry = flatEntry.getValue();
+            if (entry.isDirectory() || !flatEntry.getKey().endsWith(".class") || flatEntry.getKey().startsWith(MultiReleaseJar.VERSIONS)) continue;
+
+            classes.put(ClassNameUtil.toClassName(flatEntry.getKey()), () -> {
+                try {
+                    return this.source.read(entry);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        return classes;
+    }
+
+    private ZipSource.Entry getEntry(final String name) {
+        return this.flatEntries != null ? this.flatEntries.get(name) : this.source.getEntry(name);
+    }
+
+    private Map<String, ZipSource.Entry> getEntries() {
+        final Map<String, ZipSource.Entry> entries = new HashMap<>();
+        for (ZipSource.Entry entry : this.source.getEntries()) {
+            entries.putIfAbsent(entry.getName(), entry);
+        }
+        return entries;
+    }
+
+}
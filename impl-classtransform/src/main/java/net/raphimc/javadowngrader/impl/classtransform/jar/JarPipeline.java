@@ -0,0 +1,491 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.impl.classtransform.jar;
+
+import net.raphimc.javadowngrader.util.JfrEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+
+/**
+ * Copies all entries of a jar to a {@link ZipSink} while transforming them.<br>
+ * The entries are taken from the central directory of the input jar, then transformed and compressed in parallel on the
+ * given executor, and finally appended by the calling thread in the order they were scheduled in.<br>
+ * The entries are scheduled from the largest to the smallest, so huge classes don't end up as the last running task.
+ * Only the manifest stays at the start of the jar, where {@link java.util.jar.JarInputStream} expects it. The entries
+ * which are in flight at once may only add up to {@code maxPendingBytes}, so the memory usage doesn't depend on the
+ * size of the jar. An entry is charged with the size of its input, uncompressed and transformed data while it is
+ * processed, and with the size of its output until it is written. When the limit is reached the calling thread writes
+ * finished entries before it schedules new ones. While the calling thread waits for an entry it processes scheduled
+ * entries itself.<br>
+ * Entries which are not transformed, or which the transformer returns unchanged, are copied without decompressing and
+ * compressing them again.<br>
+ * Jars nested in the input jar, like the libraries of a Spring Boot jar, can be transformed recursively. Their entries
+ * go through the same executor and are passed to the transformer with the name of the nested jar and {@code !/} as
+ * prefix. Changed nested jars are written uncompressed, as the Spring Boot loader requires. The task which transforms a
+ * nested jar processes the entries of the nested jar itself while it waits for them, so nested jars can't deadlock an
+ * executor with a fixed number of threads. The entries of nested jars count towards the same {@code maxPendingBytes}
+ * as the entries of the outer jar.
+ */
+public class JarPipeline {
+
+    private final ZipSource input;
+    private final Executor executor;
+    private final PendingBytes pendingBytes;
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean transformed = new AtomicBoolean();
+    private EntryReuser reuser;
+    private Predicate<String> nestedJars = name -> false;
+    private int multiReleaseVersion;
+
+    /**
+     * @param input           The input jar
+     * @param executor        The executor to process the entries on
+     * @param maxPendingBytes The maximum size of the entries which are in flight at once. A single entry of the jar
+     *                        and of every nested jar which is being transformed is always processed even if it is larger
+     */
+    public JarPipeline(final ZipSource input, final Executor executor, final long maxPendingBytes) {
+        this(input, executor, new PendingBytes(maxPendingBytes));
+    }
+
+    private JarPipeline(final ZipSource input, final Executor executor, final PendingBytes pendingBytes) {
+        this.input = input;
+        this.executor = executor;
+        this.pendingBytes = pendingBytes;
+    }
+
+    /**
+     * Sets a reuser which can provide the output entry for an input entry, for example from a previous output jar.<br>
+     * It is called on the worker thread for every entry before anything is read from the input jar.
+     *
+     * @param reuser The reuser or null
+     * @return This pipeline
+     */
+    public JarPipeline reuseEntries(final EntryReuser reuser) {
+        this.reuser = reuser;
+        return this;
+    }
+
+    /**
+     * Sets the filter which decides which entries are nested jars whose entries should be transformed as well.
+     *
+     * @param nestedJars The filter
+     * @return This pipeline
+     */
+    public JarPipeline nestedJars(final Predicate<String> nestedJars) {
+        this.nestedJars = nestedJars;
+        return this;
+    }
+
+    /**
+     * Flattens the input jar and its nested jars as seen by the given Java version (See {@link MultiReleaseJar}).<br>
+     * The selected variants are passed to the transformer with the name of the base entry and the {@code Multi-Release}
+     * attribute is removed from the manifest.
+     *
+     * @param classVersion The class file version of the Java version or 0 to keep the versioned entries
+     * @return This pipeline
+     */
+    public JarPipeline flattenMultiRelease(final int classVersion) {
+        this.multiReleaseVersion = classVersion;
+        return this;
+    }
+
+    /**
+     * Transforms the entries of the input jar and writes them to the given sink.<br>
+     * Entries which occur more than once in the input jar are only written once.
+     *
+     * @param sink        The sink to write to
+     * @param filter      The filter which decides which file entries are passed to the transformer
+     * @param transformer The transformer
+     * @throws IOException If the input jar can't be read or the sink can't be written
+     */
+    public void run(final ZipSink sink, final Predicate<String> filter, final EntryTransformer transformer) throws IOException {
+        this.run(sink, filter, transformer, name -> {
+        });
+    }
+
+    /**
+     * Transforms the entries of the input jar and writes them to the given sink.<br>
+     * Entries which occur more than once in the input jar are only written once.
+     *
+     * @param sink        The sink to write to
+     * @param filter      The filter which decides which file entries are passed to the transformer
+     * @param transformer The transformer
+     * @param listener    The listener which is called on the worker thread before an entry is processed
+     * @throws IOException If the input jar can't be read or the sink can't be written
+     */
+    public void run(final ZipSink sink, final Predicate<String> filter, final EntryTransformer transformer, final Consumer<String> listener) throws IOException {
+        final Deque<Task> pending = new ArrayDeque<>();
+        final Queue<Task> scheduled = new PriorityBlockingQueue<>();
+        final Map<String, ZipSource.Entry> entries;
+        if (this.multiReleaseVersion != 0) {
+            entries = MultiReleaseJar.flatten(this.input, this.multiReleaseVersion);
+        } else {
+            entries = new LinkedHashMap<>();
+            for (ZipSource.Entry entry : this.input.getEntries()) {
+                entries.putIfAbsent(entry.getName(), entry);
+            }
+        }
+        final List<Task> tasks = new ArrayList<>(entries.size());
+        for (Map.Entry<String, ZipSource.Entry> mapEntry : entries.entrySet()) {
+            final String name = mapEntry.getKey();
+            final ZipSource.Entry entry = mapEntry.getValue();
+            final boolean transformed = !entry.isDirectory() && (filter.test(name) || this.nestedJars.test(name) || name.equals(MultiReleaseJar.MANIFEST));
+            tasks.add(new Task(name, entry, tasks.size(), transformed, this.pendingBytes, () -> {
+                listener.accept(name);
+                return this.process(name, entry, filter, transformer);
+            }));
+        }
+        tasks.sort(null);
+        try {
+            for (Task task : tasks) {
+                while (!this.pendingBytes.tryAdd(task.charged, pending.isEmpty())) {
+                    final Task written = pending.poll();
+                    write(sink, join(written, scheduled));
+                    this.pendingBytes.remove(written.charged);
+                }
+                pending.add(task);
+
+                // Every submitted runnable runs the largest scheduled task instead of its own one
+                scheduled.add(task);
+                this.executor.execute(() -> {
+                    final Task next = scheduled.poll();
+                    if (next != null) {
+                        next.run();
+                    }
+                });
+            }
+            while (!pending.isEmpty()) {
+                final Task written = pending.poll();
+                write(sink, join(written, scheduled));
+                this.pendingBytes.remove(written.charged);
+            }
+        } finally {
+            scheduled.clear();
+            // Running tasks still read from the input jar, so they have to finish before the caller can close it
+            for (Task task : pending) {
+                if (task.claim()) {
+                    task.future.cancel(false);
+                } else {
+                    task.await();
+                }
+                this.pendingBytes.remove(task.charged);
+            }
+            Deflater deflater;
+            while ((deflater = this.deflaters.poll()) != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Compresses the given data as an entry of the output jar.
+     *
+     * @param name The name of the entry
+     * @param is   The stream to read the uncompressed data from
+     * @return The compressed entry
+     * @throws IOException If an I/O error occurs
+     */
+    public ZipEntryData compress(final String name, final InputStream is) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return this.compress(name, out.toByteArray(), ZipEntryData.toDosTime(-1));
+    }
+
+    private ZipEntryData process(final String name, final ZipSource.Entry entry, final Predicate<String> filter, final EntryTransformer transformer) {
+        try {
+            if (this.reuser != null) {
+                final ZipEntryData reused = this.reuser.reuse(name, entry);
+                if (reused != null) {
+                    return reused;
+                }
+            }
+
+            if (!entry.isDirectory() && this.nestedJars.test(name)) {
+                // Stored nested jars are read from the input jar without copying them
+                final byte[] result = this.transformNested(name, this.input.readBuffer(entry), filter, transformer);
+                if (result == null) {
+                    return ZipEntryData.raw(name, entry, this.input.readRaw(entry));
+                }
+                this.transformed.set(true);
+                return ZipEntryData.stored(name, result, entry.getDosTime());
+            }
+
+            final Object readEvent = JfrEvent.JAR_ENTRY_READ.begin();
+            final byte[] raw = this.input.readRaw(entry);
+            JfrEvent.JAR_ENTRY_READ.commit(readEvent, name, raw.length, 0);
+            if (entry.isDirectory()) {
+                return ZipEntryData.raw(name, entry, raw);
+            }
+
+            final byte[] data;
+            final byte[] result;
+            if (this.multiReleaseVersion != 0 && name.equals(MultiReleaseJar.MANIFEST)) {
+                data = this.input.inflate(entry, raw);
+                result = MultiReleaseJar.removeMultiReleaseAttribute(data);
+            } else if (filter.test(name)) {
+                data = this.input.inflate(entry, raw);
+                result = transformer.transform(name, data);
+            } else {
+                return ZipEntryData.raw(name, entry, raw);
+            }
+            if (result == null || Arrays.equals(result, data)) {
+                return ZipEntryData.raw(name, entry, raw);
+            }
+            this.transformed.set(true);
+            return this.compress(name, result, entry.getDosTime());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param name The name passed to an {@link EntryTransformer}
+     * @return The name of the entry in the innermost nested jar
+     */
+    public static String stripNestedJars(final String name) {
+        final int index = name.lastIndexOf("!/");
+        return index != -1 ? name.substring(index + 2) : name;
+    }
+
+    /**
+     * @return The transformed nested jar or null if none of its entries changed
+     */
+    private byte[] transformNested(final String name, final ByteBuffer data, final Predicate<String> filter, final EntryTransformer transformer) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(data.remaining() + data.remaining() / 8);
+        final JarPipeline pipeline;
+        try (ZipSource nested = new ZipSource(data)) {
+            pipeline = new JarPipeline(nested, this.executor, this.pendingBytes)
+                    .nestedJars(this.nestedJars)
+                    .flattenMultiRelease(this.multiReleaseVersion);
+            try (ZipSink sink = new ZipSink(out)) {
+                pipeline.run(sink, filter, (entryName, entryData) -> transformer.transform(name + "!/" + entryName, entryData));
+            }
+        }
+        return pipeline.transformed.get() ? out.toByteArray() : null;
+    }
+
+    private ZipEntryData compress(final String name, final byte[] data, final int dosTime) {
+        Deflater deflater = this.deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        try {
+            return ZipEntryData.compress(name, data, dosTime, deflater);
+        } finally {
+            this.deflaters.add(deflater);
+        }
+    }
+
+    private static void write(final ZipSink sink, final ZipEntryData entry) throws IOException {
+        final Object writeEvent = JfrEvent.JAR_ENTRY_WRITE.begin();
+        sink.write(entry);
+        JfrEvent.JAR_ENTRY_WRITE.commit(writeEvent, entry.getName(), entry.getDataLength(), 0);
+    }
+
+    /**
+     * Waits for the given task and runs scheduled tasks on the calling thread in the meantime. This keeps the pipeline
+     * going even if all threads of the executor are waiting for nested jars.
+     */
+    private static ZipEntryData join(final Task task, final Queue<Task> scheduled) throws IOException {
+        Task next;
+        while (!task.future.isDone() && (next = scheduled.poll()) != null) {
+            next.run();
+        }
+        return join(task.future);
+    }
+
+    private static ZipEntryData join(final CompletableFuture<ZipEntryData> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a zip entry", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * The size of the entries which are in flight, shared by a pipeline and the pipelines of its nested jars.
+     */
+    private static final class PendingBytes {
+
+        private final long max;
+        private long current;
+
+        private PendingBytes(final long max) {
+            if (max < 1) {
+                throw new IllegalArgumentException("At least one byte has to be in flight");
+            }
+            this.max = max;
+        }
+
+        /**
+         * @param bytes The size of the entry
+         * @param force If the entry should be added even if the limit is exceeded
+         * @return If the entry was added
+         */
+        private synchronized boolean tryAdd(final long bytes, final boolean force) {
+            if (!force && this.current + bytes > this.max) {
+                return false;
+            }
+            this.current += bytes;
+            return true;
+        }
+
+        private synchronized void remove(final long bytes) {
+            this.current -= bytes;
+        }
+
+        private synchronized void replace(final long oldBytes, final long newBytes) {
+            this.current += newBytes - oldBytes;
+        }
+
+    }
+
+    private static final class Task implements Comparable<Task> {
+
+        /**
+         * Accounts for the bookkeeping of empty entries
+         */
+        private static final int ENTRY_OVERHEAD = 256;
+
+        private final int index;
+        private final boolean pinned;
+        private final long weight;
+        private final PendingBytes pendingBytes;
+        private final Supplier<ZipEntryData> processor;
+        private final CompletableFuture<ZipEntryData> future = new CompletableFuture<>();
+        private final AtomicBoolean started = new AtomicBoolean();
+        /**
+         * The bytes this task is charged with in the {@link PendingBytes}. Only changed by the task itself before its
+         * future is completed.
+         */
+        private long charged;
+
+        private Task(final String name, final ZipSource.Entry entry, final int index, final boolean transformed, final PendingBytes pendingBytes, final Supplier<ZipEntryData> processor) {
+            this.index = index;
+            this.pinned = name.equals("META-INF/") || name.equals(MultiReleaseJar.MANIFEST);
+            this.weight = Math.max(entry.getSize(), entry.getCompressedSize());
+            // Transformed entries hold their compressed, uncompressed and transformed data at once
+            this.charged = (transformed ? entry.getCompressedSize() + 2L * entry.getSize() : entry.getCompressedSize()) + ENTRY_OVERHEAD;
+            this.pendingBytes = pendingBytes;
+            this.processor = processor;
+        }
+
+        private void run() {
+            if (!this.claim()) return;
+            try {
+                final ZipEntryData data = this.processor.get();
+                // Only the output is kept until the entry is written
+                final long retained = data.getData().length + (long) ENTRY_OVERHEAD;
+                this.pendingBytes.replace(this.charged, retained);
+                this.charged = retained;
+                this.future.complete(data);
+            } catch (Throwable t) {
+                this.future.completeExceptionally(t);
+            }
+        }
+
+        /**
+         * @return If the task wasn't started yet. The caller has to run or cancel it then
+         */
+        private boolean claim() {
+            return this.started.compareAndSet(false, true);
+        }
+
+        /**
+         * Waits until the task is done without throwing its exception.
+         */
+        private void await() {
+            try {
+                this.future.join();
+            } catch (CancellationException | CompletionException ignored) {
+            }
+        }
+
+        @Override
+        public int compareTo(final Task o) {
+            if (this.pinned != o.pinned) {
+                return this.pinned ? -1 : 1;
+            }
+            final int compare = this.pinned ? 0 : Long.compare(o.weight, this.weight);
+            return compare != 0 ? compare : Integer.compare(this.index, o.index);
+        }
+
+    }
+
+    @FunctionalInterface
+    public interface EntryTransformer {
+
+        /**
+         * @param name The name of the entry, prefixed with the names of the nested jars it is in
+         * @param data The uncompressed data of the entry
+         * @return The data to write or null if the entry is unchanged
+         * @throws IOException If an I/O error occurs
+         */
+        byte[] transform(final String name, final byte[] data) throws IOException;
+
+    }
+
+    @FunctionalInterface
+    public interface EntryReuser {
+
+        /**
+         * @param name  The name of the output entry. This differs from the name of the input entry if a versioned entry
+         *              of a multi-release jar is flattened
+         * @param entry The entry of the input jar
+         * @return The entry to write instead of processing the input entry or null to process it
+         * @throws IOException If an I/O error occurs
+         */
+        ZipEntryData reuse(final String name, final ZipSource.Entry entry) throws IOException;
+
+    }
+
+}
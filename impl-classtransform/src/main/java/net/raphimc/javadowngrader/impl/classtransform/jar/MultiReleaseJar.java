@@ -0,0 +1,148 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.impl.classtransform.jar;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.jar.Manifest;
+
+/**
+ * Flattens multi-release jars, so every entry is replaced by the variant from {@code META-INF/versions/} which a given
+ * Java version would load.<br>
+ * The versioned tree isn't needed anymore after the selected variants have been downgraded, which avoids downgrading
+ * the same class multiple times and keeps the output small.
+ */
+public class MultiReleaseJar {
+
+    public static final String VERSIONS = "META-INF/versions/";
+    public static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+    /**
+     * Resolves the entries of a jar as they are seen by the given Java version.<br>
+     * Versioned {@code module-info.class} files are dropped, as they can't be used at the top level. Jars whose manifest
+     * doesn't contain {@code Multi-Release: true} are not flattened, as Java ignores their versioned entries as well.
+     *
+     * @param source       The jar
+     * @param classVersion The class file version of the Java version, for example {@code Opcodes.V17}
+     * @return The name of every entry in the flat jar mapped to the entry which provides it, in the order of the jar
+     * @throws IOException If the manifest can't be read
+     */
+    public static Map<String, ZipSource.Entry> flatten(final ZipSource source, final int classVersion) throws IOException {
+        final int release = (classVersion & 0xFFFF) - 44;
+        final Map<String, ZipSource.Entry> entries = new LinkedHashMap<>();
+        if (!isMultiRelease(source)) {
+            for (ZipSource.Entry entry : source.getEntries()) {
+                entries.putIfAbsent(entry.getName(), entry);
+            }
+            return entries;
+        }
+
+        final Map<String, Integer> releases = new HashMap<>();
+        for (ZipSource.Entry entry : source.getEntries()) {
+            final String name = entry.getName();
+            if (name.equals(VERSIONS)) continue;
+            final int entryRelease = getRelease(name);
+            if (entryRelease == -1) {
+                if (!releases.containsKey(name)) {
+                    entries.put(name, entry);
+                    releases.put(name, 0);
+                }
+                continue;
+            }
+            if (entryRelease > release || entry.isDirectory()) continue;
+
+            final String flatName = name.substring(name.indexOf('/', VERSIONS.length()) + 1);
+            if (flatName.isEmpty() || flatName.equals("module-info.class")) continue;
+            final Integer currentRelease = releases.get(flatName);
+            if (currentRelease == null || currentRelease < entryRelease) {
+                entries.put(flatName, entry);
+                releases.put(flatName, entryRelease);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @param source The jar
+     * @return If the manifest of the jar contains {@code Multi-Release: true}
+     * @throws IOException If the manifest can't be read
+     */
+    public static boolean isMultiRelease(final ZipSource source) throws IOException {
+        final ZipSource.Entry entry = source.getEntry(MANIFEST);
+        if (entry == null) {
+            return false;
+        }
+        final String multiRelease = new Manifest(new ByteArrayInputStream(source.read(entry))).getMainAttributes().getValue("Multi-Release");
+        return multiRelease != null && multiRelease.trim().equalsIgnoreCase("true");
+    }
+
+    /**
+     * Removes the {@code Multi-Release} attribute from a manifest without touching any other line.
+     *
+     * @param manifest The manifest
+     * @return The manifest without the attribute
+     */
+    public static byte[] removeMultiReleaseAttribute(final byte[] manifest) {
+        final String text = new String(manifest, StandardCharsets.UTF_8);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(manifest.length);
+        boolean skipping = false;
+        int start = 0;
+        while (start < text.length()) {
+            int end = start;
+            while (end < text.length() && text.charAt(end) != '\n' && text.charAt(end) != '\r') end++;
+            if (end < text.length() && text.charAt(end) == '\r') end++;
+            if (end < text.length() && text.charAt(end) == '\n') end++;
+
+            final String line = text.substring(start, end);
+            // Continuation lines start with a space
+            skipping = line.startsWith(" ") ? skipping : line.toLowerCase(Locale.ROOT).startsWith("multi-release:");
+            if (!skipping) {
+                final byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                out.write(bytes, 0, bytes.length);
+            }
+            start = end;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return The Java release of a versioned entry or -1 if the entry is not versioned
+     */
+    private static int getRelease(final String name) {
+        if (!name.startsWith(VERSIONS)) {
+            return -1;
+        }
+        final int end = name.indexOf('/', VERSIONS.length());
+        if (end == -1) {
+            return -1;
+        }
+        try {
+            final int release = Integer.parseInt(name.substring(VERSIONS.length(), end));
+            return release >= 9 ? release : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.impl.classtransform.jar;
+
+import net.lenni0451.classtransform.utils.tree.IClassProvider;
+import net.raphimc.javadowngrader.impl.classtransform.util.ClassNameUtil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Provides the classes of the jars nested in a fat jar, so they are known to the class hierarchy when the classes of
+ * the fat jar and the nested jars are downgraded.<br>
+ * Stored nested jars are read directly from the outer jar, deflated ones are decompressed into memory once.
+ */
+public class NestedJarClassProvider implements IClassProvider, Closeable {
+
+    private final List<ZipSource> jars = new ArrayList<>();
+    private final IClassProvider parent;
+
+    public NestedJarClassProvider(final ZipSource source, final IClassProvider parent) throws IOException {
+        this.parent = parent;
+        try {
+            for (ZipSource.Entry entry : source.getEntries()) {
+                if (isNestedJar(entry.getName())) {
+                    this.jars.add(new ZipSource(source.readBuffer(entry)));
+                }
+            }
+        } catch (Throwable t) {
+            this.close();
+            throw t;
+        }
+    }
+
+    /**
+     * Checks if the given entry is a nested jar which is loaded by a fat jar launcher.<br>
+     * This covers the libraries of Spring Boot jars ({@code BOOT-INF/lib/}) and wars ({@code WEB-INF/lib/}) as well as
+     * jar-in-jar artifacts ({@code META-INF/jars/}).
+     *
+     * @param name The name of the entry
+     * @return If the entry is a nested jar
+     */
+    public static boolean isNestedJar(final String name) {
+        if (!name.endsWith(".jar")) {
+            return false;
+        }
+        return name.startsWith("BOOT-INF/lib/") || name.startsWith("WEB-INF/lib/") || name.startsWith("META-INF/jars/");
+    }
+
+    /**
+     * @param name The name of the class
+     * @return If one of the nested jars contains the class
+     */
+    public boolean contains(final String name) {
+        final String classFilename = ClassNameUtil.toClassFilename(name);
+        for (ZipSource jar : this.jars) {
+            if (jar.getEntry(classFilename) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public byte[] getClass(final String name) throws ClassNotFoundException {
+        final String classFilename = ClassNameUtil.toClassFilename(name);
+        for (ZipSource jar : this.jars) {
+            final ZipSource.Entry entry = jar.getEntry(classFilename);
+            if (entry == null) continue;
+
+            try {
+                return jar.read(entry);
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+        return this.parent.getClass(name);
+    }
+
+    @Override
+    public Map<String, Supplier<byte[]>> getAllClasses() {
+        final Map<String, Supplier<byte[]>> classes = new HashMap<>(this.parent.getAllClasses());
+        for (int i = this.jars.size() - 1; i >= 0; i--) {
+            final ZipSource jar = this.jars.get(i);
+            for (ZipSource.Entry entry : jar.getEntries()) {
+                if (entry.isDirectory() || !entry.getName().endsWith(".class") || entry.getName().startsWith("META-INF/versions/")) continue;
+
+                classes.put(ClassNameUtil.toClassName(entry.getName()), () -> {
+                    try {
+                        return jar.read(entry);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        }
+        return classes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (ZipSource jar : this.jars) {
+            jar.close();
+        }
+        this.jars.clear();
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.impl.classtransform.jar;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * A zip entry whose data is already compressed, ready to be appended by a {@link ZipSink}.
+ */
+public class ZipEntryData {
+
+    private final String name;
+    private final int method;
+    private final long crc;
+    private final long size;
+    private final int dosTime;
+    private final byte[] data;
+    private final int dataLength;
+
+    public ZipEntryData(final String name, final int method, final long crc, final long size, final int dosTime, final byte[] data, final int dataLength) {
+        this.name = name;
+        this.method = method;
+        this.crc = crc;
+        this.size = size;
+        this.dosTime = dosTime;
+        this.data = data;
+        this.dataLength = dataLength;
+    }
+
+    /**
+     * Creates an empty directory entry.
+     *
+     * @param name The name of the directory, ending with a slash
+     * @param time The modification time in milliseconds or -1 for the current time
+     * @return The entry
+     */
+    public static ZipEntryData directory(final String name, final long time) {
+        return new ZipEntryData(name, ZipEntry.STORED, 0, 0, toDosTime(time), new byte[0], 0);
+    }
+
+    /**
+     * Creates an entry which reuses the compressed data of an entry of another zip file.
+     *
+     * @param entry The entry the data was read from
+     * @param data  The compressed data as returned by {@link ZipSource#readRaw}
+     * @return The entry
+     */
+    public static ZipEntryData raw(final ZipSource.Entry entry, final byte[] data) {
+        return raw(entry.getName(), entry, data);
+    }
+
+    /**
+     * Creates an entry with a different name which reuses the compressed data of an entry of another zip file.
+     *
+     * @param name  The name of the new entry
+     * @param entry The entry the data was read from
+     * @param data  The compressed data as returned by {@link ZipSource#readRaw}
+     * @return The entry
+     */
+    public static ZipEntryData raw(final String name, final ZipSource.Entry entry, final byte[] data) {
+        return new ZipEntryData(name, entry.getMethod(), entry.getCrc(), entry.getSize(), entry.getDosTime(), data, data.length);
+    }
+
+    /**
+     * Creates an uncompressed entry.
+     *
+     * @param name    The name of the entry
+     * @param data    The data
+     * @param dosTime The modification time in the MS-DOS format
+     * @return The entry
+     */
+    public static ZipEntryData stored(final String name, final byte[] data, final int dosTime) {
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return new ZipEntryData(name, ZipEntry.STORED, crc.getValue(), data.length, dosTime, data, data.length);
+    }
+
+    /**
+     * Compresses the given data. If compressing doesn't make the data smaller it is stored instead.
+     *
+     * @param name     The name of the entry
+     * @param data     The uncompressed data
+     * @param dosTime  The modification time in the MS-DOS format
+     * @param deflater The deflater to use. It is reset before it is used
+     * @return The compressed entry
+     */
+    public static ZipEntryData compress(final String name, final byte[] data, final int dosTime, final Deflater deflater) {
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[Math.max(64, data.length / 2)];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == buffer.length) {
+                if (length >= data.length) {
+                    return new ZipEntryData(name, ZipEntry.STORED, crc.getValue(), data.length, dosTime, data, data.length);
+                }
+                buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, data.length + 64));
+            }
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        if (length >= data.length) {
+            return new ZipEntryData(name, ZipEntry.STORED, crc.getValue(), data.length, dosTime, data, data.length);
+        }
+        return new ZipEntryData(name, ZipEntry.DEFLATED, crc.getValue(), data.length, dosTime, buffer, length);
+    }
+
+    /**
+     * Converts a java timestamp to the MS-DOS date and time format used by zip files.
+     *
+     * @param time The time in milliseconds or -1 for the current time
+     * @return The date in the upper and the time in the lower 16 bits
+     */
+    public static int toDosTime(final long time) {
+        final LocalDateTime dateTime = LocalDateTime.ofInstant(time == -1 ? Instant.now() : Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        if (dateTime.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (dateTime.getYear() - 1980) << 25
+                | dateTime.getMonthValue() << 21
+                | dateTime.getDayOfMonth() << 16
+                | dateTime.getHour() << 11
+                | dateTime.getMinute() << 5
+                | dateTime.getSecond() >> 1;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getMethod() {
+        return this.method;
+    }
+
+    public long getCrc() {
+        return this.crc;
+    }
+
+    public long getSize() {
+        return this.size;
+    }
+
+    public int getDosTime() {
+        return this.dosTime;
+    }
+
+    public byte[] getData() {
+        return this.data;
+    }
+
+    /**
+     * @return The length of the compressed data. The data array may be longer
+     */
+    public int getDataLength() {
+        return this.dataLength;
+    }
+
+}
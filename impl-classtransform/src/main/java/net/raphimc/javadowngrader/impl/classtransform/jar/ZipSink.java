@@ -0,0 +1,229 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.impl.classtransform.jar;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A sequential zip writer which appends already compressed {@link ZipEntryData entries}.<br>
+ * Unlike {@link java.util.zip.ZipOutputStream} no data is compressed or buffered here, so the compression can happen
+ * on other threads. The central directory is written when the sink is closed.
+ */
+public class ZipSink implements Closeable {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR = 0x07064b50;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final int UTF8_FLAG = 0x0800;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[8];
+    private final List<CentralEntry> entries = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private long position;
+    private boolean closed;
+
+    public ZipSink(final OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * @param name The name of the entry
+     * @return If an entry with the given name was already written
+     */
+    public boolean contains(final String name) {
+        return this.names.contains(name);
+    }
+
+    /**
+     * Appends a directory entry for every parent directory of the given entry name which wasn't written yet.
+     *
+     * @param name The name of the entry
+     * @throws IOException If an I/O error occurs
+     */
+    public void writeParentDirectories(final String name) throws IOException {
+        for (int i = name.indexOf('/'); i != -1 && i < name.length() - 1; i = name.indexOf('/', i + 1)) {
+            final String directory = name.substring(0, i + 1);
+            if (!this.contains(directory)) {
+                this.write(ZipEntryData.directory(directory, -1));
+            }
+        }
+    }
+
+    /**
+     * Appends the given entry.
+     *
+     * @param entry The entry to write
+     * @throws IOException If an I/O error occurs or an entry with the same name was already written
+     */
+    public void write(final ZipEntryData entry) throws IOException {
+        if (this.closed) {
+            throw new IOException("Zip sink is closed");
+        }
+        if (!this.names.add(entry.getName())) {
+            throw new IOException("Duplicate zip entry: " + entry.getName());
+        }
+
+        final byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+        this.entries.add(new CentralEntry(entry, name, this.position));
+        this.writeInt(LOCAL_HEADER);
+        this.writeShort(20); // Version needed to extract
+        this.writeShort(UTF8_FLAG);
+        this.writeShort(entry.getMethod());
+        this.writeInt(entry.getDosTime());
+        this.writeInt((int) entry.getCrc());
+        this.writeInt(entry.getDataLength());
+        this.writeInt((int) entry.getSize());
+        this.writeShort(name.length);
+        this.writeShort(0); // Extra field length
+        this.writeBytes(name, name.length);
+        this.writeBytes(entry.getData(), entry.getDataLength());
+    }
+
+    /**
+     * Writes the central directory and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+
+        try {
+            final long centralDirectoryOffset = this.position;
+            for (CentralEntry entry : this.entries) {
+                final boolean zip64 = entry.offset >= ZIP64_MAGIC;
+                this.writeInt(CENTRAL_HEADER);
+                this.writeShort(zip64 ? 45 : 20); // Version made by
+                this.writeShort(zip64 ? 45 : 20); // Version needed to extract
+                this.writeShort(UTF8_FLAG);
+                this.writeShort(entry.method);
+                this.writeInt(entry.dosTime);
+                this.writeInt(entry.crc);
+                this.writeInt(entry.compressedSize);
+                this.writeInt(entry.size);
+                this.writeShort(entry.name.length);
+                this.writeShort(zip64 ? 12 : 0); // Extra field length
+                this.writeShort(0); // Comment length
+                this.writeShort(0); // Disk number
+                this.writeShort(0); // Internal attributes
+                this.writeInt(0); // External attributes
+                this.writeInt((int) (zip64 ? ZIP64_MAGIC : entry.offset));
+                this.writeBytes(entry.name, entry.name.length);
+                if (zip64) {
+                    this.writeShort(ZIP64_EXTRA);
+                    this.writeShort(8);
+                    this.writeLong(entry.offset);
+                }
+            }
+            final long centralDirectorySize = this.position - centralDirectoryOffset;
+
+            final int count = this.entries.size();
+            if (count >= 0xFFFF || centralDirectoryOffset >= ZIP64_MAGIC || centralDirectorySize >= ZIP64_MAGIC) {
+                final long zip64Offset = this.position;
+                this.writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY);
+                this.writeLong(44); // Size of the remaining record
+                this.writeShort(45); // Version made by
+                this.writeShort(45); // Version needed to extract
+                this.writeInt(0); // Disk number
+                this.writeInt(0); // Disk with the central directory
+                this.writeLong(count);
+                this.writeLong(count);
+                this.writeLong(centralDirectorySize);
+                this.writeLong(centralDirectoryOffset);
+
+                this.writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR);
+                this.writeInt(0); // Disk with the zip64 end of central directory
+                this.writeLong(zip64Offset);
+                this.writeInt(1); // Total number of disks
+            }
+            this.writeInt(END_OF_CENTRAL_DIRECTORY);
+            this.writeShort(0); // Disk number
+            this.writeShort(0); // Disk with the central directory
+            this.writeShort(Math.min(count, 0xFFFF));
+            this.writeShort(Math.min(count, 0xFFFF));
+            this.writeInt((int) Math.min(centralDirectorySize, ZIP64_MAGIC));
+            this.writeInt((int) Math.min(centralDirectoryOffset, ZIP64_MAGIC));
+            this.writeShort(0); // Comment length
+        } finally {
+            this.out.close();
+        }
+    }
+
+    private void writeShort(final int value) throws IOException {
+        this.buffer[0] = (byte) value;
+        this.buffer[1] = (byte) (value >>> 8);
+        this.writeBytes(this.buffer, 2);
+    }
+
+    private void writeInt(final int value) throws IOException {
+        this.buffer[0] = (byte) value;
+        this.buffer[1] = (byte) (value >>> 8);
+        this.buffer[2] = (byte) (value >>> 16);
+        this.buffer[3] = (byte) (value >>> 24);
+        this.writeBytes(this.buffer, 4);
+    }
+
+    private void writeLong(final long value) throws IOException {
+        this.writeInt((int) value);
+        this.writeInt((int) (value >>> 32));
+    }
+
+    private void writeBytes(final byte[] bytes, final int length) throws IOException {
+        this.out.write(bytes, 0, length);
+        this.position += length;
+    }
+
+    /**
+     * The central directory record of a written entry. The entry data itself is not kept.
+     */
+    private static final class CentralEntry {
+
+        private final byte[] name;
+        private final int method;
+        private final int dosTime;
+        private final int crc;
+        private final int compressedSize;
+        private final int size;
+        private final long offset;
+
+        private CentralEntry(final ZipEntryData data, final byte[] name, final long offset) {
+            this.name = name;
+            this.method = data.getMethod();
+            this.dosTime = data.getDosTime();
+            this.crc = (int) data.getCrc();
+            this.compressedSize = data.getDataLength();
+            this.size = (int) data.getSize();
+            this.offset = offset;
+        }
+
+    }
+
+}
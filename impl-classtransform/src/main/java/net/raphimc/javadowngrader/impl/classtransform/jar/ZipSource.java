@@ -0,0 +1,504 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.impl.classtransform.jar;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A zip reader which gives access to the compressed data of the entries.<br>
+ * The file is memory mapped and the central directory is indexed once when the source is opened. Stored entries can be
+ * accessed without copying them and deflated entries are decompressed with pooled {@link Inflater inflaters}. Files
+ * larger than 2 GB are read with positional reads instead. A source can be used by multiple threads at the same time.<br>
+ * Zip files which are already in memory, like jars nested in another jar, can be opened from a {@link ByteBuffer}.<br>
+ * The mapping is released when the source is closed, so buffers returned by the source must not be used afterwards.
+ */
+public class ZipSource implements Closeable {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR = 0x07064b50;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final int ENCRYPTED_FLAG = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    /**
+     * Releases a mapped buffer right away. Otherwise the file stays mapped until the buffer is garbage collected, which
+     * keeps it locked on Windows. Null if the JVM doesn't allow it.
+     */
+    private static final MethodHandle UNMAP;
+
+    static {
+        MethodHandle unmap = null;
+        try {
+            // Java 9+
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unmap = MethodHandles.lookup().findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class)).bindTo(theUnsafe.get(null));
+        } catch (Throwable ignored) {
+        }
+        if (unmap == null) {
+            try {
+                // Java 8
+                final Class<?> directBuffer = Class.forName("sun.nio.ch.DirectBuffer");
+                final Class<?> cleaner = Class.forName("sun.misc.Cleaner");
+                final MethodHandles.Lookup lookup = MethodHandles.lookup();
+                unmap = MethodHandles.filterReturnValue(
+                        lookup.findVirtual(directBuffer, "cleaner", MethodType.methodType(cleaner)),
+                        lookup.findVirtual(cleaner, "clean", MethodType.methodType(void.class))
+                ).asType(MethodType.methodType(void.class, ByteBuffer.class));
+            } catch (Throwable ignored) {
+            }
+        }
+        UNMAP = unmap;
+    }
+
+    private final FileChannel channel;
+    private final long size;
+    private final ByteBuffer mapped;
+    private final List<Entry> entries;
+    private final Map<String, Entry> entriesByName;
+    private final Queue<InflaterBuffer> inflaters = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    public ZipSource(final File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            this.size = this.channel.size();
+            this.mapped = this.size <= Integer.MAX_VALUE ? this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.size) : null;
+            this.entries = Collections.unmodifiableList(this.readCentralDirectory());
+        } catch (Throwable t) {
+            this.channel.close();
+            throw t;
+        }
+        this.entriesByName = this.indexEntries();
+    }
+
+    /**
+     * Opens a zip file which is already in memory.<br>
+     * The buffer is not copied, so its content must not be changed while the source is used.
+     *
+     * @param data The zip file from its position to its limit
+     * @throws IOException If the data is not a valid zip file
+     */
+    public ZipSource(final ByteBuffer data) throws IOException {
+        this.channel = null;
+        this.mapped = data.slice();
+        this.size = this.mapped.remaining();
+        this.entries = Collections.unmodifiableList(this.readCentralDirectory());
+        this.entriesByName = this.indexEntries();
+    }
+
+    private Map<String, Entry> indexEntries() {
+        final Map<String, Entry> entriesByName = new HashMap<>(this.entries.size() * 4 / 3 + 1);
+        for (Entry entry : this.entries) {
+            entriesByName.putIfAbsent(entry.name, entry);
+        }
+        return entriesByName;
+    }
+
+    /**
+     * @return All entries in the order of the central directory
+     */
+    public List<Entry> getEntries() {
+        return this.entries;
+    }
+
+    /**
+     * @param name The name of the entry
+     * @return The entry or null if there is no entry with the given name
+     */
+    public Entry getEntry(final String name) {
+        return this.entriesByName.get(name);
+    }
+
+    /**
+     * @return The amount of entries
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Reads the data of the given entry as it is stored in the zip file.
+     *
+     * @param entry The entry to read
+     * @return The compressed data
+     * @throws IOException If an I/O error occurs
+     */
+    public byte[] readRaw(final Entry entry) throws IOException {
+        final ByteBuffer buffer = this.readRawBuffer(entry);
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.array().length == buffer.remaining()) {
+            return buffer.array();
+        }
+        final byte[] raw = new byte[buffer.remaining()];
+        buffer.get(raw);
+        return raw;
+    }
+
+    /**
+     * Reads the data of the given entry as it is stored in the zip file.<br>
+     * If the file is memory mapped the returned buffer is a read only view of the mapping.
+     *
+     * @param entry The entry to read
+     * @return The compressed data
+     * @throws IOException If an I/O error occurs
+     */
+    public ByteBuffer readRawBuffer(final Entry entry) throws IOException {
+        if ((entry.flags & ENCRYPTED_FLAG) != 0) {
+            throw new ZipException("Encrypted zip entry: " + entry.name);
+        }
+        final ByteBuffer header = this.read(entry.localHeaderOffset, 30);
+        if (header.getInt(0) != LOCAL_HEADER) {
+            throw new ZipException("Invalid local header of zip entry: " + entry.name);
+        }
+        final long dataOffset = entry.localHeaderOffset + 30 + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+        return this.read(dataOffset, entry.compressedSize);
+    }
+
+    /**
+     * Reads the uncompressed data of the given entry.
+     *
+     * @param entry The entry to read
+     * @return The uncompressed data
+     * @throws IOException If an I/O error occurs
+     */
+    public byte[] read(final Entry entry) throws IOException {
+        if (entry.method == ZipEntry.STORED) {
+            return this.readRaw(entry);
+        }
+        return this.inflate(entry, this.readRawBuffer(entry));
+    }
+
+    /**
+     * Reads the uncompressed data of the given entry.<br>
+     * The data of stored entries is not copied if the file is memory mapped.
+     *
+     * @param entry The entry to read
+     * @return The uncompressed data
+     * @throws IOException If an I/O error occurs
+     */
+    public ByteBuffer readBuffer(final Entry entry) throws IOException {
+        if (entry.method == ZipEntry.STORED) {
+            return this.readRawBuffer(entry);
+        }
+        return ByteBuffer.wrap(this.inflate(entry, this.readRawBuffer(entry)));
+    }
+
+    /**
+     * Decompresses data returned by {@link #readRaw(Entry)}.<br>
+     * The data of stored entries is returned as it is.
+     *
+     * @param entry The entry the data belongs to
+     * @param raw   The compressed data
+     * @return The uncompressed data
+     * @throws IOException If the data is invalid
+     */
+    public byte[] inflate(final Entry entry, final byte[] raw) throws IOException {
+        if (entry.method == ZipEntry.STORED) {
+            return raw;
+        }
+        return this.inflate(entry, raw, 0, raw.length);
+    }
+
+    /**
+     * Closes the file and releases the mapping. All reads have to be finished before.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        InflaterBuffer inflater;
+        while ((inflater = this.inflaters.poll()) != null) {
+            inflater.inflater.end();
+        }
+        if (this.channel != null) {
+            try {
+                this.channel.close();
+            } finally {
+                if (this.mapped != null && UNMAP != null) {
+                    try {
+                        UNMAP.invokeExact(this.mapped);
+                    } catch (Throwable ignored) {
+                        // The mapping is released by the garbage collector
+                    }
+                }
+            }
+        }
+    }
+
+    private byte[] inflate(final Entry entry, final ByteBuffer raw) throws IOException {
+        InflaterBuffer inflater = this.inflaters.poll();
+        if (inflater == null) {
+            inflater = new InflaterBuffer();
+        }
+        try {
+            // Inflater can't read from buffers on Java 8
+            final int length = raw.remaining();
+            if (inflater.input.length < length) {
+                inflater.input = new byte[Math.max(length, inflater.input.length * 2)];
+            }
+            raw.get(inflater.input, 0, length);
+            return this.inflate(entry, inflater, inflater.input, 0, length);
+        } finally {
+            this.inflaters.add(inflater);
+        }
+    }
+
+    private byte[] inflate(final Entry entry, final byte[] raw, final int offset, final int length) throws IOException {
+        InflaterBuffer inflater = this.inflaters.poll();
+        if (inflater == null) {
+            inflater = new InflaterBuffer();
+        }
+        try {
+            return this.inflate(entry, inflater, raw, offset, length);
+        } finally {
+            this.inflaters.add(inflater);
+        }
+    }
+
+    private byte[] inflate(final Entry entry, final InflaterBuffer inflaterBuffer, final byte[] raw, final int offset, final int length) throws IOException {
+        if (entry.method != ZipEntry.DEFLATED) {
+            throw new ZipException("Unsupported compression method " + entry.method + " of zip entry: " + entry.name);
+        }
+
+        final byte[] data = new byte[entry.size];
+        final Inflater inflater = inflaterBuffer.inflater;
+        inflater.reset();
+        try {
+            inflater.setInput(raw, offset, length);
+            int inflated = 0;
+            while (inflated < data.length) {
+                final int read = inflater.inflate(data, inflated, data.length - inflated);
+                if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += read;
+            }
+            if (inflated != data.length) {
+                throw new ZipException("Invalid size of zip entry: " + entry.name);
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid compressed data of zip entry " + entry.name + ": " + e.getMessage());
+        }
+        return data;
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        final long fileSize = this.size;
+        final int tailLength = (int) Math.min(fileSize, 22 + 0xFFFF);
+        final ByteBuffer tail = this.read(fileSize - tailLength, tailLength);
+        int endPosition = -1;
+        for (int i = tailLength - 22; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                endPosition = i;
+                break;
+            }
+        }
+        if (endPosition == -1) {
+            throw new ZipException("Zip end of central directory not found");
+        }
+
+        long count = tail.getShort(endPosition + 10) & 0xFFFF;
+        long centralDirectorySize = tail.getInt(endPosition + 12) & ZIP64_MAGIC;
+        long centralDirectoryOffset = tail.getInt(endPosition + 16) & ZIP64_MAGIC;
+        long centralDirectoryEnd = fileSize - tailLength + endPosition;
+        if (endPosition >= 20 && tail.getInt(endPosition - 20) == ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR) {
+            final long zip64EndOffset = tail.getLong(endPosition - 20 + 8);
+            final ByteBuffer zip64End = this.read(zip64EndOffset, 56);
+            if (zip64End.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY) {
+                throw new ZipException("Invalid zip64 end of central directory");
+            }
+            count = zip64End.getLong(32);
+            centralDirectorySize = zip64End.getLong(40);
+            centralDirectoryOffset = zip64End.getLong(48);
+            centralDirectoryEnd = zip64EndOffset;
+        }
+        if (centralDirectorySize > Integer.MAX_VALUE || count > Integer.MAX_VALUE) {
+            throw new ZipException("Zip central directory is too large");
+        }
+        // Zip files can be prefixed with other data (for example a launcher script)
+        final long base = centralDirectoryEnd - centralDirectorySize - centralDirectoryOffset;
+        if (base < 0) {
+            throw new ZipException("Invalid zip central directory offset");
+        }
+
+        final ByteBuffer centralDirectory = this.read(base + centralDirectoryOffset, (int) centralDirectorySize);
+        final List<Entry> entries = new ArrayList<>((int) count);
+        int position = 0;
+        for (long i = 0; i < count; i++) {
+            if (centralDirectory.getInt(position) != CENTRAL_HEADER) {
+                throw new ZipException("Invalid zip central directory header");
+            }
+            final int flags = centralDirectory.getShort(position + 8) & 0xFFFF;
+            final int method = centralDirectory.getShort(position + 10) & 0xFFFF;
+            final int dosTime = centralDirectory.getInt(position + 12);
+            final long crc = centralDirectory.getInt(position + 16) & ZIP64_MAGIC;
+            long compressedSize = centralDirectory.getInt(position + 20) & ZIP64_MAGIC;
+            long size = centralDirectory.getInt(position + 24) & ZIP64_MAGIC;
+            final int nameLength = centralDirectory.getShort(position + 28) & 0xFFFF;
+            final int extraLength = centralDirectory.getShort(position + 30) & 0xFFFF;
+            final int commentLength = centralDirectory.getShort(position + 32) & 0xFFFF;
+            long localHeaderOffset = centralDirectory.getInt(position + 42) & ZIP64_MAGIC;
+            final byte[] nameBytes = new byte[nameLength];
+            ((ByteBuffer) centralDirectory.duplicate().position(position + 46)).get(nameBytes);
+            final String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            int extra = position + 46 + nameLength;
+            final int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                final int id = centralDirectory.getShort(extra) & 0xFFFF;
+                final int length = centralDirectory.getShort(extra + 2) & 0xFFFF;
+                if (id == ZIP64_EXTRA) {
+                    int field = extra + 4;
+                    if (size == ZIP64_MAGIC) {
+                        size = centralDirectory.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == ZIP64_MAGIC) {
+                        compressedSize = centralDirectory.getLong(field);
+                        field += 8;
+                    }
+                    if (localHeaderOffset == ZIP64_MAGIC) {
+                        localHeaderOffset = centralDirectory.getLong(field);
+                    }
+                }
+                extra += 4 + length;
+            }
+            if (size > Integer.MAX_VALUE || compressedSize > Integer.MAX_VALUE) {
+                throw new ZipException("Zip entry is too large: " + name);
+            }
+
+            entries.add(new Entry(name, flags, method, dosTime, crc, (int) compressedSize, (int) size, base + localHeaderOffset));
+            position = extraEnd + commentLength;
+        }
+        return entries;
+    }
+
+    private ByteBuffer read(long position, final int length) throws IOException {
+        if (this.closed) {
+            throw new IOException("Zip file is closed");
+        }
+        if (position < 0 || position + length > this.size) {
+            throw new EOFException("Unexpected end of zip file");
+        }
+        if (this.mapped != null) {
+            final ByteBuffer slice = this.mapped.duplicate();
+            slice.position((int) position).limit((int) position + length);
+            return slice.slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            final int read = this.channel.read(buffer, position);
+            if (read == -1) {
+                throw new EOFException("Unexpected end of zip file");
+            }
+            position += read;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static final class InflaterBuffer {
+
+        private final Inflater inflater = new Inflater(true);
+        private byte[] input = new byte[8192];
+
+    }
+
+    /**
+     * A zip entry as it is described in the central directory.
+     */
+    public static final class Entry {
+
+        private final String name;
+        private final int flags;
+        private final int method;
+        private final int dosTime;
+        private final long crc;
+        private final int compressedSize;
+        private final int size;
+        private final long localHeaderOffset;
+
+        private Entry(final String name, final int flags, final int method, final int dosTime, final long crc, final int compressedSize, final int size, final long localHeaderOffset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public boolean isDirectory() {
+            return this.name.endsWith("/");
+        }
+
+        public int getMethod() {
+            return this.method;
+        }
+
+        /**
+         * @return The modification time in the MS-DOS format, see {@link ZipEntryData#toDosTime(long)}
+         */
+        public int getDosTime() {
+            return this.dosTime;
+        }
+
+        public long getCrc() {
+            return this.crc;
+        }
+
+        public int getCompressedSize() {
+            return this.compressedSize;
+        }
+
+        public int getSize() {
+            return this.size;
+        }
+
+    }
+
+}
@@ -0,0 +1,47 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.impl.classtransform.util;
+
+import net.raphimc.javadowngrader.JavaDowngrader;
+
+import java.io.File;
+import java.security.CodeSource;
+
+public class BuildInfo {
+
+    /**
+     * Identifies the running JavaDowngrader build. Snapshot builds share their version, so the size and modification
+     * time of the jar are part of it as well.
+     */
+    public static final String BUILD_ID = findBuildId();
+
+    private static String findBuildId() {
+        final StringBuilder buildId = new StringBuilder();
+        buildId.append(JavaDowngrader.class.getPackage().getImplementationVersion());
+        try {
+            final CodeSource codeSource = JavaDowngrader.class.getProtectionDomain().getCodeSource();
+            if (codeSource != null && codeSource.getLocation() != null) {
+                final File file = new File(codeSource.getLocation().toURI());
+                buildId.append('/').append(file.length()).append('/').append(file.lastModified());
+            }
+        } catch (Throwable ignored) {
+        }
+        return buildId.toString();
+    }
+
+}
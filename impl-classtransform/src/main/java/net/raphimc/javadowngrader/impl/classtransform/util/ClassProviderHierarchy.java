@@ -0,0 +1,102 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.impl.classtransform.util;
+
+import net.lenni0451.classtransform.utils.ASMUtils;
+import net.lenni0451.classtransform.utils.tree.IClassProvider;
+import net.raphimc.javadowngrader.ClassHierarchy;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link ClassHierarchy} which reads the class headers from an {@link IClassProvider}. The results are cached.
+ */
+public class ClassProviderHierarchy implements ClassHierarchy {
+
+    private static final ClassInfo UNKNOWN = new ClassInfo(null, Collections.emptySet());
+
+    private final IClassProvider classProvider;
+    private final Map<String, ClassInfo> classInfos = new ConcurrentHashMap<>();
+
+    public ClassProviderHierarchy(final IClassProvider classProvider) {
+        this.classProvider = classProvider;
+    }
+
+    @Override
+    public Collection<String> getSuperTypes(String className) {
+        return this.getClassInfo(className).superTypes;
+    }
+
+    @Override
+    public boolean declaresMethod(String className, String name, String descriptor) {
+        return this.getClassInfo(className).methods.contains(name + descriptor);
+    }
+
+    private ClassInfo getClassInfo(final String className) {
+        return this.classInfos.computeIfAbsent(className, this::readClassInfo);
+    }
+
+    private ClassInfo readClassInfo(final String className) {
+        final byte[] bytecode;
+        try {
+            bytecode = this.classProvider.getClass(ASMUtils.dot(className));
+        } catch (ClassNotFoundException e) {
+            return UNKNOWN;
+        }
+
+        final ClassReader classReader = new ClassReader(bytecode);
+        final List<String> superTypes = new ArrayList<>(Arrays.asList(classReader.getInterfaces()));
+        if (classReader.getSuperName() != null) {
+            superTypes.add(classReader.getSuperName());
+        }
+        final Set<String> methods = new HashSet<>();
+        classReader.accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                methods.add(name + descriptor);
+                return null;
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return new ClassInfo(Collections.unmodifiableList(superTypes), methods);
+    }
+
+    private static final class ClassInfo {
+
+        private final List<String> superTypes;
+        private final Set<String> methods;
+
+        private ClassInfo(final List<String> superTypes, final Set<String> methods) {
+            this.superTypes = superTypes;
+            this.methods = methods;
+        }
+
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.impl.classtransform;
+
+import net.lenni0451.classtransform.TransformerManager;
+import net.lenni0451.classtransform.utils.tree.BasicClassProvider;
+import net.raphimc.javadowngrader.impl.classtransform.cache.DowngradeCache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.*;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JavaDowngraderTransformerTest {
+
+    private static final String NAME = "fixture/Frames";
+
+    @Test
+    void treeRecomputesOnlyModifiedFrames() throws ReflectiveOperationException {
+        this.checkFrames(false);
+    }
+
+    @Test
+    void streamingRecomputesOnlyModifiedFrames() throws ReflectiveOperationException {
+        this.checkFrames(true);
+    }
+
+    @Test
+    void cachedClassesAreReused(@TempDir final Path cacheDir) throws IOException {
+        final DowngradeCache cache = new DowngradeCache(cacheDir, 1024 * 1024);
+        final Set<String> runtimeDeps = new HashSet<>();
+        final byte[] downgraded = downgrade(cache, "fingerprint", runtimeDeps);
+        assertFalse(runtimeDeps.isEmpty());
+        assertEquals(1, countFiles(cacheDir));
+
+        final Set<String> cachedDeps = new HashSet<>();
+        assertArrayEquals(downgraded, downgrade(cache, "fingerprint", cachedDeps));
+        assertEquals(runtimeDeps, cachedDeps, "The runtime dependencies are stored with the class");
+        assertEquals(1, countFiles(cacheDir));
+
+        downgrade(cache, "other", new HashSet<>());
+        assertEquals(2, countFiles(cacheDir), "Classes downgraded against another class path are stored separately");
+    }
+
+    private static byte[] downgrade(final DowngradeCache cache, final String fingerprint, final Set<String> runtimeDeps) {
+        final TransformerManager transformerManager = new TransformerManager(new BasicClassProvider());
+        transformerManager.addBytecodeTransformer(JavaDowngraderTransformer.builder(transformerManager)
+                .targetVersion(Opcodes.V1_8)
+                .depCollector(runtimeDeps::add)
+                .cache(cache, fingerprint)
+                .build());
+        return transformerManager.transform(NAME.replace('/', '.'), fixture(), true);
+    }
+
+    private static long countFiles(final Path dir) throws IOException {
+        try (Stream<Path> stream = Files.walk(dir)) {
+            return stream.filter(Files::isRegularFile).filter(path -> !path.getFileName().toString().equals("cache.lock")).count();
+        }
+    }
+
+    private void checkFrames(final boolean streaming) throws ReflectiveOperationException {
+        final TransformerManager transformerManager = new TransformerManager(new BasicClassProvider());
+        transformerManager.addBytecodeTransformer(JavaDowngraderTransformer.builder(transformerManager).targetVersion(Opcodes.V1_8).streaming(streaming).build());
+        final byte[] downgraded = transformerManager.transform(NAME.replace('/', '.'), fixture(), true);
+        assertNotNull(downgraded);
+
+        final ClassNode classNode = new ClassNode();
+        new ClassReader(downgraded).accept(classNode, 0);
+        assertEquals(Opcodes.V1_8, classNode.version);
+        // The hand written full frames of the untouched method are kept, ASM would have compressed them
+        for (FrameNode frame : frames(classNode, "sum")) {
+            assertEquals(Opcodes.F_FULL, frame.type);
+        }
+        assertFalse(frames(classNode, "describe").isEmpty());
+
+        assertEquals("blank|x|6", run(downgraded));
+    }
+
+    /**
+     * A Java 17 class with a method which calls {@code String.isBlank()} and a method which doesn't have to be
+     * changed. All frames are full frames.
+     */
+    private static byte[] fixture() {
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, NAME, null, "java/lang/Object", new String[]{"java/util/function/Supplier"});
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // return s.isBlank() ? "blank" : s;
+        mv = cw.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, "describe", "(Ljava/lang/String;)Ljava/lang/String;", null, null);
+        mv.visitCode();
+        final Label notBlank = new Label();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "isBlank", "()Z", false);
+        mv.visitJumpInsn(Opcodes.IFEQ, notBlank);
+        mv.visitLdcInsn("blank");
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitLabel(notBlank);
+        mv.visitFrame(Opcodes.F_FULL, 1, new Object[]{"java/lang/String"}, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // int sum = 0; while (n > 0) sum += n--; return sum;
+        mv = cw.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, "sum", "(I)I", null, null);
+        mv.visitCode();
+        final Label loop = new Label();
+        final Label end = new Label();
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitVarInsn(Opcodes.ISTORE, 1);
+        mv.visitLabel(loop);
+        mv.visitFrame(Opcodes.F_FULL, 2, new Object[]{Opcodes.INTEGER, Opcodes.INTEGER}, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ILOAD, 0);
+        mv.visitJumpInsn(Opcodes.IFLE, end);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitVarInsn(Opcodes.ILOAD, 0);
+        mv.visitInsn(Opcodes.IADD);
+        mv.visitVarInsn(Opcodes.ISTORE, 1);
+        mv.visitIincInsn(0, -1);
+        mv.visitJumpInsn(Opcodes.GOTO, loop);
+        mv.visitLabel(end);
+        mv.visitFrame(Opcodes.F_FULL, 2, new Object[]{Opcodes.INTEGER, Opcodes.INTEGER}, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // return describe("  ") + "|" + describe("x") + "|" + sum(3);
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "get", "()Ljava/lang/Object;", null, null);
+        mv.visitCode();
+        mv.visitTypeInsn(Opcodes.NEW, "java/lang/StringBuilder");
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "()V", false);
+        mv.visitLdcInsn("  ");
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, NAME, "describe", "(Ljava/lang/String;)Ljava/lang/String;", false);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+        mv.visitLdcInsn("|");
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+        mv.visitLdcInsn("x");
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, NAME, "describe", "(Ljava/lang/String;)Ljava/lang/String;", false);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+        mv.visitLdcInsn("|");
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+        mv.visitInsn(Opcodes.ICONST_3);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, NAME, "sum", "(I)I", false);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(I)Ljava/lang/StringBuilder;", false);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;", false);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static List<FrameNode> frames(final ClassNode classNode, final String methodName) {
+        final List<FrameNode> frames = new ArrayList<>();
+        for (MethodNode methodNode : classNode.methods) {
+            if (!methodNode.name.equals(methodName)) continue;
+
+            for (AbstractInsnNode insn : methodNode.instructions) {
+                if (insn instanceof FrameNode) {
+                    frames.add((FrameNode) insn);
+                }
+            }
+        }
+        return frames;
+    }
+
+    private static Object run(final byte[] bytecode) throws ReflectiveOperationException {
+        final ClassLoader loader = new ClassLoader(JavaDowngraderTransformerTest.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                if (!name.equals(NAME.replace('/', '.'))) {
+                    throw new ClassNotFoundException(name);
+                }
+                return this.defineClass(name, bytecode, 0, bytecode.length);
+            }
+        };
+        return ((Supplier<?>) loader.loadClass(NAME.replace('/', '.')).getConstructor().newInstance()).get();
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.impl.classtransform.cache;
+
+import net.raphimc.javadowngrader.impl.classtransform.jar.ZipSource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DowngradeCacheTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void storedEntriesCanBeRead() throws IOException {
+        final DowngradeCache cache = new DowngradeCache(this.dir, 1024 * 1024);
+        final byte[] bytecode = {1, 2, 3};
+        final String key = cache.key(bytecode, Opcodes.V1_8, true, false, false, "fingerprint");
+        assertNull(cache.get(key));
+
+        cache.put(key, new byte[]{4, 5}, Arrays.asList("a/B", "c/D"));
+        final DowngradeCache.Entry entry = cache.get(key);
+        assertNotNull(entry);
+        assertArrayEquals(new byte[]{4, 5}, entry.getBytecode());
+        assertEquals(Arrays.asList("a/B", "c/D"), entry.getRuntimeDeps());
+
+        // Another instance sees the same entries
+        assertArrayEquals(new byte[]{4, 5}, new DowngradeCache(this.dir, 1024 * 1024).get(key).getBytecode());
+    }
+
+    @Test
+    void damagedEntriesAreDeleted() throws IOException {
+        final DowngradeCache cache = new DowngradeCache(this.dir, 1024 * 1024);
+        final String key = cache.key(new byte[]{1}, Opcodes.V1_8, true, false, false, "fingerprint");
+        cache.put(key, new byte[]{4, 5}, Collections.emptyList());
+        final Path file = this.dir.resolve(key.substring(0, 2)).resolve(key);
+        assertTrue(Files.isRegularFile(file));
+
+        Files.write(file, new byte[]{0x4A, 0x44, 0x43, 0x01, 0, 0});
+        assertNull(cache.get(key));
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void keysDependOnAllInputs() throws IOException {
+        final DowngradeCache cache = new DowngradeCache(this.dir, 1024 * 1024);
+        final byte[] bytecode = {1, 2, 3};
+        final String key = cache.key(bytecode, Opcodes.V1_8, true, false, false, "fingerprint");
+        assertEquals(key, cache.key(bytecode.clone(), Opcodes.V1_8, true, false, false, "fingerprint"));
+
+        final Set<String> keys = new HashSet<>(Arrays.asList(
+                key,
+                cache.key(new byte[]{1, 2, 4}, Opcodes.V1_8, true, false, false, "fingerprint"),
+                cache.key(bytecode, Opcodes.V9, true, false, false, "fingerprint"),
+                cache.key(bytecode, Opcodes.V1_8, false, false, false, "fingerprint"),
+                cache.key(bytecode, Opcodes.V1_8, true, true, false, "fingerprint"),
+                cache.key(bytecode, Opcodes.V1_8, true, false, true, "fingerprint"),
+                cache.key(bytecode, Opcodes.V1_8, true, false, false, "other")
+        ));
+        assertEquals(7, keys.size());
+    }
+
+    @Test
+    void leastRecentlyUsedEntriesAreEvicted() throws IOException {
+        final DowngradeCache cache = new DowngradeCache(this.dir, 2000);
+        final List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final String key = cache.key(new byte[]{(byte) i}, Opcodes.V1_8, true, false, false, "fingerprint");
+            cache.put(key, new byte[200], Collections.emptyList());
+            // Make the order of the entries visible to the file system timestamps
+            Files.setLastModifiedTime(this.dir.resolve(key.substring(0, 2)).resolve(key), FileTime.fromMillis(1_000_000L * (i + 1)));
+            keys.add(key);
+        }
+        cache.evict();
+
+        assertTrue(this.size() <= 2000, "The cache has to shrink below its maximum size");
+        assertNotNull(cache.get(keys.get(keys.size() - 1)));
+        assertNull(cache.get(keys.get(0)));
+    }
+
+    @Test
+    void classHeaderFingerprintOnlyChangesWithTheHeaders() throws IOException {
+        final String original = fingerprint(jar(clazz("a/A", "java/lang/Object", 1), clazz("a/B", "a/A", 1)));
+        assertEquals(original, fingerprint(jar(clazz("a/A", "java/lang/Object", 1), clazz("a/B", "a/A", 2))), "Method bodies don't matter");
+        assertNotEquals(original, fingerprint(jar(clazz("a/A", "java/lang/Object", 1), clazz("a/B", "java/lang/Object", 1))));
+        assertNotEquals(original, fingerprint(jar(clazz("a/A", "java/lang/Object", 1, "java/lang/Runnable"), clazz("a/B", "a/A", 1))));
+        assertNotEquals(original, fingerprint(jar(clazz("a/A", "java/lang/Object", 1), clazz("a/B", "a/A", 1), clazz("a/C", "a/A", 1))));
+    }
+
+    @Test
+    void classHeaderFingerprintCoversNestedJars() throws IOException {
+        final byte[] nested = jar(clazz("b/A", "java/lang/Object", 1));
+        final byte[] changedNested = jar(clazz("b/A", "java/lang/Thread", 1));
+        final Map<String, byte[]> outer = new LinkedHashMap<>();
+        outer.put("a/A.class", clazz("a/A", "java/lang/Object", 1));
+        outer.put("BOOT-INF/lib/nested.jar", nested);
+        final String original = fingerprint(jar(outer));
+        outer.put("BOOT-INF/lib/nested.jar", changedNested);
+        assertNotEquals(original, fingerprint(jar(outer)));
+    }
+
+    @Test
+    void classHeaderFingerprintOfDirectoriesMatchesJars() throws IOException {
+        final Path classes = Files.createDirectories(this.dir.resolve("classes/a"));
+        Files.write(classes.resolve("A.class"), clazz("a/A", "java/lang/Object", 1));
+        Files.write(classes.resolve("B.class"), clazz("a/B", "a/A", 1));
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("a/A.class", clazz("a/A", "java/lang/Object", 1));
+        entries.put("a/B.class", clazz("a/B", "a/A", 1));
+        assertEquals(fingerprint(jar(entries)), DowngradeCache.classHeaderFingerprint(this.dir.resolve("classes")));
+    }
+
+    private long size() throws IOException {
+        try (Stream<Path> stream = Files.walk(this.dir)) {
+            return stream.filter(Files::isRegularFile).filter(path -> !path.getFileName().toString().equals("cache.lock")).mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+    private static String fingerprint(final byte[] jar) throws IOException {
+        try (ZipSource source = new ZipSource(ByteBuffer.wrap(jar))) {
+            return DowngradeCache.classHeaderFingerprint(source);
+        }
+    }
+
+    private static byte[] jar(final byte[]... classes) throws IOException {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (int i = 0; i < classes.length; i++) {
+            entries.put("c" + i + ".class", classes[i]);
+        }
+        return jar(entries);
+    }
+
+    private static byte[] jar(final Map<String, byte[]> entries) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(out)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zos.putNextEntry(new ZipEntry(entry.getKey()));
+                zos.write(entry.getValue());
+                zos.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return A class with a method which returns the given value
+     */
+    private static byte[] clazz(final String name, final String superName, final int value, final String... interfaces) {
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V17, Opcodes.ACC_PUBLIC, name, null, superName, interfaces);
+        final MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "value", "()I", null, null);
+        mv.visitCode();
+        mv.visitLdcInsn(value);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+}
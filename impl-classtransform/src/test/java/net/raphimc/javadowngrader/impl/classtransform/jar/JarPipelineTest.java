@@ -0,0 +1,201 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.impl.classtransform.jar;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarInputStream;
+import java.util.zip.ZipEntry;
+
+import static net.raphimc.javadowngrader.impl.classtransform.jar.TestJars.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class JarPipelineTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void copiesAndTransformsEntries() throws IOException {
+        final Map<String, byte[]> entries = this.entries();
+        final File input = write(new File(this.dir, "input.jar"), jar(entries, Collections.singleton("a/stored.txt")));
+        final File output = this.run(input, Runnable::run, Integer.MAX_VALUE);
+
+        final Map<String, byte[]> expected = new LinkedHashMap<>(entries);
+        expected.put("a/upper.txt", text("UPPER"));
+        assertEntries(expected, read(output));
+    }
+
+    @Test
+    void unchangedEntriesAreCopiedWithoutRecompressing() throws IOException {
+        final File input = write(new File(this.dir, "input.jar"), jar(this.entries(), Collections.singleton("a/stored.txt")));
+        final File output = this.run(input, Runnable::run, Integer.MAX_VALUE);
+
+        try (ZipSource in = new ZipSource(input); ZipSource out = new ZipSource(output)) {
+            for (String name : Arrays.asList("a/stored.txt", "a/deflated.txt", "a/same.txt", "b.bin")) {
+                final ZipSource.Entry inEntry = in.getEntry(name);
+                final ZipSource.Entry outEntry = out.getEntry(name);
+                assertEquals(inEntry.getMethod(), outEntry.getMethod(), name);
+                assertEquals(inEntry.getCrc(), outEntry.getCrc(), name);
+                assertArrayEquals(in.readRaw(inEntry), out.readRaw(outEntry), name);
+            }
+        }
+    }
+
+    @Test
+    void boundedParallelRunsWriteTheSameJar() throws IOException {
+        final File input = write(new File(this.dir, "input.jar"), jar(this.entries(), Collections.singleton("a/stored.txt")));
+        final Map<String, byte[]> expected = read(this.run(input, Runnable::run, Integer.MAX_VALUE));
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int maxPendingBytes : new int[]{1, 1000, Integer.MAX_VALUE}) {
+                final File output = this.run(input, executor, maxPendingBytes);
+                assertEntries(expected, read(output));
+                try (JarInputStream jis = new JarInputStream(Files.newInputStream(output.toPath()))) {
+                    assertNotNull(jis.getManifest(), "The manifest has to stay the first entry");
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void failedRunsWaitForRunningEntries() throws IOException, InterruptedException {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (int i = 0; i < 16; i++) {
+            entries.put("e" + i + ".txt", text("entry " + i));
+        }
+        final File input = write(new File(this.dir, "input.jar"), jar(entries, Collections.emptySet()));
+        final AtomicInteger running = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (ZipSource source = new ZipSource(input);
+             ZipSink sink = new ZipSink(new ByteArrayOutputStream())) {
+            final IOException e = assertThrows(IOException.class, () -> new JarPipeline(source, executor, Integer.MAX_VALUE).run(sink, name -> true, (name, data) -> {
+                running.incrementAndGet();
+                try {
+                    if (name.equals("e0.txt")) {
+                        throw new IOException("Failed on purpose");
+                    }
+                    Thread.sleep(20);
+                    return null;
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                } finally {
+                    running.decrementAndGet();
+                }
+            }));
+            assertEquals("Failed on purpose", e.getMessage());
+            assertEquals(0, running.get(), "No entry may be processed after the pipeline returned");
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void nestedJarsAreTransformed() throws IOException {
+        final Map<String, byte[]> changed = new LinkedHashMap<>();
+        changed.put("a/upper.txt", text("upper"));
+        changed.put("a/same.txt", text("same"));
+        final Map<String, byte[]> unchanged = new LinkedHashMap<>();
+        unchanged.put("a/same.txt", text("same"));
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("BOOT-INF/lib/changed.jar", jar(changed, Collections.emptySet()));
+        entries.put("BOOT-INF/lib/unchanged.jar", jar(unchanged, Collections.emptySet()));
+        final File input = write(new File(this.dir, "input.jar"), jar(entries, Collections.emptySet()));
+        final File output = new File(this.dir, "output.jar");
+
+        final Set<String> names = Collections.synchronizedSet(new TreeSet<>());
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (ZipSource source = new ZipSource(input);
+             ZipSink sink = new ZipSink(new BufferedOutputStream(Files.newOutputStream(output.toPath())))) {
+            // A single thread per nested jar and the smallest budget must not deadlock
+            new JarPipeline(source, executor, 1).nestedJars(NestedJarClassProvider::isNestedJar).run(sink, name -> name.endsWith(".txt"), (name, data) -> {
+                names.add(name);
+                return name.endsWith("upper.txt") ? text("UPPER") : null;
+            });
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(new TreeSet<>(Arrays.asList("BOOT-INF/lib/changed.jar!/a/same.txt", "BOOT-INF/lib/changed.jar!/a/upper.txt", "BOOT-INF/lib/unchanged.jar!/a/same.txt")), names);
+
+        try (ZipSource in = new ZipSource(input); ZipSource out = new ZipSource(output)) {
+            final ZipSource.Entry changedJar = out.getEntry("BOOT-INF/lib/changed.jar");
+            assertEquals(ZipEntry.STORED, changedJar.getMethod());
+            try (ZipSource nested = new ZipSource(out.readBuffer(changedJar))) {
+                assertArrayEquals(text("UPPER"), nested.read(nested.getEntry("a/upper.txt")));
+                assertArrayEquals(text("same"), nested.read(nested.getEntry("a/same.txt")));
+            }
+            assertArrayEquals(in.readRaw(in.getEntry("BOOT-INF/lib/unchanged.jar")), out.readRaw(out.getEntry("BOOT-INF/lib/unchanged.jar")));
+        }
+    }
+
+    /**
+     * @return A manifest, a directory, stored and deflated entries and entries the transformer changes or returns as
+     * they are
+     */
+    Map<String, byte[]> entries() {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("META-INF/MANIFEST.MF", text("Manifest-Version: 1.0\r\n\r\n"));
+        entries.put("a/", new byte[0]);
+        entries.put("a/stored.txt", text("stored"));
+        entries.put("a/deflated.txt", text("deflated deflated deflated"));
+        entries.put("a/upper.txt", text("upper"));
+        entries.put("a/same.txt", text("same"));
+        entries.put("b.bin", random(100_000, 1));
+        return entries;
+    }
+
+    /**
+     * Runs a pipeline which upper cases {@code upper.txt} and returns all other text files unchanged.
+     */
+    File run(final File input, final Executor executor, final int maxPending) throws IOException {
+        final File output = new File(this.dir, "output-" + UUID.randomUUID() + ".jar");
+        try (ZipSource source = new ZipSource(input);
+             ZipSink sink = new ZipSink(new BufferedOutputStream(Files.newOutputStream(output.toPath())))) {
+            new JarPipeline(source, executor, maxPending).run(sink, name -> name.endsWith(".txt"), (name, data) -> {
+                if (name.endsWith("upper.txt")) {
+                    return new String(data, "UTF-8").toUpperCase(Locale.ROOT).getBytes("UTF-8");
+                }
+                return name.endsWith("same.txt") ? data.clone() : null;
+            });
+        }
+        return output;
+    }
+
+    static void assertEntries(final Map<String, byte[]> expected, final Map<String, byte[]> actual) {
+        assertEquals(new TreeSet<>(expected.keySet()), new TreeSet<>(actual.keySet()));
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getValue(), actual.get(entry.getKey()), entry.getKey());
+        }
+    }
+
+}
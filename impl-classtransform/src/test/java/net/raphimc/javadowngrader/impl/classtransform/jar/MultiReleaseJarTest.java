@@ -0,0 +1,141 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.impl.classtransform.jar;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.jar.Manifest;
+
+import static net.raphimc.javadowngrader.impl.classtransform.jar.TestJars.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultiReleaseJarTest {
+
+    private static final int V11 = 55;
+    private static final int V17 = 61;
+
+    @TempDir
+    File dir;
+
+    @Test
+    void flattenSelectsTheHighestSupportedRelease() throws IOException {
+        try (ZipSource source = new ZipSource(ByteBuffer.wrap(jar(entries("Multi-Release: true"), Collections.emptySet())))) {
+            final Map<String, String> v11 = contents(source, MultiReleaseJar.flatten(source, V11));
+            assertEquals("9", v11.get("a/A.class"));
+            assertEquals("base", v11.get("a/B.class"));
+            assertEquals("base", v11.get("module-info.class"));
+            assertFalse(v11.keySet().stream().anyMatch(name -> name.startsWith(MultiReleaseJar.VERSIONS)), v11.keySet().toString());
+
+            final Map<String, String> v17 = contents(source, MultiReleaseJar.flatten(source, V17));
+            assertEquals("17", v17.get("a/A.class"));
+            assertEquals("17", v17.get("a/B.class"));
+            assertEquals("base", v17.get("module-info.class"), "Versioned module-info files are dropped");
+            assertEquals(new ArrayList<>(v11.keySet()), new ArrayList<>(v17.keySet()), "The order of the jar is kept");
+        }
+    }
+
+    @Test
+    void jarsWithoutTheAttributeAreNotFlattened() throws IOException {
+        final Map<String, byte[]> entries = entries("Created-By: test");
+        try (ZipSource source = new ZipSource(ByteBuffer.wrap(jar(entries, Collections.emptySet())))) {
+            assertFalse(MultiReleaseJar.isMultiRelease(source));
+            assertEquals(entries.keySet(), MultiReleaseJar.flatten(source, V17).keySet());
+        }
+    }
+
+    @Test
+    void attributeIsReadLikeTheJdkDoes() throws IOException {
+        for (String value : new String[]{"true", "TRUE", "True "}) {
+            final Map<String, byte[]> entries = Collections.singletonMap(MultiReleaseJar.MANIFEST, text("Manifest-Version: 1.0\r\nMulti-Release: " + value + "\r\n\r\n"));
+            try (ZipSource source = new ZipSource(ByteBuffer.wrap(jar(entries, Collections.emptySet())))) {
+                assertTrue(MultiReleaseJar.isMultiRelease(source), value);
+            }
+        }
+        try (ZipSource source = new ZipSource(ByteBuffer.wrap(jar(Collections.singletonMap("a.txt", text("a")), Collections.emptySet())))) {
+            assertFalse(MultiReleaseJar.isMultiRelease(source));
+        }
+    }
+
+    @Test
+    void onlyTheAttributeIsRemovedFromTheManifest() throws IOException {
+        final String manifest = "Manifest-Version: 1.0\r\nMulti-Release: true\r\nMain-Class: a.Main\r\nmulti-release: tr\r\n ue\r\nCreated-By: test\r\n\r\n";
+        final byte[] result = MultiReleaseJar.removeMultiReleaseAttribute(text(manifest));
+        assertEquals("Manifest-Version: 1.0\r\nMain-Class: a.Main\r\nCreated-By: test\r\n\r\n", new String(result, "UTF-8"));
+        assertNull(new Manifest(new ByteArrayInputStream(result)).getMainAttributes().getValue("Multi-Release"));
+    }
+
+    @Test
+    void pipelineWritesTheFlattenedJar() throws IOException {
+        final File input = write(new File(this.dir, "input.jar"), jar(entries("Multi-Release: true"), Collections.emptySet()));
+        final File output = new File(this.dir, "output.jar");
+        final Map<String, String> transformed = new TreeMap<>();
+        try (ZipSource source = new ZipSource(input);
+             ZipSink sink = new ZipSink(new BufferedOutputStream(Files.newOutputStream(output.toPath())))) {
+            new JarPipeline(source, Runnable::run, Integer.MAX_VALUE).flattenMultiRelease(V11).run(sink, name -> name.endsWith(".class"), (name, data) -> {
+                transformed.put(name, new String(data, "UTF-8"));
+                return null;
+            });
+        }
+
+        final Map<String, String> expected = new TreeMap<>();
+        expected.put("a/A.class", "9");
+        expected.put("a/B.class", "base");
+        expected.put("module-info.class", "base");
+        assertEquals(expected, transformed);
+
+        final Map<String, byte[]> entries = read(output);
+        assertEquals(new TreeSet<>(Arrays.asList(MultiReleaseJar.MANIFEST, "a/", "a/A.class", "a/B.class", "module-info.class")), new TreeSet<>(entries.keySet()));
+        assertArrayEquals(text("9"), entries.get("a/A.class"));
+        assertNull(new Manifest(new ByteArrayInputStream(entries.get(MultiReleaseJar.MANIFEST))).getMainAttributes().getValue("Multi-Release"));
+    }
+
+    /**
+     * @return A jar with classes for Java 9 and 17 and a versioned module-info, whose content is the release it's for
+     */
+    private static Map<String, byte[]> entries(final String attribute) {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put(MultiReleaseJar.MANIFEST, text("Manifest-Version: 1.0\r\n" + attribute + "\r\n\r\n"));
+        entries.put("a/", new byte[0]);
+        entries.put("a/A.class", text("base"));
+        entries.put("a/B.class", text("base"));
+        entries.put("module-info.class", text("base"));
+        entries.put("META-INF/versions/", new byte[0]);
+        entries.put("META-INF/versions/17/a/A.class", text("17"));
+        entries.put("META-INF/versions/9/a/A.class", text("9"));
+        entries.put("META-INF/versions/17/a/B.class", text("17"));
+        entries.put("META-INF/versions/17/module-info.class", text("17"));
+        return entries;
+    }
+
+    private static Map<String, String> contents(final ZipSource source, final Map<String, ZipSource.Entry> entries) throws IOException {
+        final Map<String, String> contents = new LinkedHashMap<>();
+        for (Map.Entry<String, ZipSource.Entry> entry : entries.entrySet()) {
+            contents.put(entry.getKey(), new String(source.read(entry.getValue()), "UTF-8"));
+        }
+        return contents;
+    }
+
+}
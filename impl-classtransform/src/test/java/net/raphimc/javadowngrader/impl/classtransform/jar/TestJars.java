@@ -0,0 +1,110 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.impl.classtransform.jar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes and reads jars with the zip implementation of the JDK, so the jar classes are checked against it.
+ */
+final class TestJars {
+
+    private TestJars() {
+    }
+
+    /**
+     * @param entries The entries in the order they are written. Names ending with a slash are directories
+     * @param stored  The names of the entries which are stored instead of deflated
+     * @return The jar
+     */
+    static byte[] jar(final Map<String, byte[]> entries, final Set<String> stored) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(out)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                final ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                if (stored.contains(entry.getKey())) {
+                    final CRC32 crc = new CRC32();
+                    crc.update(entry.getValue());
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(entry.getValue().length);
+                    zipEntry.setCrc(crc.getValue());
+                }
+                zos.putNextEntry(zipEntry);
+                zos.write(entry.getValue());
+                zos.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    static File write(final File file, final byte[] data) throws IOException {
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    /**
+     * @return The entries of the jar in the order of the central directory
+     */
+    static Map<String, byte[]> read(final File file) throws IOException {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipFile zipFile = new ZipFile(file)) {
+            final Enumeration<? extends ZipEntry> it = zipFile.entries();
+            while (it.hasMoreElements()) {
+                final ZipEntry entry = it.nextElement();
+                try (InputStream is = zipFile.getInputStream(entry)) {
+                    entries.put(entry.getName(), readAll(is));
+                }
+            }
+        }
+        return entries;
+    }
+
+    static byte[] readAll(final InputStream is) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] text(final String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return Data which doesn't compress well, so a bug in the offsets of the compressed data is noticed
+     */
+    static byte[] random(final int size, final long seed) {
+        final byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.impl.classtransform.jar;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static net.raphimc.javadowngrader.impl.classtransform.jar.TestJars.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZipSourceTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void readsWhatTheJdkWrites() throws IOException {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("dir/", new byte[0]);
+        entries.put("dir/stored.bin", random(70_000, 1));
+        entries.put("dir/deflated.bin", random(70_000, 2));
+        entries.put("dir/text.txt", text("text text text text"));
+        entries.put("empty.txt", new byte[0]);
+        final byte[] jar = jar(entries, Collections.singleton("dir/stored.bin"));
+
+        try (ZipSource mapped = new ZipSource(write(new File(this.dir, "input.jar"), jar));
+             ZipSource buffered = new ZipSource(ByteBuffer.wrap(jar))) {
+            for (ZipSource source : Arrays.asList(mapped, buffered)) {
+                assertEquals(entries.size(), source.size());
+                final List<String> names = new ArrayList<>();
+                for (ZipSource.Entry entry : source.getEntries()) {
+                    names.add(entry.getName());
+                    assertEquals(entry.getName().endsWith("/"), entry.isDirectory());
+                    assertArrayEquals(entries.get(entry.getName()), source.read(entry), entry.getName());
+
+                    final ByteBuffer buffer = source.readBuffer(entry);
+                    final byte[] data = new byte[buffer.remaining()];
+                    buffer.get(data);
+                    assertArrayEquals(entries.get(entry.getName()), data, entry.getName());
+                }
+                assertEquals(new ArrayList<>(entries.keySet()), names);
+            }
+        }
+    }
+
+    @Test
+    void closedSourcesCantBeRead() throws IOException {
+        final Map<String, byte[]> entries = Collections.singletonMap("a.txt", text("a"));
+        final ZipSource source = new ZipSource(write(new File(this.dir, "input.jar"), jar(entries, Collections.emptySet())));
+        final ZipSource.Entry entry = source.getEntry("a.txt");
+        assertArrayEquals(text("a"), source.read(entry));
+
+        source.close();
+        assertThrows(IOException.class, () -> source.read(entry));
+        assertThrows(IOException.class, () -> source.readRaw(entry));
+        // Closing twice does nothing
+        source.close();
+    }
+
+}
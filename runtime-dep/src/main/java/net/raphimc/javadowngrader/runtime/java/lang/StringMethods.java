@@ -0,0 +1,77 @@
+/*
+ * MIT License
+ *
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.raphimc.javadowngrader.runtime.java.lang;
+
+/**
+ * The whitespace methods which were added to {@link java.lang.String} in Java 11.<br>
+ * Whitespace is anything {@link Character#isWhitespace(char)} accepts, exactly like in Java 11. This differs from
+ * {@link String#trim()} and the {@code \s} regex class. No method allocates if there is nothing to strip.
+ */
+public class StringMethods {
+
+    public static boolean isBlank(final String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (!Character.isWhitespace(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static String strip(final String s) {
+        final int length = s.length();
+        final int start = indexOfNonWhitespace(s);
+        final int end = start == length ? start : lastIndexOfNonWhitespace(s) + 1;
+        return start == 0 && end == length ? s : s.substring(start, end);
+    }
+
+    public static String stripLeading(final String s) {
+        final int start = indexOfNonWhitespace(s);
+        return start == 0 ? s : s.substring(start);
+    }
+
+    public static String stripTrailing(final String s) {
+        final int end = lastIndexOfNonWhitespace(s) + 1;
+        return end == s.length() ? s : s.substring(0, end);
+    }
+
+    private static int indexOfNonWhitespace(final String s) {
+        final int length = s.length();
+        int index = 0;
+        while (index < length && Character.isWhitespace(s.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    private static int lastIndexOfNonWhitespace(final String s) {
+        int index = s.length() - 1;
+        while (index >= 0 && Character.isWhitespace(s.charAt(index))) {
+            index--;
+        }
+        return index;
+    }
+
+}
@@ -0,0 +1,1034 @@
+/*
+ * MIT License
+ *
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.raphimc.javadowngrader.runtime.java.util;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * A backport of the compact immutable collections which were added in Java 9.<br>
+ * The factory methods have the same descriptors as {@link List}.of, {@link Set}.of and {@link Map}.of, so call sites
+ * only have to change the owner and name. All collections reject nulls (also in {@code contains}), reject duplicate
+ * set elements and map keys and throw {@link UnsupportedOperationException} on every mutator, like in Java 9.<br>
+ * Unlike Java 9 the iteration order of sets and maps is not randomized per JVM run.
+ */
+@SuppressWarnings("unchecked")
+public class ImmutableCollections {
+
+    /**
+     * Sets and maps use a table which is twice as large as the number of elements.
+     */
+    static final int EXPAND_FACTOR = 2;
+
+    public static <E> List<E> listOf() {
+        return (List<E>) ListN.EMPTY_LIST;
+    }
+
+    public static <E> List<E> listOf(final E e0) {
+        return new List12<>(e0);
+    }
+
+    public static <E> List<E> listOf(final E e0, final E e1) {
+        return new List12<>(e0, e1);
+    }
+
+    public static <E> List<E> listOf(final E e0, final E e1, final E e2) {
+        return listFromTrustedArray(e0, e1, e2);
+    }
+
+    public static <E> List<E> listOf(final E e0, final E e1, final E e2, final E e3) {
+        return listFromTrustedArray(e0, e1, e2, e3);
+    }
+
+    public static <E> List<E> listOf(final E e0, final E e1, final E e2, final E e3, final E e4) {
+        return listFromTrustedArray(e0, e1, e2, e3, e4);
+    }
+
+    public static <E> List<E> listOf(final E e0, final E e1, final E e2, final E e3, final E e4, final E e5) {
+        return listFromTrustedArray(e0, e1, e2, e3, e4, e5);
+    }
+
+    public static <E> List<E> listOf(final E e0, final E e1, final E e2, final E e3, final E e4, final E e5, final E e6) {
+        return listFromTrustedArray(e0, e1, e2, e3, e4, e5, e6);
+    }
+
+    public static <E> List<E> listOf(final E e0, final E e1, final E e2, final E e3, final E e4, final E e5, final E e6, final E e7) {
+        return listFromTrustedArray(e0, e1, e2, e3, e4, e5, e6, e7);
+    }
+
+    public static <E> List<E> listOf(final E e0, final E e1, final E e2, final E e3, final E e4, final E e5, final E e6, final E e7, final E e8) {
+        return listFromTrustedArray(e0, e1, e2, e3, e4, e5, e6, e7, e8);
+    }
+
+    public static <E> List<E> listOf(final E e0, final E e1, final E e2, final E e3, final E e4, final E e5, final E e6, final E e7, final E e8, final E e9) {
+        return listFromTrustedArray(e0, e1, e2, e3, e4, e5, e6, e7, e8, e9);
+    }
+
+    public static <E> List<E> listOf(final E[] elements) {
+        switch (elements.length) {
+            case 0:
+                return (List<E>) ListN.EMPTY_LIST;
+            case 1:
+                return new List12<>(elements[0]);
+            case 2:
+                return new List12<>(elements[0], elements[1]);
+            default:
+                return listFromTrustedArray(elements.clone());
+        }
+    }
+
+    public static <E> Set<E> setOf() {
+        return (Set<E>) SetN.EMPTY_SET;
+    }
+
+    public static <E> Set<E> setOf(final E e0) {
+        return new Set12<>(e0);
+    }
+
+    public static <E> Set<E> setOf(final E e0, final E e1) {
+        return new Set12<>(e0, e1);
+    }
+
+    public static <E> Set<E> setOf(final E e0, final E e1, final E e2) {
+        return new SetN<>(e0, e1, e2);
+    }
+
+    public static <E> Set<E> setOf(final E e0, final E e1, final E e2, final E e3) {
+        return new SetN<>(e0, e1, e2, e3);
+    }
+
+    public static <E> Set<E> setOf(final E e0, final E e1, final E e2, final E e3, final E e4) {
+        return new SetN<>(e0, e1, e2, e3, e4);
+    }
+
+    public static <E> Set<E> setOf(final E e0, final E e1, final E e2, final E e3, final E e4, final E e5) {
+        return new SetN<>(e0, e1, e2, e3, e4, e5);
+    }
+
+    public static <E> Set<E> setOf(final E e0, final E e1, final E e2, final E e3, final E e4, final E e5, final E e6) {
+        return new SetN<>(e0, e1, e2, e3, e4, e5, e6);
+    }
+
+    public static <E> Set<E> setOf(final E e0, final E e1, final E e2, final E e3, final E e4, final E e5, final E e6, final E e7) {
+        return new SetN<>(e0, e1, e2, e3, e4, e5, e6, e7);
+    }
+
+    public static <E> Set<E> setOf(final E e0, final E e1, final E e2, final E e3, final E e4, final E e5, final E e6, final E e7, final E e8) {
+        return new SetN<>(e0, e1, e2, e3, e4, e5, e6, e7, e8);
+    }
+
+    public static <E> Set<E> setOf(final E e0, final E e1, final E e2, final E e3, final E e4, final E e5, final E e6, final E e7, final E e8, final E e9) {
+        return new SetN<>(e0, e1, e2, e3, e4, e5, e6, e7, e8, e9);
+    }
+
+    public static <E> Set<E> setOf(final E[] elements) {
+        switch (elements.length) {
+            case 0:
+                return (Set<E>) SetN.EMPTY_SET;
+            case 1:
+                return new Set12<>(elements[0]);
+            case 2:
+                return new Set12<>(elements[0], elements[1]);
+            default:
+                return new SetN<>(elements);
+        }
+    }
+
+    public static <K, V> Map<K, V> mapOf() {
+        return (Map<K, V>) MapN.EMPTY_MAP;
+    }
+
+    public static <K, V> Map<K, V> mapOf(final K k0, final V v0) {
+        return new Map1<>(k0, v0);
+    }
+
+    public static <K, V> Map<K, V> mapOf(final K k0, final V v0, final K k1, final V v1) {
+        return new MapN<>(k0, v0, k1, v1);
+    }
+
+    public static <K, V> Map<K, V> mapOf(final K k0, final V v0, final K k1, final V v1, final K k2, final V v2) {
+        return new MapN<>(k0, v0, k1, v1, k2, v2);
+    }
+
+    public static <K, V> Map<K, V> mapOf(final K k0, final V v0, final K k1, final V v1, final K k2, final V v2, final K k3, final V v3) {
+        return new MapN<>(k0, v0, k1, v1, k2, v2, k3, v3);
+    }
+
+    public static <K, V> Map<K, V> mapOf(final K k0, final V v0, final K k1, final V v1, final K k2, final V v2, final K k3, final V v3, final K k4, final V v4) {
+        return new MapN<>(k0, v0, k1, v1, k2, v2, k3, v3, k4, v4);
+    }
+
+    public static <K, V> Map<K, V> mapOf(final K k0, final V v0, final K k1, final V v1, final K k2, final V v2, final K k3, final V v3, final K k4, final V v4, final K k5, final V v5) {
+        return new MapN<>(k0, v0, k1, v1, k2, v2, k3, v3, k4, v4, k5, v5);
+    }
+
+    public static <K, V> Map<K, V> mapOf(final K k0, final V v0, final K k1, final V v1, final K k2, final V v2, final K k3, final V v3, final K k4, final V v4, final K k5, final V v5, final K k6, final V v6) {
+        return new MapN<>(k0, v0, k1, v1, k2, v2, k3, v3, k4, v4, k5, v5, k6, v6);
+    }
+
+    public static <K, V> Map<K, V> mapOf(final K k0, final V v0, final K k1, final V v1, final K k2, final V v2, final K k3, final V v3, final K k4, final V v4, final K k5, final V v5, final K k6, final V v6, final K k7, final V v7) {
+        return new MapN<>(k0, v0, k1, v1, k2, v2, k3, v3, k4, v4, k5, v5, k6, v6, k7, v7);
+    }
+
+    public static <K, V> Map<K, V> mapOf(final K k0, final V v0, final K k1, final V v1, final K k2, final V v2, final K k3, final V v3, final K k4, final V v4, final K k5, final V v5, final K k6, final V v6, final K k7, final V v7, final K k8, final V v8) {
+        return new MapN<>(k0, v0, k1, v1, k2, v2, k3, v3, k4, v4, k5, v5, k6, v6, k7, v7, k8, v8);
+    }
+
+    public static <K, V> Map<K, V> mapOf(final K k0, final V v0, final K k1, final V v1, final K k2, final V v2, final K k3, final V v3, final K k4, final V v4, final K k5, final V v5, final K k6, final V v6, final K k7, final V v7, final K k8, final V v8, final K k9, final V v9) {
+        return new MapN<>(k0, v0, k1, v1, k2, v2, k3, v3, k4, v4, k5, v5, k6, v6, k7, v7, k8, v8, k9, v9);
+    }
+
+    public static <K, V> Map<K, V> mapOfEntries(final Map.Entry<? extends K, ? extends V>[] entries) {
+        if (entries.length == 0) {
+            return (Map<K, V>) MapN.EMPTY_MAP;
+        } else if (entries.length == 1) {
+            return new Map1<>(entries[0].getKey(), entries[0].getValue());
+        }
+
+        final Object[] kva = new Object[entries.length << 1];
+        for (int i = 0; i < entries.length; i++) {
+            kva[i << 1] = entries[i].getKey();
+            kva[(i << 1) + 1] = entries[i].getValue();
+        }
+        return new MapN<>(kva);
+    }
+
+    public static <E> List<E> listCopyOf(final Collection<? extends E> coll) {
+        if (coll instanceof List12 || (coll instanceof ListN && !((ListN<?>) coll).allowNulls())) {
+            return (List<E>) coll;
+        }
+        return (List<E>) listOf(coll.toArray());
+    }
+
+    public static <E> Set<E> setCopyOf(final Collection<? extends E> coll) {
+        if (coll instanceof Set12 || coll instanceof SetN) {
+            return (Set<E>) coll;
+        }
+        return (Set<E>) setOf(new HashSet<>(coll).toArray());
+    }
+
+    public static <K, V> Map<K, V> mapCopyOf(final Map<? extends K, ? extends V> map) {
+        if (map instanceof AbstractImmutableMap) {
+            return (Map<K, V>) map;
+        }
+        return mapOfEntries((Map.Entry<K, V>[]) map.entrySet().toArray(new Map.Entry<?, ?>[0]));
+    }
+
+    /**
+     * The list returned by {@code Stream.toList()}. It takes ownership of the array and allows null elements.
+     */
+    public static <E> List<E> listFromTrustedArrayNullsAllowed(final Object[] input) {
+        if (input.length == 0) {
+            return (List<E>) ListN.EMPTY_LIST;
+        }
+        return new ListN<>((E[]) input, true);
+    }
+
+    private static <E> List<E> listFromTrustedArray(final Object... input) {
+        for (Object o : input) {
+            Objects.requireNonNull(o);
+        }
+        return new ListN<>((E[]) input, false);
+    }
+
+    static UnsupportedOperationException uoe() {
+        return new UnsupportedOperationException();
+    }
+
+    static abstract class AbstractImmutableList<E> extends AbstractList<E> {
+
+        @Override
+        public boolean add(E e) {
+            throw uoe();
+        }
+
+        @Override
+        public void add(int index, E element) {
+            throw uoe();
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends E> c) {
+            throw uoe();
+        }
+
+        @Override
+        public boolean addAll(int index, Collection<? extends E> c) {
+            throw uoe();
+        }
+
+        @Override
+        public void clear() {
+            throw uoe();
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            throw uoe();
+        }
+
+        @Override
+        public E remove(int index) {
+            throw uoe();
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            throw uoe();
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super E> filter) {
+            throw uoe();
+        }
+
+        @Override
+        public void replaceAll(UnaryOperator<E> operator) {
+            throw uoe();
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            throw uoe();
+        }
+
+        @Override
+        public E set(int index, E element) {
+            throw uoe();
+        }
+
+        @Override
+        public void sort(Comparator<? super E> c) {
+            throw uoe();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return this.indexOf(o) >= 0;
+        }
+
+        @Override
+        public List<E> subList(int fromIndex, int toIndex) {
+            subListRangeCheck(fromIndex, toIndex, this.size());
+            return new SubList<>(this, fromIndex, toIndex - fromIndex);
+        }
+
+        IndexOutOfBoundsException outOfBounds(final int index) {
+            return new IndexOutOfBoundsException("Index: " + index + " Size: " + this.size());
+        }
+
+        boolean allowNulls() {
+            return false;
+        }
+
+    }
+
+    static void subListRangeCheck(final int fromIndex, final int toIndex, final int size) {
+        if (fromIndex < 0) {
+            throw new IndexOutOfBoundsException("fromIndex = " + fromIndex);
+        }
+        if (toIndex > size) {
+            throw new IndexOutOfBoundsException("toIndex = " + toIndex);
+        }
+        if (fromIndex > toIndex) {
+            throw new IllegalArgumentException("fromIndex(" + fromIndex + ") > toIndex(" + toIndex + ")");
+        }
+    }
+
+    /**
+     * An immutable view of a range of an immutable list, which rejects nulls like the list it was created from.
+     */
+    static final class SubList<E> extends AbstractImmutableList<E> implements RandomAccess {
+
+        private final AbstractImmutableList<E> root;
+        private final int offset;
+        private final int size;
+
+        SubList(final AbstractImmutableList<E> root, final int offset, final int size) {
+            this.root = root;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return this.size;
+        }
+
+        @Override
+        public E get(int index) {
+            if (index < 0 || index >= this.size) {
+                throw this.outOfBounds(index);
+            }
+            return this.root.get(this.offset + index);
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            if (!this.allowNulls() && o == null) {
+                throw new NullPointerException();
+            }
+            for (int i = 0; i < this.size; i++) {
+                if (Objects.equals(o, this.root.get(this.offset + i))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int lastIndexOf(Object o) {
+            if (!this.allowNulls() && o == null) {
+                throw new NullPointerException();
+            }
+            for (int i = this.size - 1; i >= 0; i--) {
+                if (Objects.equals(o, this.root.get(this.offset + i))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public List<E> subList(int fromIndex, int toIndex) {
+            subListRangeCheck(fromIndex, toIndex, this.size);
+            return new SubList<>(this.root, this.offset + fromIndex, toIndex - fromIndex);
+        }
+
+        @Override
+        boolean allowNulls() {
+            return this.root.allowNulls();
+        }
+
+    }
+
+    static final class List12<E> extends AbstractImmutableList<E> implements RandomAccess, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final E e0;
+        private final E e1; // null if the list only has one element
+
+        List12(final E e0) {
+            this.e0 = Objects.requireNonNull(e0);
+            this.e1 = null;
+        }
+
+        List12(final E e0, final E e1) {
+            this.e0 = Objects.requireNonNull(e0);
+            this.e1 = Objects.requireNonNull(e1);
+        }
+
+        @Override
+        public int size() {
+            return this.e1 != null ? 2 : 1;
+        }
+
+        @Override
+        public E get(int index) {
+            if (index == 0) {
+                return this.e0;
+            } else if (index == 1 && this.e1 != null) {
+                return this.e1;
+            }
+            throw this.outOfBounds(index);
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            Objects.requireNonNull(o);
+            if (o.equals(this.e0)) {
+                return 0;
+            } else if (this.e1 != null && o.equals(this.e1)) {
+                return 1;
+            }
+            return -1;
+        }
+
+        @Override
+        public int lastIndexOf(Object o) {
+            Objects.requireNonNull(o);
+            if (this.e1 != null && o.equals(this.e1)) {
+                return 1;
+            } else if (o.equals(this.e0)) {
+                return 0;
+            }
+            return -1;
+        }
+
+        @Override
+        public Object[] toArray() {
+            return this.e1 != null ? new Object[]{this.e0, this.e1} : new Object[]{this.e0};
+        }
+
+    }
+
+    static final class ListN<E> extends AbstractImmutableList<E> implements RandomAccess, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        static final ListN<?> EMPTY_LIST = new ListN<>(new Object[0], false);
+
+        private final E[] elements;
+        private final boolean allowNulls;
+
+        ListN(final E[] elements, final boolean allowNulls) {
+            this.elements = elements;
+            this.allowNulls = allowNulls;
+        }
+
+        @Override
+        public int size() {
+            return this.elements.length;
+        }
+
+        @Override
+        public E get(int index) {
+            return this.elements[index];
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            if (!this.allowNulls && o == null) {
+                throw new NullPointerException();
+            }
+            for (int i = 0; i < this.elements.length; i++) {
+                if (Objects.equals(o, this.elements[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int lastIndexOf(Object o) {
+            if (!this.allowNulls && o == null) {
+                throw new NullPointerException();
+            }
+            for (int i = this.elements.length - 1; i >= 0; i--) {
+                if (Objects.equals(o, this.elements[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public Object[] toArray() {
+            return Arrays.copyOf(this.elements, this.elements.length, Object[].class);
+        }
+
+        @Override
+        boolean allowNulls() {
+            return this.allowNulls;
+        }
+
+    }
+
+    static abstract class AbstractImmutableSet<E> extends AbstractSet<E> {
+
+        @Override
+        public boolean add(E e) {
+            throw uoe();
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends E> c) {
+            throw uoe();
+        }
+
+        @Override
+        public void clear() {
+            throw uoe();
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            throw uoe();
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            throw uoe();
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super E> filter) {
+            throw uoe();
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            throw uoe();
+        }
+
+    }
+
+    static final class Set12<E> extends AbstractImmutableSet<E> implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final E e0;
+        final E e1; // null if the set only has one element
+
+        Set12(final E e0) {
+            this.e0 = Objects.requireNonNull(e0);
+            this.e1 = null;
+        }
+
+        Set12(final E e0, final E e1) {
+            if (e0.equals(Objects.requireNonNull(e1))) {
+                throw new IllegalArgumentException("duplicate element: " + e0);
+            }
+            this.e0 = e0;
+            this.e1 = e1;
+        }
+
+        @Override
+        public int size() {
+            return this.e1 != null ? 2 : 1;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o.equals(this.e0) || (this.e1 != null && o.equals(this.e1));
+        }
+
+        @Override
+        public int hashCode() {
+            return this.e0.hashCode() + (this.e1 != null ? this.e1.hashCode() : 0);
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new Set12Iterator<>(this);
+        }
+
+    }
+
+    static final class Set12Iterator<E> implements Iterator<E> {
+
+        private final Set12<E> set;
+        private int index;
+
+        Set12Iterator(final Set12<E> set) {
+            this.set = set;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.index < this.set.size();
+        }
+
+        @Override
+        public E next() {
+            if (this.index == 0) {
+                this.index = 1;
+                return this.set.e0;
+            } else if (this.index == 1 && this.set.e1 != null) {
+                this.index = 2;
+                return this.set.e1;
+            }
+            throw new NoSuchElementException();
+        }
+
+    }
+
+    /**
+     * An open addressing hash set with linear probing.
+     */
+    static final class SetN<E> extends AbstractImmutableSet<E> implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        static final SetN<?> EMPTY_SET = new SetN<>();
+
+        final E[] elements;
+        final int size;
+
+        SetN(final E... input) {
+            this.size = input.length;
+            this.elements = (E[]) new Object[EXPAND_FACTOR * input.length];
+            for (E e : input) {
+                final int index = this.probe(e);
+                if (index >= 0) {
+                    throw new IllegalArgumentException("duplicate element: " + e);
+                }
+                this.elements[-(index + 1)] = e;
+            }
+        }
+
+        @Override
+        public int size() {
+            return this.size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            Objects.requireNonNull(o);
+            return this.size > 0 && this.probe(o) >= 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 0;
+            for (E e : this.elements) {
+                if (e != null) {
+                    hash += e.hashCode();
+                }
+            }
+            return hash;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new SetNIterator<>(this);
+        }
+
+        /**
+         * @return The index of the element if it is present, otherwise -(insertion point) - 1
+         */
+        private int probe(final Object o) {
+            int index = Math.floorMod(o.hashCode(), this.elements.length);
+            while (true) {
+                final E e = this.elements[index];
+                if (e == null) {
+                    return -index - 1;
+                } else if (o.equals(e)) {
+                    return index;
+                } else if (++index == this.elements.length) {
+                    index = 0;
+                }
+            }
+        }
+
+    }
+
+    static final class SetNIterator<E> implements Iterator<E> {
+
+        private final E[] elements;
+        private int remaining;
+        private int index;
+
+        SetNIterator(final SetN<E> set) {
+            this.elements = set.elements;
+            this.remaining = set.size;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.remaining > 0;
+        }
+
+        @Override
+        public E next() {
+            if (this.remaining <= 0) {
+                throw new NoSuchElementException();
+            }
+            while (this.elements[this.index] == null) {
+                this.index++;
+            }
+            this.remaining--;
+            return this.elements[this.index++];
+        }
+
+    }
+
+    static abstract class AbstractImmutableMap<K, V> extends AbstractMap<K, V> {
+
+        @Override
+        public void clear() {
+            throw uoe();
+        }
+
+        @Override
+        public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+            throw uoe();
+        }
+
+        @Override
+        public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+            throw uoe();
+        }
+
+        @Override
+        public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+            throw uoe();
+        }
+
+        @Override
+        public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+            throw uoe();
+        }
+
+        @Override
+        public V put(K key, V value) {
+            throw uoe();
+        }
+
+        @Override
+        public void putAll(Map<? extends K, ? extends V> m) {
+            throw uoe();
+        }
+
+        @Override
+        public V putIfAbsent(K key, V value) {
+            throw uoe();
+        }
+
+        @Override
+        public V remove(Object key) {
+            throw uoe();
+        }
+
+        @Override
+        public boolean remove(Object key, Object value) {
+            throw uoe();
+        }
+
+        @Override
+        public V replace(K key, V value) {
+            throw uoe();
+        }
+
+        @Override
+        public boolean replace(K key, V oldValue, V newValue) {
+            throw uoe();
+        }
+
+        @Override
+        public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+            throw uoe();
+        }
+
+        @Override
+        public V getOrDefault(Object key, V defaultValue) {
+            final V value = this.get(key);
+            return value != null ? value : defaultValue;
+        }
+
+    }
+
+    static final class Map1<K, V> extends AbstractImmutableMap<K, V> implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final K k0;
+        private final V v0;
+
+        Map1(final K k0, final V v0) {
+            this.k0 = Objects.requireNonNull(k0);
+            this.v0 = Objects.requireNonNull(v0);
+        }
+
+        @Override
+        public int size() {
+            return 1;
+        }
+
+        @Override
+        public V get(Object key) {
+            return key.equals(this.k0) ? this.v0 : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key.equals(this.k0);
+        }
+
+        @Override
+        public boolean containsValue(Object value) {
+            return value.equals(this.v0);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.k0.hashCode() ^ this.v0.hashCode();
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            return new Set12<>(new AbstractMap.SimpleImmutableEntry<>(this.k0, this.v0));
+        }
+
+    }
+
+    /**
+     * An open addressing hash map with linear probing. Keys and values are interleaved in one table.
+     */
+    static final class MapN<K, V> extends AbstractImmutableMap<K, V> implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        static final MapN<?, ?> EMPTY_MAP = new MapN<>();
+
+        final Object[] table;
+        final int size;
+
+        MapN(final Object... input) {
+            if ((input.length & 1) != 0) {
+                throw new IllegalArgumentException("Odd number of keys and values");
+            }
+            this.size = input.length >> 1;
+            this.table = new Object[EXPAND_FACTOR * input.length];
+            for (int i = 0; i < input.length; i += 2) {
+                final Object k = Objects.requireNonNull(input[i]);
+                final Object v = Objects.requireNonNull(input[i + 1]);
+                final int index = this.probe(k);
+                if (index >= 0) {
+                    throw new IllegalArgumentException("duplicate key: " + k);
+                }
+                final int dest = -(index + 1);
+                this.table[dest] = k;
+                this.table[dest + 1] = v;
+            }
+        }
+
+        @Override
+        public int size() {
+            return this.size;
+        }
+
+        @Override
+        public V get(Object key) {
+            if (this.size == 0) {
+                Objects.requireNonNull(key);
+                return null;
+            }
+            final int index = this.probe(key);
+            return index >= 0 ? (V) this.table[index + 1] : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            Objects.requireNonNull(key);
+            return this.size > 0 && this.probe(key) >= 0;
+        }
+
+        @Override
+        public boolean containsValue(Object value) {
+            Objects.requireNonNull(value);
+            for (int i = 1; i < this.table.length; i += 2) {
+                final Object v = this.table[i];
+                if (v != null && value.equals(v)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 0;
+            for (int i = 0; i < this.table.length; i += 2) {
+                final Object k = this.table[i];
+                if (k != null) {
+                    hash += k.hashCode() ^ this.table[i + 1].hashCode();
+                }
+            }
+            return hash;
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            return new MapNEntrySet<>(this);
+        }
+
+        /**
+         * @return The index of the key if it is present, otherwise -(insertion point) - 1
+         */
+        private int probe(final Object key) {
+            int index = Math.floorMod(key.hashCode(), this.table.length >> 1) << 1;
+            while (true) {
+                final Object k = this.table[index];
+                if (k == null) {
+                    return -index - 1;
+                } else if (key.equals(k)) {
+                    return index;
+                } else if ((index += 2) == this.table.length) {
+                    index = 0;
+                }
+            }
+        }
+
+    }
+
+    static final class MapNEntrySet<K, V> extends AbstractImmutableSet<Map.Entry<K, V>> {
+
+        private final MapN<K, V> map;
+
+        MapNEntrySet(final MapN<K, V> map) {
+            this.map = map;
+        }
+
+        @Override
+        public int size() {
+            return this.map.size;
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new MapNEntryIterator<>(this.map);
+        }
+
+    }
+
+    static final class MapNEntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+
+        private final Object[] table;
+        private int remaining;
+        private int index;
+
+        MapNEntryIterator(final MapN<K, V> map) {
+            this.table = map.table;
+            this.remaining = map.size;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.remaining > 0;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (this.remaining <= 0) {
+                throw new NoSuchElementException();
+            }
+            while (this.table[this.index] == null) {
+                this.index += 2;
+            }
+            final Map.Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<>((K) this.table[this.index], (V) this.table[this.index + 1]);
+            this.index += 2;
+            this.remaining--;
+            return entry;
+        }
+
+    }
+
+}
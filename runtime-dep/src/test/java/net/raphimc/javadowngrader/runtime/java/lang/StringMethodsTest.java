@@ -0,0 +1,81 @@
+/*
+ * MIT License
+ *
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.raphimc.javadowngrader.runtime.java.lang;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StringMethodsTest {
+
+    /**
+     * Includes whitespace {@link String#trim()} doesn't strip (EM SPACE, LINE SEPARATOR, IDEOGRAPHIC SPACE), control
+     * characters it strips which aren't whitespace and the NO-BREAK SPACE which is no whitespace at all.
+     */
+    private static final String[] STRINGS = {
+            "", " ", "a", " a ", "\t\n a b \r\f", "\u2003a\u2028", "\u00A0a\u00A0", "\u001Fa\u001C", "\u0000a\u0000", "\u3000 \u2003"
+    };
+
+    @Test
+    void behavesLikeJava11() {
+        for (String s : STRINGS) {
+            assertEquals(s.substring(start(s), Math.max(start(s), end(s))), StringMethods.strip(s), s);
+            assertEquals(s.substring(start(s)), StringMethods.stripLeading(s), s);
+            assertEquals(s.substring(0, end(s)), StringMethods.stripTrailing(s), s);
+            assertEquals(start(s) == s.length(), StringMethods.isBlank(s), s);
+        }
+    }
+
+    @Test
+    void unchangedStringsAreReturnedAsTheyAre() {
+        final String s = "a b";
+        assertSame(s, StringMethods.strip(s));
+        assertSame(s, StringMethods.stripLeading(s));
+        assertSame(s, StringMethods.stripTrailing(s));
+    }
+
+    /**
+     * The first index which isn't whitespace, as defined by the Java 11 {@code String.strip} documentation.
+     */
+    private static int start(final String s) {
+        int start = 0;
+        while (start < s.length() && Character.isWhitespace(s.codePointAt(start))) {
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * The index after the last character which isn't whitespace.
+     */
+    private static int end(final String s) {
+        int end = s.length();
+        while (end > 0 && Character.isWhitespace(s.codePointAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * MIT License
+ *
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.raphimc.javadowngrader.runtime.java.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImmutableCollectionsTest {
+
+    @Test
+    void listsBehaveLikeArrayLists() {
+        for (int size = 0; size <= 12; size++) {
+            final Integer[] elements = elements(size);
+            final List<Integer> list = ImmutableCollections.listOf(elements);
+            final List<Integer> expected = Arrays.asList(elements);
+            assertEquals(expected, list);
+            assertEquals(list, expected);
+            assertEquals(expected.hashCode(), list.hashCode());
+            assertEquals(expected.toString(), list.toString());
+            assertFalse(list.contains(size));
+            if (size > 0) {
+                assertEquals(size - 1, list.indexOf(size - 1));
+                assertEquals(expected.subList(1, size), list.subList(1, size));
+                assertThrows(IndexOutOfBoundsException.class, () -> list.get(elements.length));
+            }
+            assertImmutable(list);
+            assertImmutable(list.subList(0, size));
+            assertThrows(NullPointerException.class, () -> list.contains(null));
+            assertThrows(NullPointerException.class, () -> list.subList(0, list.size()).indexOf(null));
+        }
+        assertEquals(Arrays.asList(0, 1, 2), ImmutableCollections.listOf(0, 1, 2));
+        assertThrows(NullPointerException.class, () -> ImmutableCollections.listOf(0, null));
+        assertThrows(NullPointerException.class, () -> ImmutableCollections.listOf(0, 1, null));
+        assertThrows(NullPointerException.class, () -> ImmutableCollections.listOf(new Integer[]{0, 1, 2, null}));
+    }
+
+    @Test
+    void listsOwnTheirElements() {
+        final Integer[] elements = elements(5);
+        final List<Integer> list = ImmutableCollections.listOf(elements);
+        elements[0] = 42;
+        assertEquals(0, list.get(0));
+        assertSame(list, ImmutableCollections.listCopyOf(list));
+        assertEquals(Arrays.asList(0, 1), ImmutableCollections.listCopyOf(new ArrayList<>(Arrays.asList(0, 1))));
+        assertThrows(NullPointerException.class, () -> ImmutableCollections.listCopyOf(Arrays.asList(0, null)));
+    }
+
+    @Test
+    void streamListsAllowNulls() {
+        final List<Integer> list = ImmutableCollections.listFromTrustedArrayNullsAllowed(new Object[]{0, null, 2});
+        assertEquals(Arrays.asList(0, null, 2), list);
+        assertTrue(list.contains(null));
+        assertEquals(1, list.indexOf(null));
+        assertImmutable(list);
+        assertNotSame(list, ImmutableCollections.listCopyOf(list.subList(0, 1)));
+        assertThrows(NullPointerException.class, () -> ImmutableCollections.listCopyOf(list));
+    }
+
+    @Test
+    void setsBehaveLikeHashSets() {
+        for (int size = 0; size <= 12; size++) {
+            final Integer[] elements = elements(size);
+            final Set<Integer> set = ImmutableCollections.setOf(elements);
+            final Set<Integer> expected = new HashSet<>(Arrays.asList(elements));
+            assertEquals(expected, set);
+            assertEquals(set, expected);
+            assertEquals(expected.hashCode(), set.hashCode());
+            assertEquals(size, set.size());
+            for (Integer element : elements) {
+                assertTrue(set.contains(element));
+            }
+            assertFalse(set.contains(size));
+            final Set<Integer> iterated = new HashSet<>();
+            for (Integer element : set) {
+                assertTrue(iterated.add(element));
+            }
+            assertEquals(expected, iterated);
+            assertImmutable(set);
+            assertThrows(NullPointerException.class, () -> set.contains(null));
+        }
+        assertThrows(IllegalArgumentException.class, () -> ImmutableCollections.setOf(0, 0));
+        assertThrows(IllegalArgumentException.class, () -> ImmutableCollections.setOf(0, 1, 0));
+        assertThrows(NullPointerException.class, () -> ImmutableCollections.setOf((Integer) null));
+        assertThrows(NullPointerException.class, () -> ImmutableCollections.setOf(0, 1, null));
+        assertEquals(new HashSet<>(Arrays.asList(0, 1)), ImmutableCollections.setCopyOf(Arrays.asList(0, 1, 0)));
+        assertThrows(NullPointerException.class, () -> ImmutableCollections.setCopyOf(Arrays.asList(0, null)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void mapsBehaveLikeHashMaps() {
+        for (int size = 0; size <= 12; size++) {
+            final Map<Integer, String> expected = new HashMap<>();
+            final List<Map.Entry<Integer, String>> entries = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                expected.put(i, "v" + i);
+                entries.add(new AbstractMap.SimpleEntry<>(i, "v" + i));
+            }
+            final Map<Integer, String> map = ImmutableCollections.mapOfEntries(entries.toArray(new Map.Entry[0]));
+            assertEquals(expected, map);
+            assertEquals(map, expected);
+            assertEquals(expected.hashCode(), map.hashCode());
+            assertEquals(expected.entrySet(), map.entrySet());
+            assertEquals(expected.keySet(), map.keySet());
+            assertEquals(new HashSet<>(expected.values()), new HashSet<>(map.values()));
+            assertNull(map.get(size));
+            assertEquals("default", map.getOrDefault(size, "default"));
+            assertFalse(map.containsValue("v" + size));
+            assertImmutable(map);
+            assertThrows(NullPointerException.class, () -> map.get(null));
+            assertThrows(NullPointerException.class, () -> map.containsKey(null));
+            assertThrows(NullPointerException.class, () -> map.containsValue(null));
+            assertSame(map, ImmutableCollections.mapCopyOf(map));
+            assertEquals(expected, ImmutableCollections.mapCopyOf(expected));
+        }
+        assertEquals(Collections.singletonMap(0, "a"), ImmutableCollections.mapOf(0, "a"));
+        assertEquals(3, ImmutableCollections.mapOf(0, "a", 1, "b", 2, "c").size());
+        assertThrows(IllegalArgumentException.class, () -> ImmutableCollections.mapOf(0, "a", 0, "b"));
+        assertThrows(IllegalArgumentException.class, () -> ImmutableCollections.mapOf(0, "a", 1, "b", 0, "c"));
+        assertThrows(NullPointerException.class, () -> ImmutableCollections.mapOf(null, "a"));
+        assertThrows(NullPointerException.class, () -> ImmutableCollections.mapOf(0, null));
+        assertThrows(NullPointerException.class, () -> ImmutableCollections.mapOf(0, "a", 1, null));
+    }
+
+    private static Integer[] elements(final int size) {
+        final Integer[] elements = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            elements[i] = i;
+        }
+        return elements;
+    }
+
+    private static void assertImmutable(final List<Integer> list) {
+        assertAllThrow(
+                () -> list.add(0),
+                () -> list.add(0, 0),
+                () -> list.addAll(Collections.emptyList()),
+                () -> list.remove((Object) 0),
+                () -> list.removeIf(e -> false),
+                () -> list.replaceAll(e -> e),
+                () -> list.sort(null),
+                () -> list.set(0, 0),
+                list::clear
+        );
+    }
+
+    private static void assertImmutable(final Set<Integer> set) {
+        assertAllThrow(
+                () -> set.add(0),
+                () -> set.addAll(Collections.emptyList()),
+                () -> set.remove(0),
+                () -> set.removeIf(e -> false),
+                () -> set.retainAll(Collections.emptyList()),
+                set::clear
+        );
+    }
+
+    private static void assertImmutable(final Map<Integer, String> map) {
+        assertAllThrow(
+                () -> map.put(0, "a"),
+                () -> map.putIfAbsent(0, "a"),
+                () -> map.putAll(Collections.emptyMap()),
+                () -> map.remove(0),
+                () -> map.replaceAll((k, v) -> v),
+                () -> map.computeIfAbsent(0, k -> "a"),
+                () -> map.merge(0, "a", (a, b) -> a),
+                () -> map.entrySet().clear(),
+                map::clear
+        );
+    }
+
+    private static void assertAllThrow(final Executable... mutators) {
+        for (Executable mutator : mutators) {
+            assertThrows(UnsupportedOperationException.class, mutator);
+        }
+    }
+
+}
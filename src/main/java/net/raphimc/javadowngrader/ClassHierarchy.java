@@ -0,0 +1,41 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader;
+
+import java.util.Collection;
+
+/**
+ * This is called with the internal name of a class to get the internal names of its direct super types (super class
+ * and interfaces). It is used to find interfaces which a class only implements indirectly.<br>
+ * Returns null if the class is unknown.
+ */
+@FunctionalInterface
+public interface ClassHierarchy {
+    ClassHierarchy NONE = c -> null;
+
+    Collection<String> getSuperTypes(final String className);
+
+    /**
+     * Checks if the given class declares a method with the given name and descriptor. Super types which declare a method
+     * already provide it to their subclasses, so it doesn't have to be inserted there.<br>
+     * Returns false if the class is unknown.
+     */
+    default boolean declaresMethod(final String className, final String name, final String descriptor) {
+        return false;
+    }
+}
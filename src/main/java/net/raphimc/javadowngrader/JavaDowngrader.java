@@ -17,6 +17,7 @@
  */
 package net.raphimc.javadowngrader;
 
+import net.raphimc.javadowngrader.transformer.DowngradePlan;
 import net.raphimc.javadowngrader.transformer.DowngradeResult;
 import net.raphimc.javadowngrader.transformer.DowngradingTransformer;
 import net.raphimc.javadowngrader.transformer.j10.Java11ToJava10;
@@ -33,14 +34,18 @@ import net.raphimc.javadowngrader.transformer.j20.Java21ToJava20;
 import net.raphimc.javadowngrader.transformer.j21.Java22ToJava21;
 import net.raphimc.javadowngrader.transformer.j8.Java9ToJava8;
 import net.raphimc.javadowngrader.transformer.j9.Java10ToJava9;
+import net.raphimc.javadowngrader.util.JfrEvent;
 import org.objectweb.asm.tree.ClassNode;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class JavaDowngrader {
 
     private static final List<DowngradingTransformer> TRANSFORMER = new ArrayList<>();
+    private static final Map<Integer, DowngradePlan> PLANS = new ConcurrentHashMap<>();
 
     static {
         TRANSFORMER.add(new Java22ToJava21());
@@ -83,13 +88,30 @@ public class JavaDowngrader {
      * @see RuntimeDepCollector
      */
     public static DowngradeResult downgrade(final ClassNode classNode, final int targetVersion, final RuntimeDepCollector depCollector) {
+        final Object event = JfrEvent.CLASS_DOWNGRADE.begin();
         final DowngradeResult result = new DowngradeResult();
-        for (DowngradingTransformer transformer : TRANSFORMER) {
-            if (transformer.getTargetVersion() >= targetVersion && (classNode.version & 0xFF) > transformer.getTargetVersion()) {
-                transformer.transform(classNode, depCollector, result);
-            }
-        }
+        getPlan(classNode.version & 0xFF, targetVersion).transform(classNode, depCollector, result);
+        JfrEvent.CLASS_DOWNGRADE.commit(event, classNode.name, 0, result.getTransformerCount());
         return result;
     }
 
+    /**
+     * Gets the compiled {@link DowngradePlan} which downgrades classes of the given version to the target version
+     *
+     * @param classVersion  The major version of the input classes
+     * @param targetVersion The target Java version
+     * @return The cached {@link DowngradePlan}
+     */
+    public static DowngradePlan getPlan(final int classVersion, final int targetVersion) {
+        return PLANS.computeIfAbsent(classVersion << 16 | targetVersion, k -> {
+            final List<DowngradingTransformer> transformers = new ArrayList<>();
+            for (DowngradingTransformer transformer : TRANSFORMER) {
+                if (transformer.getTargetVersion() >= targetVersion && classVersion > transformer.getTargetVersion()) {
+                    transformers.add(transformer);
+                }
+            }
+            return new DowngradePlan(transformers);
+        });
+    }
+
 }
@@ -25,4 +25,36 @@ import java.util.function.Consumer;
 @FunctionalInterface
 public interface RuntimeDepCollector extends Consumer<String> {
     RuntimeDepCollector NULL = c -> {};
+
+    /**
+     * Wraps the given collector so helper methods are called from shared runtime classes.
+     *
+     * @param collector The collector to pass the runtime dependencies to
+     * @return A collector which uses shared helper methods
+     * @see #useSharedHelpers()
+     */
+    static RuntimeDepCollector withSharedHelpers(final Consumer<String> collector) {
+        return new RuntimeDepCollector() {
+            @Override
+            public void accept(String s) {
+                collector.accept(s);
+            }
+
+            @Override
+            public boolean useSharedHelpers() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Helper methods like {@code InputStream.transferTo} are copied into every class which needs them by default.<br>
+     * If this returns true, they are called from the runtime classes instead, so only one copy has to be loaded and
+     * compiled. The collected runtime classes then have to be shipped with the downgraded classes.
+     *
+     * @return If helper methods should be called from the shared runtime classes
+     */
+    default boolean useSharedHelpers() {
+        return false;
+    }
 }
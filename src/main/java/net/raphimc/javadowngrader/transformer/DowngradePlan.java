@@ -0,0 +1,899 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.transformer;
+
+import net.raphimc.javadowngrader.ClassHierarchy;
+import net.raphimc.javadowngrader.RuntimeDepCollector;
+import net.raphimc.javadowngrader.util.ASMUtil;
+import net.raphimc.javadowngrader.util.ConstantPoolScan;
+import net.raphimc.javadowngrader.util.Constants;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.tree.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A compiled chain of {@link DowngradingTransformer}s.<br>
+ * The method call replacers, method inserters and class replacements of all transformers are merged into one dispatch
+ * table, so every method body only has to be walked once regardless of how many transformers are applied.<br>
+ * Instructions emitted by a replacer are only matched against the transformers that come after the one which emitted
+ * them, which gives the same result as running the transformers one after another.<br>
+ * The pre and post transform hooks have to see the class as the transformers before them left it, so the transformers
+ * are only fused between the hooks which have to run for a class. The class replacements of all transformers are
+ * applied once at the end.
+ */
+public class DowngradePlan {
+
+    private static final String HELPER_PREFIX = "javadowngrader-";
+    private static final String BRIDGE_PREFIX = HELPER_PREFIX + "bridge$";
+
+    private final DowngradingTransformer[] stages;
+    private final String[] stageNames;
+    /**
+     * owner -> name -> replacers. A miss on the owner level rejects the call without looking at its name or descriptor.
+     */
+    private final Map<String, Map<String, ReplacedMethod>> methodCallReplacers = new HashMap<>();
+    /**
+     * interface -> inserters, in stage order.
+     */
+    private final Map<String, List<StagedInserter>> methodInserters;
+    /**
+     * hierarchy -> type -> interfaces with inserters the type implements. Most classes share their super types, so the
+     * hierarchy only has to be walked once per type instead of once per class.
+     */
+    private final Map<ClassHierarchy, Map<String, Set<String>>> inserterOwners = Collections.synchronizedMap(new WeakHashMap<>());
+    private final List<Map<String, StagedClassReplacement>> classReplacements;
+    private final boolean hasClassReplacements;
+
+    /**
+     * @param transformers The transformers to apply, ordered from the highest to the lowest version
+     */
+    public DowngradePlan(final List<DowngradingTransformer> transformers) {
+        this.stages = transformers.toArray(new DowngradingTransformer[0]);
+        this.stageNames = new String[this.stages.length];
+        final List<Map<String, StagedClassReplacement>> classReplacements = new ArrayList<>(this.stages.length);
+
+        final Map<String, List<StagedInserter>> methodInserters = new HashMap<>();
+        int inserterIndex = 0;
+        boolean hasClassReplacements = false;
+        for (int stage = 0; stage < this.stages.length; stage++) {
+            final DowngradingTransformer transformer = this.stages[stage];
+            if (stage > 0 && transformer.getSourceVersion() != this.stages[stage - 1].getTargetVersion()) {
+                throw new IllegalArgumentException("Transformers must form a continuous version chain");
+            }
+            this.stageNames[stage] = transformer.getClass().getSimpleName();
+
+            for (Map.Entry<String, MethodCallReplacer> entry : transformer.getMethodCallReplacers().entrySet()) {
+                final String key = entry.getKey();
+                final int nameStart = key.indexOf('.') + 1;
+                final int descStart = key.indexOf('(', nameStart);
+                final String owner = key.substring(0, nameStart - 1);
+                final String name = descStart != -1 ? key.substring(nameStart, descStart) : key.substring(nameStart);
+
+                final ReplacedMethod method = this.methodCallReplacers.computeIfAbsent(owner, k -> new HashMap<>()).computeIfAbsent(name, k -> new ReplacedMethod());
+                final PlannedReplacer replacer = new PlannedReplacer(stage, this.stageNames[stage] + ' ' + key, entry.getValue());
+                if (descStart != -1) {
+                    method.descriptors.computeIfAbsent(key.substring(descStart), k -> new StagedReplacer()).add(replacer);
+                } else {
+                    if (method.wildcard == null) method.wildcard = new StagedReplacer();
+                    method.wildcard.add(replacer);
+                }
+            }
+            for (Map.Entry<String, MethodInserter> entry : transformer.getMethodInserters().entrySet()) {
+                final StagedInserter inserter = new StagedInserter(inserterIndex++, stage, this.stageNames[stage] + ' ' + entry.getKey(), entry.getKey(), entry.getValue());
+                methodInserters.computeIfAbsent(inserter.owner, k -> new ArrayList<>()).add(inserter);
+            }
+            final Map<String, StagedClassReplacement> stageReplacements = new HashMap<>();
+            for (Map.Entry<String, DowngradingTransformer.ClassReplacement> entry : transformer.getClassReplacements().entrySet()) {
+                stageReplacements.put(entry.getKey(), new StagedClassReplacement(this.stageNames[stage] + ' ' + entry.getKey(), entry.getValue()));
+            }
+            classReplacements.add(stageReplacements);
+            hasClassReplacements |= !stageReplacements.isEmpty();
+        }
+        for (Map.Entry<String, List<StagedInserter>> entry : methodInserters.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        this.methodInserters = Collections.unmodifiableMap(methodInserters);
+        this.classReplacements = Collections.unmodifiableList(classReplacements);
+        this.hasClassReplacements = hasClassReplacements;
+    }
+
+    /**
+     * @return The class version of the classes produced by this plan
+     */
+    public int getTargetVersion() {
+        if (this.stages.length == 0) {
+            throw new IllegalStateException("Empty plan has no target version");
+        }
+        return this.stages[this.stages.length - 1].getTargetVersion();
+    }
+
+    /**
+     * Checks if the scanned class has to be fully transformed by this plan.<br>
+     * If this returns false, none of the replacers, inserters, class replacements or hooks would modify the class, and
+     * {@link #downgradeVersion(byte[])} produces the same result as {@link #transform} without building a tree.
+     *
+     * @param scan The constant pool scan of the class
+     * @return If the class has to be transformed
+     */
+    public boolean requiresTransformation(final ConstantPoolScan scan) {
+        return this.requiresTransformation(scan, ClassHierarchy.NONE);
+    }
+
+    /**
+     * Checks if the scanned class has to be fully transformed by this plan.
+     *
+     * @param scan      The constant pool scan of the class
+     * @param hierarchy The class hierarchy used to find indirectly implemented interfaces
+     * @return If the class has to be transformed
+     * @see #requiresTransformation(ConstantPoolScan)
+     */
+    public boolean requiresTransformation(final ConstantPoolScan scan, final ClassHierarchy hierarchy) {
+        if (this.stages.length == 0) {
+            return false;
+        }
+        for (DowngradingTransformer stage : this.stages) {
+            if (stage.requiresHooks(scan)) return true;
+        }
+        for (Map.Entry<String, Map<String, ReplacedMethod>> entry : this.methodCallReplacers.entrySet()) {
+            if (!scan.hasUtf8(entry.getKey())) continue;
+            for (String name : entry.getValue().keySet()) {
+                if (scan.hasUtf8(name)) return true;
+            }
+        }
+        if (!this.findInserters(scan.getSuperName(), scan.getInterfaces(), hierarchy).isEmpty()) {
+            return true;
+        }
+        return this.referencesReplacedClasses(scan);
+    }
+
+    /**
+     * Checks if the scanned class references any class which is replaced by this plan.<br>
+     * If this returns false, only code emitted by the method call replacers and inserters has to be remapped.
+     *
+     * @param scan The constant pool scan of the class
+     * @return If the class references replaced classes
+     */
+    public boolean referencesReplacedClasses(final ConstantPoolScan scan) {
+        if (!this.hasClassReplacements) {
+            return false;
+        }
+        for (Map<String, StagedClassReplacement> replacements : this.classReplacements) {
+            for (String name : replacements.keySet()) {
+                if (scan.referencesClass(name)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the scanned class can be transformed by the {@link DowngradingClassVisitor streaming engine}.<br>
+     * Classes which require whole-class rewrites (records, inserted interface methods, ...) have to use {@link #transform}.
+     *
+     * @param scan The constant pool scan of the class
+     * @return If the class can be transformed while streaming
+     */
+    public boolean canStream(final ConstantPoolScan scan) {
+        return this.canStream(scan, ClassHierarchy.NONE);
+    }
+
+    /**
+     * Checks if the scanned class can be transformed by the {@link DowngradingClassVisitor streaming engine}.
+     *
+     * @param scan      The constant pool scan of the class
+     * @param hierarchy The class hierarchy used to find indirectly implemented interfaces
+     * @return If the class can be transformed while streaming
+     * @see #canStream(ConstantPoolScan)
+     */
+    public boolean canStream(final ConstantPoolScan scan, final ClassHierarchy hierarchy) {
+        for (DowngradingTransformer stage : this.stages) {
+            if (stage.hooksRequireTree(scan)) return false;
+        }
+        if (!this.findInserters(scan.getSuperName(), scan.getInterfaces(), hierarchy).isEmpty()) {
+            return false;
+        }
+        // Helper methods are only looked up in the methods added while streaming
+        return !scan.hasUtf8StartingWith(HELPER_PREFIX);
+    }
+
+    /**
+     * Lowers the version of the given class file to the target version of this plan without touching anything else.
+     *
+     * @param bytecode The class file
+     * @return A copy of the class file with the version set to {@link #getTargetVersion()}
+     */
+    public byte[] downgradeVersion(final byte[] bytecode) {
+        final int targetVersion = this.getTargetVersion();
+        if (((bytecode[6] & 0xFF) << 8 | (bytecode[7] & 0xFF)) > this.stages[0].getSourceVersion()) {
+            throw new IllegalArgumentException("Input class version is higher than supported");
+        }
+        final byte[] downgraded = bytecode.clone();
+        downgraded[4] = (byte) (targetVersion >>> 24);
+        downgraded[5] = (byte) (targetVersion >>> 16);
+        downgraded[6] = (byte) (targetVersion >>> 8);
+        downgraded[7] = (byte) targetVersion;
+        return downgraded;
+    }
+
+    public void transform(final ClassNode classNode, final RuntimeDepCollector depCollector, final DowngradeResult result) {
+        this.transform(classNode, null, depCollector, result);
+    }
+
+    /**
+     * Transforms the given class in place.
+     *
+     * @param classNode    The class to transform
+     * @param scan         The constant pool scan of the untransformed class or null if not available. If given, the
+     *                     class replacements are only applied to the methods which were changed by replacers and inserters
+     *                     when the class doesn't {@link #referencesReplacedClasses reference any replaced class}
+     * @param depCollector The runtime dependency collector
+     * @param result       The result of the transformation
+     */
+    public void transform(final ClassNode classNode, final ConstantPoolScan scan, final RuntimeDepCollector depCollector, final DowngradeResult result) {
+        this.transform(classNode, scan, ClassHierarchy.NONE, depCollector, result);
+    }
+
+    /**
+     * Transforms the given class in place.
+     *
+     * @param classNode    The class to transform
+     * @param scan         The constant pool scan of the untransformed class or null if not available
+     * @param hierarchy    The class hierarchy used to find indirectly implemented interfaces which need method inserters
+     * @param depCollector The runtime dependency collector
+     * @param result       The result of the transformation
+     * @see #transform(ClassNode, ConstantPoolScan, RuntimeDepCollector, DowngradeResult)
+     */
+    public void transform(final ClassNode classNode, final ConstantPoolScan scan, final ClassHierarchy hierarchy, final RuntimeDepCollector depCollector, final DowngradeResult result) {
+        if (this.stages.length == 0) {
+            return;
+        }
+        if ((classNode.version & 0xFF) > this.stages[0].getSourceVersion()) {
+            throw new IllegalArgumentException("Input class version is higher than supported");
+        }
+
+        final TransformContext context = new TransformContext(classNode, depCollector, result, null);
+        final List<StagedInserter> inserters = this.findInserters(classNode.superName, classNode.interfaces, hierarchy);
+        final int firstModifyingStage = scan != null ? this.firstModifyingStage(scan, inserters) : 0;
+        // The hooks have to see the class as the stages before them left it, so the replacers and inserters are only
+        // fused between the hooks which have to run
+        int segmentStart = 0;
+        for (int i = 0; i < this.stages.length; i++) {
+            final DowngradingTransformer stage = this.stages[i];
+            if (stage.hasPreTransform() && (scan == null || firstModifyingStage < i || stage.requiresHooks(scan))) {
+                this.applySegment(context, inserters, segmentStart, i);
+                segmentStart = i;
+                final long start = context.nanoTime();
+                stage.preTransform(classNode, result);
+                context.stageNanos[i] += context.nanoTime() - start;
+            }
+            if (stage.hasPostTransform() && (scan == null || firstModifyingStage <= i || stage.requiresHooks(scan))) {
+                this.applySegment(context, inserters, segmentStart, i + 1);
+                segmentStart = i + 1;
+                final long start = context.nanoTime();
+                stage.postTransform(classNode, result);
+                context.stageNanos[i] += context.nanoTime() - start;
+            }
+        }
+        this.applySegment(context, inserters, segmentStart, this.stages.length);
+
+        if (this.hasClassReplacements) {
+            if (scan == null || this.referencesReplacedClasses(scan)) {
+                this.remapClass(classNode, depCollector, result);
+            } else if (!result.getModifiedMethods().isEmpty()) {
+                final PlanRemapper remapper = this.createRemapper(depCollector, result);
+                for (int i = 0; i < classNode.methods.size(); i++) {
+                    final MethodNode methodNode = classNode.methods.get(i);
+                    if (result.isModified(methodNode)) {
+                        classNode.methods.set(i, remapMethod(methodNode, remapper));
+                        result.markModified(classNode.methods.get(i));
+                    }
+                }
+            }
+        }
+
+        context.recordStats();
+
+        classNode.version = this.stages[this.stages.length - 1].getTargetVersion();
+    }
+
+    /**
+     * Applies the replacers and inserters of the given stages to all methods of the class.
+     */
+    private void applySegment(final TransformContext context, final List<StagedInserter> inserters, final int startStage, final int endStage) {
+        if (startStage == endStage) {
+            return;
+        }
+
+        final ClassNode classNode = context.classNode;
+        context.segmentEnd = endStage;
+        for (MethodNode methodNode : classNode.methods) {
+            context.queue.add(new QueuedMethod(methodNode, startStage));
+        }
+        context.drainQueue();
+
+        for (StagedInserter inserter : inserters) {
+            if (inserter.stage < startStage || inserter.stage >= endStage) continue;
+            if (ASMUtil.hasMethod(classNode, inserter.name, inserter.desc)) continue;
+
+            final MethodNode insertedMethod = new MethodNode(Opcodes.ACC_PUBLIC, inserter.name, inserter.desc, null, null);
+            final long start = context.nanoTime();
+            inserter.inserter.insert(classNode, insertedMethod, context.depCollector, context.result);
+            final long nanos = context.nanoTime() - start;
+            context.stageNanos[inserter.stage] += nanos;
+            context.result.recordReplacer(inserter.statsName, nanos);
+            classNode.methods.add(insertedMethod);
+            context.result.markModified(insertedMethod);
+            context.result.incrementTransformerCount();
+            context.queue.add(new QueuedMethod(insertedMethod, inserter.stage + 1));
+            context.drainQueue();
+        }
+    }
+
+    /**
+     * @return The first stage which might modify the scanned class, or the amount of stages if none of them does
+     */
+    private int firstModifyingStage(final ConstantPoolScan scan, final List<StagedInserter> inserters) {
+        // The inserters are sorted by stage
+        int first = inserters.isEmpty() ? this.stages.length : inserters.get(0).stage;
+        for (int i = 0; i < first; i++) {
+            if (this.stages[i].requiresHooks(scan)) {
+                first = i;
+                break;
+            }
+        }
+        for (Map.Entry<String, Map<String, ReplacedMethod>> entry : this.methodCallReplacers.entrySet()) {
+            if (!scan.hasUtf8(entry.getKey())) continue;
+            for (Map.Entry<String, ReplacedMethod> method : entry.getValue().entrySet()) {
+                if (scan.hasUtf8(method.getKey())) first = Math.min(first, method.getValue().firstStage());
+            }
+        }
+        return first;
+    }
+
+    private void remapClass(final ClassNode classNode, final RuntimeDepCollector depCollector, final DowngradeResult result) {
+        final PlanRemapper remapper = this.createRemapper(depCollector, result);
+        final List<MethodNode> methods = classNode.methods;
+        final ClassNode remapped = new ClassNode();
+        classNode.methods = Collections.emptyList();
+        classNode.accept(new ClassRemapper(remapped, remapper));
+
+        // Methods are remapped one by one to know which of them reference replaced classes and need new frames
+        remapped.methods = new ArrayList<>(methods.size());
+        for (MethodNode methodNode : methods) {
+            remapper.renamed = false;
+            final MethodNode remappedMethod = remapMethod(methodNode, remapper);
+            if (remapper.renamed || result.isModified(methodNode)) {
+                result.markModified(remappedMethod);
+            }
+            remapped.methods.add(remappedMethod);
+        }
+
+        // Modify the class inplace
+        classNode.version = remapped.version;
+        classNode.access = remapped.access;
+        classNode.name = remapped.name;
+        classNode.signature = remapped.signature;
+        classNode.superName = remapped.superName;
+        classNode.interfaces = remapped.interfaces;
+        classNode.sourceFile = remapped.sourceFile;
+        classNode.sourceDebug = remapped.sourceDebug;
+        classNode.module = remapped.module;
+        classNode.outerClass = remapped.outerClass;
+        classNode.outerMethod = remapped.outerMethod;
+        classNode.outerMethodDesc = remapped.outerMethodDesc;
+        classNode.visibleAnnotations = remapped.visibleAnnotations;
+        classNode.invisibleAnnotations = remapped.invisibleAnnotations;
+        classNode.visibleTypeAnnotations = remapped.visibleTypeAnnotations;
+        classNode.invisibleTypeAnnotations = remapped.invisibleTypeAnnotations;
+        classNode.attrs = remapped.attrs;
+        classNode.innerClasses = remapped.innerClasses;
+        classNode.nestHostClass = remapped.nestHostClass;
+        classNode.nestMembers = remapped.nestMembers;
+        classNode.permittedSubclasses = remapped.permittedSubclasses;
+        classNode.recordComponents = remapped.recordComponents;
+        classNode.fields = remapped.fields;
+        classNode.methods = remapped.methods;
+    }
+
+    static MethodNode remapMethod(final MethodNode methodNode, final Remapper remapper) {
+        final ClassNode holder = new ClassNode();
+        methodNode.accept(new ClassRemapper(holder, remapper));
+        return holder.methods.get(0);
+    }
+
+    /**
+     * Collects the inserters for all interfaces the class implements, directly or through its super types.<br>
+     * Inserters for methods which a super type already declares are skipped, as the inserted method would override the
+     * inherited one.
+     */
+    private List<StagedInserter> findInserters(final String superName, final List<String> interfaces, final ClassHierarchy hierarchy) {
+        if (this.methodInserters.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<StagedInserter> inserters = null;
+        if (hierarchy == ClassHierarchy.NONE) {
+            for (String type : interfaces) {
+                inserters = this.addInserters(inserters, type);
+            }
+        } else {
+            final Map<String, Set<String>> ownerCache = this.inserterOwners.computeIfAbsent(hierarchy, k -> new ConcurrentHashMap<>());
+            Set<String> owners = superName != null ? this.getInserterOwners(superName, hierarchy, ownerCache) : Collections.emptySet();
+            for (String type : interfaces) {
+                final Set<String> typeOwners = this.getInserterOwners(type, hierarchy, ownerCache);
+                if (typeOwners.isEmpty()) continue;
+                if (owners.isEmpty()) {
+                    owners = typeOwners;
+                } else {
+                    owners = new HashSet<>(owners);
+                    owners.addAll(typeOwners);
+                }
+            }
+            if (owners.isEmpty()) {
+                return Collections.emptyList();
+            }
+
+            // Only classes which implement an interface with inserters get here, so the full hierarchy walk is rare
+            final Set<String> superTypes = new LinkedHashSet<>();
+            final Deque<String> queue = new ArrayDeque<>(interfaces);
+            if (superName != null) queue.add(superName);
+            String type;
+            while ((type = queue.poll()) != null) {
+                if (!superTypes.add(type)) continue;
+
+                final Collection<String> typeSuperTypes = hierarchy.getSuperTypes(type);
+                if (typeSuperTypes != null) queue.addAll(typeSuperTypes);
+            }
+            for (String owner : owners) {
+                for (StagedInserter inserter : this.methodInserters.get(owner)) {
+                    if (isDeclaredBySuperType(inserter, superTypes, hierarchy)) continue;
+
+                    if (inserters == null) inserters = new ArrayList<>();
+                    inserters.add(inserter);
+                }
+            }
+        }
+        if (inserters == null) {
+            return Collections.emptyList();
+        }
+        inserters.sort(Comparator.comparingInt(inserter -> inserter.index));
+        return inserters;
+    }
+
+    private static boolean isDeclaredBySuperType(final StagedInserter inserter, final Set<String> superTypes, final ClassHierarchy hierarchy) {
+        for (String superType : superTypes) {
+            if (!superType.equals(inserter.owner) && hierarchy.declaresMethod(superType, inserter.name, inserter.desc)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The interfaces with inserters which the given type is or implements, directly or through its super types
+     */
+    private Set<String> getInserterOwners(final String type, final ClassHierarchy hierarchy, final Map<String, Set<String>> ownerCache) {
+        final Set<String> owners = ownerCache.get(type);
+        if (owners != null) {
+            return owners;
+        }
+        return this.computeInserterOwners(type, hierarchy, ownerCache, new HashSet<>());
+    }
+
+    private Set<String> computeInserterOwners(final String type, final ClassHierarchy hierarchy, final Map<String, Set<String>> ownerCache, final Set<String> visiting) {
+        Set<String> owners = ownerCache.get(type);
+        if (owners != null) {
+            return owners;
+        }
+        if (!visiting.add(type)) {
+            // Cyclic hierarchy
+            return Collections.emptySet();
+        }
+
+        owners = this.methodInserters.containsKey(type) ? new HashSet<>(Collections.singleton(type)) : null;
+        final Collection<String> superTypes = hierarchy.getSuperTypes(type);
+        if (superTypes != null) {
+            for (String superType : superTypes) {
+                final Set<String> superOwners = this.computeInserterOwners(superType, hierarchy, ownerCache, visiting);
+                if (superOwners.isEmpty()) continue;
+
+                if (owners == null) owners = new HashSet<>();
+                owners.addAll(superOwners);
+            }
+        }
+        visiting.remove(type);
+        owners = owners != null ? Collections.unmodifiableSet(owners) : Collections.emptySet();
+        ownerCache.put(type, owners);
+        return owners;
+    }
+
+    private List<StagedInserter> addInserters(List<StagedInserter> inserters, final String type) {
+        final List<StagedInserter> typeInserters = this.methodInserters.get(type);
+        if (typeInserters != null) {
+            if (inserters == null) inserters = new ArrayList<>();
+            inserters.addAll(typeInserters);
+        }
+        return inserters;
+    }
+
+    boolean hasClassReplacements() {
+        return this.hasClassReplacements;
+    }
+
+    PlanRemapper createRemapper(final RuntimeDepCollector depCollector, final DowngradeResult result) {
+        return new PlanRemapper(depCollector, result);
+    }
+
+    DowngradingTransformer[] getStages() {
+        return this.stages;
+    }
+
+    /**
+     * Creates a context which applies the replacers of the given stages to the methods passed to it.
+     *
+     * @param previous The context of the stages before or null if this is the first one. Contexts of the same class
+     *                 share their bridge numbers and timings
+     */
+    TransformContext createContext(final ClassNode classNode, final RuntimeDepCollector depCollector, final DowngradeResult result, final int startStage, final int endStage, final TransformContext previous) {
+        final TransformContext context = new TransformContext(classNode, depCollector, result, previous);
+        context.segmentStart = startStage;
+        context.segmentEnd = endStage;
+        return context;
+    }
+
+    /**
+     * @return The first stage which might modify the scanned class, or the amount of stages if none of them does
+     */
+    int firstModifyingStage(final ConstantPoolScan scan) {
+        return this.firstModifyingStage(scan, this.findInserters(scan.getSuperName(), scan.getInterfaces(), ClassHierarchy.NONE));
+    }
+
+    /**
+     * Looks up the replacer which is applied first to a call of the given method.
+     *
+     * @param owner The owner of the called method
+     * @param name  The name of the called method
+     * @param desc  The descriptor of the called method
+     * @return The replacer or null if the call is not replaced
+     */
+    public MethodCallReplacer getMethodCallReplacer(final String owner, final String name, final String desc) {
+        final PlannedReplacer replacer = this.findReplacer(owner, name, desc, 0);
+        return replacer != null ? replacer.replacer : null;
+    }
+
+    private PlannedReplacer findReplacer(final String owner, final String name, final String desc, final int fromStage) {
+        final Map<String, ReplacedMethod> methods = this.methodCallReplacers.get(owner);
+        if (methods == null) return null;
+        final ReplacedMethod method = methods.get(name);
+        if (method == null) return null;
+
+        final PlannedReplacer exact = method.descriptors.isEmpty() ? null : firstFrom(method.descriptors.get(desc), fromStage);
+        final PlannedReplacer wildcard = firstFrom(method.wildcard, fromStage);
+        if (exact != null && (wildcard == null || exact.stage <= wildcard.stage)) {
+            return exact;
+        }
+        return wildcard;
+    }
+
+    private static PlannedReplacer firstFrom(final StagedReplacer replacers, final int fromStage) {
+        return replacers != null ? replacers.first(fromStage) : null;
+    }
+
+    final class TransformContext {
+
+        private final ClassNode classNode;
+        private final RuntimeDepCollector depCollector;
+        private final DowngradeResult result;
+        private final Deque<QueuedMethod> queue = new ArrayDeque<>();
+        private final long[] stageNanos;
+        /**
+         * The next bridge number, shared by all contexts of the same class.
+         */
+        private final int[] bridge;
+        private Map<AbstractInsnNode, Integer> emittedStages;
+        private int segmentStart;
+        private int segmentEnd = stages.length;
+
+        private TransformContext(final ClassNode classNode, final RuntimeDepCollector depCollector, final DowngradeResult result, final TransformContext previous) {
+            this.classNode = classNode;
+            this.depCollector = depCollector;
+            this.result = result;
+
+            if (previous != null) {
+                this.stageNanos = previous.stageNanos;
+                this.bridge = previous.bridge;
+            } else {
+                this.stageNanos = new long[stages.length];
+                this.bridge = new int[]{100};
+                for (final MethodNode methodNode : classNode.methods) {
+                    if (methodNode.name.startsWith(BRIDGE_PREFIX)) {
+                        this.bridge[0] = Integer.parseInt(methodNode.name.substring(BRIDGE_PREFIX.length())) + 1;
+                    }
+                }
+            }
+        }
+
+        void transform(final MethodNode methodNode) {
+            this.queue.add(new QueuedMethod(methodNode, this.segmentStart));
+            this.drainQueue();
+        }
+
+        /**
+         * Adds the time spent in each transformer to the result. Has to be called once the class is done.
+         */
+        void recordStats() {
+            for (int i = 0; i < stages.length; i++) {
+                this.result.recordTransformer(stageNames[i], this.stageNanos[i]);
+            }
+        }
+
+        private void drainQueue() {
+            QueuedMethod queued;
+            while ((queued = this.queue.poll()) != null) {
+                if (queued.fromStage < this.segmentEnd && !methodCallReplacers.isEmpty()) {
+                    this.transformMethod(queued.methodNode, queued.fromStage);
+                }
+            }
+        }
+
+        private void transformMethod(final MethodNode methodNode, final int methodStage) {
+            this.emittedStages = null;
+            AbstractInsnNode insn = methodNode.instructions.getFirst();
+            while (insn != null) {
+                final int fromStage = this.getStage(insn, methodStage);
+                if (insn instanceof MethodInsnNode) {
+                    final MethodInsnNode methodInsn = (MethodInsnNode) insn;
+
+                    final PlannedReplacer replacer = findReplacer(methodInsn.owner, methodInsn.name, methodInsn.desc, fromStage);
+                    if (replacer != null && replacer.stage < this.segmentEnd) {
+                        final int stage = replacer.stage;
+                        final int methodCount = this.classNode.methods.size();
+                        final long start = this.nanoTime();
+                        final InsnList replacement = replacer.replacer.getReplacement(this.classNode, methodNode, methodInsn.name, methodInsn.desc, this.depCollector, this.result);
+                        this.recordReplacer(replacer, this.nanoTime() - start);
+                        this.queueNewMethods(methodCount, stage + 1);
+                        this.result.markModified(methodNode);
+                        this.result.incrementTransformerCount();
+
+                        final AbstractInsnNode next = methodInsn.getNext();
+                        final AbstractInsnNode first = replacement.getFirst();
+                        this.markEmitted(replacement, stage + 1);
+                        methodNode.instructions.insertBefore(methodInsn, replacement);
+                        methodNode.instructions.remove(methodInsn);
+                        // Walk the emitted instructions again so later transformers can process them
+                        insn = first != null ? first : next;
+                        continue;
+                    }
+                } else if (insn instanceof InvokeDynamicInsnNode) {
+                    this.transformLambdaHandles((InvokeDynamicInsnNode) insn, fromStage);
+                }
+                insn = insn.getNext();
+            }
+        }
+
+        private void transformLambdaHandles(final InvokeDynamicInsnNode invokeDynamicInsn, final int fromStage) {
+            if (!invokeDynamicInsn.bsm.getOwner().equals("java/lang/invoke/LambdaMetafactory") || !invokeDynamicInsn.bsm.getName().equals("metafactory") || !invokeDynamicInsn.bsm.getDesc().equals(Constants.METAFACTORY_DESC)) {
+                return;
+            }
+
+            for (int i = 0; i < invokeDynamicInsn.bsmArgs.length; i++) {
+                final Object arg = invokeDynamicInsn.bsmArgs[i];
+                if (!(arg instanceof Handle)) continue;
+                final Handle handle = (Handle) arg;
+
+                final PlannedReplacer replacer = findReplacer(handle.getOwner(), handle.getName(), handle.getDesc(), fromStage);
+                if (replacer == null || replacer.stage >= this.segmentEnd) continue;
+                final int stage = replacer.stage;
+
+                final String desc = handle.getTag() == Opcodes.H_INVOKESTATIC || handle.getTag() == Opcodes.H_GETSTATIC || handle.getTag() == Opcodes.H_PUTSTATIC
+                        ? handle.getDesc()
+                        : "(L" + handle.getOwner() + ';' + handle.getDesc().substring(1);
+                final MethodNode bridgeMethod = new MethodNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC, BRIDGE_PREFIX + (this.bridge[0]++), desc, null, null);
+                final Type[] argumentTypes = Type.getArgumentTypes(desc);
+                for (int i1 = 0; i1 < argumentTypes.length; i1++) {
+                    bridgeMethod.instructions.add(new VarInsnNode(argumentTypes[i1].getOpcode(Opcodes.ILOAD), i1));
+                }
+                final int methodCount = this.classNode.methods.size();
+                final long start = this.nanoTime();
+                bridgeMethod.instructions.add(replacer.replacer.getReplacement(
+                        this.classNode, bridgeMethod, handle.getName(), handle.getDesc(), this.depCollector, this.result
+                ));
+                this.recordReplacer(replacer, this.nanoTime() - start);
+                this.result.incrementBridgeCount();
+                this.queueNewMethods(methodCount, stage + 1);
+                bridgeMethod.instructions.add(new InsnNode(Type.getReturnType(handle.getDesc()).getOpcode(Opcodes.IRETURN)));
+                this.classNode.methods.add(bridgeMethod);
+                this.result.markModified(bridgeMethod);
+                this.queue.add(new QueuedMethod(bridgeMethod, stage + 1));
+
+                invokeDynamicInsn.bsmArgs[i] = new Handle(Opcodes.H_INVOKESTATIC, this.classNode.name, bridgeMethod.name, bridgeMethod.desc, (this.classNode.access & Opcodes.ACC_INTERFACE) != 0);
+                this.result.incrementTransformerCount();
+            }
+        }
+
+        /**
+         * @return The current time or 0 if the result {@link DowngradeResult#isTimed() isn't timed}
+         */
+        private long nanoTime() {
+            return this.result.isTimed() ? System.nanoTime() : 0L;
+        }
+
+        private void recordReplacer(final PlannedReplacer replacer, final long nanos) {
+            this.stageNanos[replacer.stage] += nanos;
+            this.result.recordReplacer(replacer.statsName, nanos);
+        }
+
+        private void queueNewMethods(final int oldMethodCount, final int fromStage) {
+            for (int i = oldMethodCount; i < this.classNode.methods.size(); i++) {
+                this.result.markModified(this.classNode.methods.get(i));
+                this.queue.add(new QueuedMethod(this.classNode.methods.get(i), fromStage));
+            }
+        }
+
+        private int getStage(final AbstractInsnNode insn, final int methodStage) {
+            if (this.emittedStages == null) {
+                return methodStage;
+            }
+            final Integer stage = this.emittedStages.get(insn);
+            return stage != null ? stage : methodStage;
+        }
+
+        private void markEmitted(final InsnList replacement, final int stage) {
+            if (this.emittedStages == null) {
+                this.emittedStages = new IdentityHashMap<>();
+            }
+            for (AbstractInsnNode insn = replacement.getFirst(); insn != null; insn = insn.getNext()) {
+                this.emittedStages.put(insn, stage);
+            }
+        }
+
+    }
+
+    private static final class StagedReplacer {
+
+        private PlannedReplacer[] replacers = new PlannedReplacer[0];
+
+        private void add(final PlannedReplacer replacer) {
+            this.replacers = Arrays.copyOf(this.replacers, this.replacers.length + 1);
+            this.replacers[this.replacers.length - 1] = replacer;
+        }
+
+        private PlannedReplacer first(final int fromStage) {
+            for (PlannedReplacer replacer : this.replacers) {
+                if (replacer.stage >= fromStage) return replacer;
+            }
+            return null;
+        }
+
+    }
+
+    private static final class PlannedReplacer {
+
+        private final int stage;
+        private final String statsName;
+        private final MethodCallReplacer replacer;
+
+        private PlannedReplacer(final int stage, final String statsName, final MethodCallReplacer replacer) {
+            this.stage = stage;
+            this.statsName = statsName;
+            this.replacer = replacer;
+        }
+
+    }
+
+    /**
+     * Applies the class replacements of all stages transitively.
+     */
+    final class PlanRemapper extends Remapper {
+
+        private final RuntimeDepCollector depCollector;
+        private final DowngradeResult result;
+        boolean renamed;
+
+        private PlanRemapper(final RuntimeDepCollector depCollector, final DowngradeResult result) {
+            this.depCollector = depCollector;
+            this.result = result;
+        }
+
+        @Override
+        public String map(String internalName) {
+            String mappedName = internalName;
+            for (Map<String, StagedClassReplacement> replacements : classReplacements) {
+                final StagedClassReplacement replacement = replacements.get(mappedName);
+                if (replacement != null) {
+                    mappedName = replacement.replacement.apply(this.depCollector);
+                    this.result.recordClassReplacement(replacement.statsName);
+                }
+            }
+            if (mappedName != internalName) {
+                this.renamed = true;
+                this.result.setRequiresStackMapFrames();
+            }
+            return mappedName;
+        }
+
+    }
+
+    private static final class ReplacedMethod {
+
+        private final Map<String, StagedReplacer> descriptors = new HashMap<>();
+        private StagedReplacer wildcard;
+
+        private int firstStage() {
+            int first = this.wildcard != null ? this.wildcard.replacers[0].stage : Integer.MAX_VALUE;
+            for (StagedReplacer replacer : this.descriptors.values()) {
+                first = Math.min(first, replacer.replacers[0].stage);
+            }
+            return first;
+        }
+
+    }
+
+    private static final class StagedClassReplacement {
+
+        private final String statsName;
+        private final DowngradingTransformer.ClassReplacement replacement;
+
+        private StagedClassReplacement(final String statsName, final DowngradingTransformer.ClassReplacement replacement) {
+            this.statsName = statsName;
+            this.replacement = replacement;
+        }
+
+    }
+
+    private static final class StagedInserter {
+
+        private final int index;
+        private final int stage;
+        private final String statsName;
+        private final String owner;
+        private final String name;
+        private final String desc;
+        private final MethodInserter inserter;
+
+        private StagedInserter(final int index, final int stage, final String statsName, final String key, final MethodInserter inserter) {
+            final String[] split = key.split("\\.", 2);
+            this.index = index;
+            this.stage = stage;
+            this.statsName = statsName;
+            this.owner = split[0];
+            this.name = split[1].substring(0, split[1].indexOf('('));
+            this.desc = split[1].substring(split[1].indexOf('('));
+            this.inserter = inserter;
+        }
+
+    }
+
+    private static final class QueuedMethod {
+
+        private final MethodNode methodNode;
+        private final int fromStage;
+
+        private QueuedMethod(final MethodNode methodNode, final int fromStage) {
+            this.methodNode = methodNode;
+            this.fromStage = fromStage;
+        }
+
+    }
+
+}
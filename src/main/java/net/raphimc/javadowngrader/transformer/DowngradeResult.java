@@ -17,10 +17,45 @@
  */
 package net.raphimc.javadowngrader.transformer;
 
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.*;
+
+/**
+ * The result of downgrading one or more classes.<br>
+ * Results of single classes can be merged with {@link #add}. This class is not thread safe, so merging the results of
+ * multiple threads has to be synchronized.
+ */
 public class DowngradeResult {
 
+    private final boolean timed;
     private int transformerCount;
     private boolean requiresStackMapFrames;
+    private int stackMapFrameClassCount;
+    private int bridgeCount;
+    private Set<MethodNode> modifiedMethods;
+    private Map<String, Stats> replacerStats;
+    private Map<String, Stats> classReplacementStats;
+    private Map<String, Stats> transformerStats;
+
+    public DowngradeResult() {
+        this(false);
+    }
+
+    /**
+     * @param timed If the time spent in each transformer and replacer should be measured. The counts of the
+     *              {@link #getReplacerStats() stats} are always recorded
+     */
+    public DowngradeResult(final boolean timed) {
+        this.timed = timed;
+    }
+
+    /**
+     * @return If the time spent in each transformer and replacer is measured
+     */
+    public boolean isTimed() {
+        return this.timed;
+    }
 
     /**
      * @return The amount of transformers that were applied
@@ -44,20 +79,192 @@ public class DowngradeResult {
     }
 
     /**
-     * Sets the class to require stack map frame recalculation.
+     * Sets the class to require stack map frame recalculation.<br>
+     * If any methods were {@link #markModified marked as modified}, only the frames of those methods have to be
+     * recalculated. Otherwise the frames of all methods have to be recalculated.
      */
     public void setRequiresStackMapFrames() {
-        this.requiresStackMapFrames = true;
+        if (!this.requiresStackMapFrames) {
+            this.requiresStackMapFrames = true;
+            this.stackMapFrameClassCount++;
+        }
+    }
+
+    /**
+     * @return The amount of classes which required stack map frame recalculation
+     */
+    public int getStackMapFrameClassCount() {
+        return this.stackMapFrameClassCount;
+    }
+
+    /**
+     * @return The amount of synthetic bridge methods which were created for method references
+     */
+    public int getBridgeCount() {
+        return this.bridgeCount;
+    }
+
+    /**
+     * @return The applied method call replacers and method inserters, keyed by transformer and replaced method
+     */
+    public Map<String, Stats> getReplacerStats() {
+        return this.replacerStats != null ? Collections.unmodifiableMap(this.replacerStats) : Collections.emptyMap();
+    }
+
+    /**
+     * @return The applied class replacements, keyed by transformer and replaced class. The count is the amount of
+     * rewritten references
+     */
+    public Map<String, Stats> getClassReplacementStats() {
+        return this.classReplacementStats != null ? Collections.unmodifiableMap(this.classReplacementStats) : Collections.emptyMap();
+    }
+
+    /**
+     * @return The time spent in the hooks, replacers and inserters of each transformer, keyed by transformer.<br>
+     * The hook visitors of the streaming engine are not included, and the time is only measured if the result is
+     * {@link #isTimed() timed}
+     */
+    public Map<String, Stats> getTransformerStats() {
+        return this.transformerStats != null ? Collections.unmodifiableMap(this.transformerStats) : Collections.emptyMap();
+    }
+
+    /**
+     * Marks the given method as modified. Methods which are not marked keep their original stack map frames.
+     *
+     * @param methodNode The modified or newly created method
+     */
+    public void markModified(final MethodNode methodNode) {
+        if (this.modifiedMethods == null) {
+            this.modifiedMethods = Collections.newSetFromMap(new IdentityHashMap<>());
+        }
+        this.modifiedMethods.add(methodNode);
+    }
+
+    /**
+     * @param methodNode The method to check
+     * @return If the given method was marked as modified
+     */
+    public boolean isModified(final MethodNode methodNode) {
+        return this.modifiedMethods != null && this.modifiedMethods.contains(methodNode);
+    }
+
+    /**
+     * @return The methods which were marked as modified
+     */
+    public Set<MethodNode> getModifiedMethods() {
+        return this.modifiedMethods != null ? Collections.unmodifiableSet(this.modifiedMethods) : Collections.emptySet();
     }
 
     /**
-     * Adds the values of the given result to this result.
+     * Adds the values of the given result to this result.<br>
+     * The modified methods are not added as they only make sense for a single class.
      *
      * @param result The result to add
      */
     public void add(final DowngradeResult result) {
         this.transformerCount += result.transformerCount;
         this.requiresStackMapFrames |= result.requiresStackMapFrames;
+        this.stackMapFrameClassCount += result.stackMapFrameClassCount;
+        this.bridgeCount += result.bridgeCount;
+        this.replacerStats = merge(this.replacerStats, result.replacerStats);
+        this.classReplacementStats = merge(this.classReplacementStats, result.classReplacementStats);
+        this.transformerStats = merge(this.transformerStats, result.transformerStats);
+    }
+
+    /**
+     * Formats the replacers and class replacements which took the most time as a table.<br>
+     * Class replacements are not timed, so they are ranked after the replacers by their count.
+     *
+     * @param limit The maximum amount of rows
+     * @return The formatted table
+     */
+    public String formatHotSpots(final int limit) {
+        final List<Map.Entry<String, Stats>> rewrites = new ArrayList<>();
+        rewrites.addAll(this.getReplacerStats().entrySet());
+        rewrites.addAll(this.getClassReplacementStats().entrySet());
+        rewrites.sort(Comparator.comparingLong((Map.Entry<String, Stats> entry) -> entry.getValue().nanos)
+                .thenComparingLong(entry -> entry.getValue().count)
+                .reversed());
+        final List<Map.Entry<String, Stats>> transformers = new ArrayList<>(this.getTransformerStats().entrySet());
+        transformers.sort(Comparator.comparingLong((Map.Entry<String, Stats> entry) -> entry.getValue().nanos).reversed());
+
+        final StringBuilder table = new StringBuilder();
+        table.append(String.format(Locale.ROOT, "%d transformations, %d bridges, %d classes required stack map frames%n", this.transformerCount, this.bridgeCount, this.stackMapFrameClassCount));
+        table.append(String.format(Locale.ROOT, "%10s %12s  %s%n", "count", "time (ms)", "transformer"));
+        for (Map.Entry<String, Stats> entry : transformers) {
+            appendRow(table, entry);
+        }
+        table.append(String.format(Locale.ROOT, "%10s %12s  %s%n", "count", "time (ms)", "rewrite"));
+        for (int i = 0; i < rewrites.size() && i < limit; i++) {
+            appendRow(table, rewrites.get(i));
+        }
+        return table.toString();
+    }
+
+    void recordReplacer(final String name, final long nanos) {
+        this.replacerStats = record(this.replacerStats, name, nanos);
+    }
+
+    void recordClassReplacement(final String name) {
+        this.classReplacementStats = record(this.classReplacementStats, name, 0);
+    }
+
+    void recordTransformer(final String name, final long nanos) {
+        this.transformerStats = record(this.transformerStats, name, nanos);
+    }
+
+    void incrementBridgeCount() {
+        this.bridgeCount++;
+    }
+
+    private static Map<String, Stats> record(Map<String, Stats> stats, final String name, final long nanos) {
+        if (stats == null) {
+            stats = new HashMap<>();
+        }
+        final Stats entry = stats.computeIfAbsent(name, k -> new Stats());
+        entry.count++;
+        entry.nanos += nanos;
+        return stats;
+    }
+
+    private static Map<String, Stats> merge(Map<String, Stats> stats, final Map<String, Stats> other) {
+        if (other == null) {
+            return stats;
+        }
+        if (stats == null) {
+            stats = new HashMap<>();
+        }
+        for (Map.Entry<String, Stats> entry : other.entrySet()) {
+            final Stats merged = stats.computeIfAbsent(entry.getKey(), k -> new Stats());
+            merged.count += entry.getValue().count;
+            merged.nanos += entry.getValue().nanos;
+        }
+        return stats;
+    }
+
+    private static void appendRow(final StringBuilder table, final Map.Entry<String, Stats> entry) {
+        table.append(String.format(Locale.ROOT, "%10d %12.3f  %s%n", entry.getValue().count, entry.getValue().nanos / 1_000_000D, entry.getKey()));
+    }
+
+    public static final class Stats {
+
+        private long count;
+        private long nanos;
+
+        /**
+         * @return How often the replacer, class replacement or transformer was applied
+         */
+        public long getCount() {
+            return this.count;
+        }
+
+        /**
+         * @return The time spent in nanoseconds
+         */
+        public long getNanos() {
+            return this.nanos;
+        }
+
     }
 
 }
@@ -0,0 +1,218 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.transformer;
+
+import net.raphimc.javadowngrader.RuntimeDepCollector;
+import net.raphimc.javadowngrader.util.ConstantPoolScan;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A streaming variant of {@link DowngradePlan#transform}.<br>
+ * Only one method at a time is buffered as a {@link MethodNode} (the replacers need the whole method body to find
+ * free locals), everything else is passed straight through to the delegate visitor.<br>
+ * Check {@link DowngradePlan#canStream} before using this visitor. The delegate has to compute the max stack/locals,
+ * and if {@link DowngradeResult#requiresStackMapFrames()} is set afterwards the frames have to be recomputed.
+ */
+public class DowngradingClassVisitor extends ClassVisitor {
+
+    private final BitSet modifiedMethods;
+
+    public DowngradingClassVisitor(final ClassVisitor classVisitor, final DowngradePlan plan, final ConstantPoolScan scan, final RuntimeDepCollector depCollector, final DowngradeResult result) {
+        this(classVisitor, plan, scan, depCollector, result, new BitSet());
+    }
+
+    private DowngradingClassVisitor(final ClassVisitor classVisitor, final DowngradePlan plan, final ConstantPoolScan scan, final RuntimeDepCollector depCollector, final DowngradeResult result, final BitSet modifiedMethods) {
+        super(Opcodes.ASM9, createChain(classVisitor, plan, scan, depCollector, result, modifiedMethods));
+        if (!plan.canStream(scan)) {
+            throw new IllegalArgumentException("The class can not be transformed while streaming");
+        }
+        this.modifiedMethods = modifiedMethods;
+    }
+
+    /**
+     * The streamed methods are not kept, and their descriptors may have been remapped on the way to the delegate, so the
+     * methods which need new stack map frames are identified by the order in which they were passed to the delegate.
+     *
+     * @return The indices of the modified methods in the output class
+     */
+    public BitSet getModifiedMethods() {
+        return this.modifiedMethods;
+    }
+
+    private static ClassVisitor createChain(final ClassVisitor classVisitor, final DowngradePlan plan, final ConstantPoolScan scan, final RuntimeDepCollector depCollector, final DowngradeResult result, final BitSet modifiedMethods) {
+        DowngradePlan.PlanRemapper remapper = null;
+        ClassVisitor methodRemapper = null;
+        ClassVisitor chain = classVisitor;
+        if (plan.referencesReplacedClasses(scan)) {
+            remapper = plan.createRemapper(depCollector, result);
+            chain = new ClassRemapper(chain, remapper);
+        } else if (plan.hasClassReplacements()) {
+            // Only code emitted by the replacers can reference replaced classes
+            remapper = plan.createRemapper(depCollector, result);
+            methodRemapper = new ClassRemapper(chain, remapper);
+        }
+
+        // Like in the tree engine the stages are split at the hooks which have to run, and every segment gets its own
+        // method transformer. Methods and helper methods emitted by a segment pass through the hooks of the next one
+        final DowngradingTransformer[] stages = plan.getStages();
+        final int firstModifyingStage = plan.firstModifyingStage(scan);
+        MethodTransformingVisitor next = new MethodTransformingVisitor(chain, remapper, methodRemapper, plan, depCollector, result, modifiedMethods);
+        int segmentEnd = stages.length;
+        for (int i = stages.length - 1; i >= 0; i--) {
+            final DowngradingTransformer stage = stages[i];
+            final boolean requiresHooks = stage.requiresHooks(scan);
+            final boolean preHook = stage.hasPreTransform() && (firstModifyingStage < i || requiresHooks);
+            final boolean postHook = !preHook && stage.hasPostTransform() && (firstModifyingStage <= i || requiresHooks);
+            if (!preHook && !postHook) continue;
+
+            final ClassVisitor hookVisitor = stage.createHookVisitor(next, result);
+            if (hookVisitor == null) {
+                if (requiresHooks) {
+                    throw new IllegalStateException(stage.getClass().getSimpleName() + " requires hooks but has no hook visitor");
+                }
+                // The hooks don't apply to streamed classes
+                continue;
+            }
+            final int segmentStart = preHook ? i : i + 1;
+            next.setStages(segmentStart, segmentEnd);
+            next = new MethodTransformingVisitor(hookVisitor, next);
+            segmentEnd = segmentStart;
+        }
+        next.setStages(0, segmentEnd);
+        return next;
+    }
+
+    private static final class MethodTransformingVisitor extends ClassVisitor {
+
+        private final DowngradePlan.PlanRemapper remapper;
+        private final ClassVisitor methodRemapper;
+        private final DowngradePlan plan;
+        private final RuntimeDepCollector depCollector;
+        private final DowngradeResult result;
+        private final BitSet modifiedMethods;
+        /**
+         * The transformer of the next segment or null if this is the last one.
+         */
+        private final MethodTransformingVisitor next;
+        private final ClassNode header = new ClassNode();
+        private MethodTransformingVisitor previous;
+        private int startStage;
+        private int endStage;
+        private DowngradePlan.TransformContext context;
+        private boolean incomingModified;
+        private int methodIndex;
+
+        private MethodTransformingVisitor(final ClassVisitor classVisitor, final DowngradePlan.PlanRemapper remapper, final ClassVisitor methodRemapper, final DowngradePlan plan, final RuntimeDepCollector depCollector, final DowngradeResult result, final BitSet modifiedMethods) {
+            super(Opcodes.ASM9, classVisitor);
+            this.remapper = remapper;
+            this.methodRemapper = methodRemapper;
+            this.plan = plan;
+            this.depCollector = depCollector;
+            this.result = result;
+            this.modifiedMethods = modifiedMethods;
+            this.next = null;
+        }
+
+        private MethodTransformingVisitor(final ClassVisitor classVisitor, final MethodTransformingVisitor next) {
+            super(Opcodes.ASM9, classVisitor);
+            this.remapper = null;
+            this.methodRemapper = null;
+            this.plan = next.plan;
+            this.depCollector = next.depCollector;
+            this.result = next.result;
+            this.modifiedMethods = null;
+            this.next = next;
+            next.previous = this;
+        }
+
+        private void setStages(final int startStage, final int endStage) {
+            this.startStage = startStage;
+            this.endStage = endStage;
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            if (this.previous == null && (version & 0xFF) > this.plan.getStages()[0].getSourceVersion()) {
+                throw new IllegalArgumentException("Input class version is higher than supported");
+            }
+
+            // The replacers only look at the class header and add helper methods to the method list
+            this.header.version = version;
+            this.header.access = access;
+            this.header.name = name;
+            this.header.signature = signature;
+            this.header.superName = superName;
+            this.header.interfaces = interfaces != null ? new ArrayList<>(Arrays.asList(interfaces)) : new ArrayList<>();
+            this.context = this.plan.createContext(this.header, this.depCollector, this.result, this.startStage, this.endStage, this.previous != null ? this.previous.context : null);
+
+            super.visit(this.next == null ? this.plan.getTargetVersion() : version, access, name, signature, superName, interfaces);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            // The hooks between two segments pass the methods on right away, so this belongs to the method being emitted
+            final boolean modified = this.incomingModified;
+            this.incomingModified = false;
+            return new MethodNode(Opcodes.ASM9, access, name, descriptor, signature, exceptions) {
+                @Override
+                public void visitEnd() {
+                    if (modified) MethodTransformingVisitor.this.result.markModified(this);
+                    MethodTransformingVisitor.this.context.transform(this);
+                    MethodTransformingVisitor.this.emitMethod(this);
+                }
+            };
+        }
+
+        @Override
+        public void visitEnd() {
+            for (MethodNode methodNode : this.header.methods) {
+                this.emitMethod(methodNode);
+            }
+            if (this.next == null) this.context.recordStats();
+            super.visitEnd();
+        }
+
+        private void emitMethod(final MethodNode methodNode) {
+            if (this.next != null) {
+                this.next.incomingModified = this.result.isModified(methodNode);
+                methodNode.accept(this.cv);
+                this.next.incomingModified = false;
+                return;
+            }
+
+            final ClassVisitor target = this.methodRemapper != null && this.result.isModified(methodNode) ? this.methodRemapper : this.cv;
+            if (this.remapper != null) this.remapper.renamed = false;
+            methodNode.accept(target);
+            // Methods which reference replaced classes need new frames
+            if (this.remapper != null && this.remapper.renamed) this.result.markModified(methodNode);
+            if (this.result.isModified(methodNode)) this.modifiedMethods.set(this.methodIndex);
+            this.methodIndex++;
+        }
+
+    }
+
+}
@@ -18,30 +18,25 @@
 package net.raphimc.javadowngrader.transformer;
 
 import net.raphimc.javadowngrader.RuntimeDepCollector;
-import net.raphimc.javadowngrader.util.ASMUtil;
+import net.raphimc.javadowngrader.util.ConstantPoolScan;
 import net.raphimc.javadowngrader.util.Constants;
-import org.objectweb.asm.Handle;
-import org.objectweb.asm.Opcodes;
-import org.objectweb.asm.Type;
-import org.objectweb.asm.commons.ClassRemapper;
-import org.objectweb.asm.commons.Remapper;
-import org.objectweb.asm.tree.*;
-
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.tree.ClassNode;
+
 import java.util.*;
 import java.util.stream.Collectors;
 
 public abstract class DowngradingTransformer {
 
-    private static final String BRIDGE_PREFIX = "javadowngrader-bridge$";
-
     private final int sourceVersion;
     private final int targetVersion;
 
     private final Map<String, MethodCallReplacer> methodCallReplacers = new HashMap<>();
     private final Map<String, MethodInserter> methodInserters = new HashMap<>();
     private final Map<String, ClassReplacement> classReplacements = new HashMap<>();
+    private final boolean hasPreTransform = this.overridesHook("preTransform");
+    private final boolean hasPostTransform = this.overridesHook("postTransform");
+    private volatile DowngradePlan plan;
 
     public DowngradingTransformer(final int sourceVersion, final int targetVersion) {
         this.sourceVersion = sourceVersion;
@@ -88,136 +83,96 @@ public abstract class DowngradingTransformer {
             return;
         }
 
-        this.preTransform(classNode, result);
+        this.getPlan().transform(classNode, depCollector, result);
+    }
 
-        int bridge = 100;
-        for (final MethodNode methodNode : classNode.methods) {
-            if (methodNode.name.startsWith(BRIDGE_PREFIX)) {
-                bridge = Integer.parseInt(methodNode.name.substring(BRIDGE_PREFIX.length())) + 1;
-            }
-        }
+    protected void preTransform(final ClassNode classNode, final DowngradeResult result) {
+    }
 
-        if (!this.methodCallReplacers.isEmpty()) {
-            for (MethodNode methodNode : new ArrayList<>(classNode.methods)) {
-                for (AbstractInsnNode insn : methodNode.instructions.toArray()) {
-                    if (insn instanceof MethodInsnNode) {
-                        final MethodInsnNode methodInsn = (MethodInsnNode) insn;
-
-                        MethodCallReplacer replacer = this.methodCallReplacers.get(methodInsn.owner + '.' + methodInsn.name + methodInsn.desc);
-                        if (replacer == null) {
-                            replacer = this.methodCallReplacers.get(methodInsn.owner + '.' + methodInsn.name);
-                        }
-                        if (replacer != null) {
-                            methodNode.instructions.insertBefore(
-                                    methodInsn, replacer.getReplacement(classNode, methodNode, methodInsn.name, methodInsn.desc, depCollector, result)
-                            );
-                            methodNode.instructions.remove(methodInsn);
-
-                            result.incrementTransformerCount();
-                        }
-                    } else if (insn instanceof InvokeDynamicInsnNode) {
-                        final InvokeDynamicInsnNode invokeDynamicInsn = (InvokeDynamicInsnNode) insn;
-
-                        if (invokeDynamicInsn.bsm.getOwner().equals("java/lang/invoke/LambdaMetafactory") && invokeDynamicInsn.bsm.getName().equals("metafactory") && invokeDynamicInsn.bsm.getDesc().equals(Constants.METAFACTORY_DESC)) {
-                            for (int i = 0; i < invokeDynamicInsn.bsmArgs.length; i++) {
-                                final Object arg = invokeDynamicInsn.bsmArgs[i];
-                                if (!(arg instanceof Handle)) continue;
-                                final Handle handle = (Handle) arg;
-
-                                MethodCallReplacer replacer = this.methodCallReplacers.get(handle.getOwner() + '.' + handle.getName() + handle.getDesc());
-                                if (replacer == null) {
-                                    replacer = this.methodCallReplacers.get(handle.getOwner() + '.' + handle.getName());
-                                }
-                                if (replacer != null) {
-                                    final String desc = handle.getTag() == Opcodes.H_INVOKESTATIC || handle.getTag() == Opcodes.H_GETSTATIC || handle.getTag() == Opcodes.H_PUTSTATIC
-                                            ? handle.getDesc()
-                                            : "(L" + handle.getOwner() + ';' + handle.getDesc().substring(1);
-                                    final MethodNode bridgeMethod = new MethodNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC, BRIDGE_PREFIX + (bridge++), desc, null, null);
-                                    final Type[] argumentTypes = Type.getArgumentTypes(desc);
-                                    for (int i1 = 0; i1 < argumentTypes.length; i1++) {
-                                        bridgeMethod.instructions.add(new VarInsnNode(argumentTypes[i1].getOpcode(Opcodes.ILOAD), i1));
-                                    }
-                                    bridgeMethod.instructions.add(replacer.getReplacement(
-                                            classNode, bridgeMethod, handle.getName(), handle.getDesc(), depCollector, result
-                                    ));
-                                    bridgeMethod.instructions.add(new InsnNode(Type.getReturnType(handle.getDesc()).getOpcode(Opcodes.IRETURN)));
-                                    classNode.methods.add(bridgeMethod);
-
-                                    invokeDynamicInsn.bsmArgs[i] = new Handle(Opcodes.H_INVOKESTATIC, classNode.name, bridgeMethod.name, bridgeMethod.desc, (classNode.access & Opcodes.ACC_INTERFACE) != 0);
-                                    result.incrementTransformerCount();
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        }
+    protected void postTransform(final ClassNode classNode, final DowngradeResult result) {
+    }
 
-        for (Map.Entry<String, MethodInserter> entry : this.methodInserters.entrySet()) {
-            final String[] split = entry.getKey().split("\\.", 2);
-            final String owner = split[0];
-            final String methodName = split[1].substring(0, split[1].indexOf('('));
-            final String methodDesc = split[1].substring(split[1].indexOf('('));
+    /**
+     * Checks if the {@link #preTransform} or {@link #postTransform} hooks of this transformer have to run for the
+     * scanned class. Classes which don't require any hooks or registered replacements only get their version lowered.<br>
+     * By default this returns true if any of the hooks is overridden, so transformers only have to override this to
+     * skip their hooks for classes they don't modify.
+     *
+     * @param scan The constant pool scan of the class
+     * @return If the hooks would modify the class
+     */
+    protected boolean requiresHooks(final ConstantPoolScan scan) {
+        return this.hasPreTransform || this.hasPostTransform;
+    }
 
-            if (!classNode.interfaces.contains(owner)) continue;
-            if (ASMUtil.hasMethod(classNode, methodName, methodDesc)) continue;
+    /**
+     * Checks if the hooks required by the scanned class can only be applied to a {@link ClassNode}.<br>
+     * Transformers which return false here for a class that {@link #requiresHooks requires hooks} have to provide a
+     * {@link #createHookVisitor hook visitor} for the streaming engine.
+     *
+     * @param scan The constant pool scan of the class
+     * @return If the class has to be transformed using the tree engine
+     */
+    protected boolean hooksRequireTree(final ConstantPoolScan scan) {
+        return this.requiresHooks(scan);
+    }
 
-            final MethodNode insertedMethod = new MethodNode(Opcodes.ACC_PUBLIC, methodName, methodDesc, null, null);
-            entry.getValue().insert(classNode, insertedMethod, depCollector, result);
-            classNode.methods.add(insertedMethod);
-            result.incrementTransformerCount();
-        }
+    /**
+     * Creates a class visitor which applies the pre/post transform hooks of this transformer while streaming.
+     *
+     * @param classVisitor The class visitor to delegate to
+     * @param result       The result of the transformation
+     * @return The hook visitor or null if this transformer has no streaming hooks
+     * @see DowngradingClassVisitor
+     */
+    protected ClassVisitor createHookVisitor(final ClassVisitor classVisitor, final DowngradeResult result) {
+        return null;
+    }
 
-        if (!this.classReplacements.isEmpty()) {
-            final ClassNode remappedNode = new ClassNode();
-            final ClassRemapper classRemapper = new ClassRemapper(remappedNode, new Remapper() {
-                @Override
-                public String map(String internalName) {
-                    final ClassReplacement replacement = classReplacements.get(internalName);
-                    if (replacement == null) {
-                        return internalName;
-                    }
-                    result.setRequiresStackMapFrames();
-                    if (replacement.includeDependency) {
-                        depCollector.accept(replacement.newName);
-                        replacement.extraDependencies.forEach(depCollector);
-                    }
-                    return replacement.newName;
-                }
-            });
-            classNode.accept(classRemapper);
-
-            // Modify the class inplace
-            for (Field field : ClassNode.class.getDeclaredFields()) {
-                if (Modifier.isStatic(field.getModifiers())) continue;
-                if (Modifier.isFinal(field.getModifiers())) continue;
-                if (!Modifier.isPublic(field.getModifiers())) continue;
-
-                try {
-                    field.set(classNode, field.get(remappedNode));
-                } catch (Throwable t) {
-                    throw new RuntimeException("Failed to merge class nodes", t);
-                }
-            }
-        }
+    public int getSourceVersion() {
+        return this.sourceVersion;
+    }
 
-        this.postTransform(classNode, result);
+    public int getTargetVersion() {
+        return this.targetVersion;
+    }
 
-        classNode.version = this.targetVersion;
+    boolean hasPreTransform() {
+        return this.hasPreTransform;
     }
 
-    protected void preTransform(final ClassNode classNode, final DowngradeResult result) {
+    boolean hasPostTransform() {
+        return this.hasPostTransform;
     }
 
-    protected void postTransform(final ClassNode classNode, final DowngradeResult result) {
+    Map<String, MethodCallReplacer> getMethodCallReplacers() {
+        return this.methodCallReplacers;
     }
 
-    public int getSourceVersion() {
-        return this.sourceVersion;
+    Map<String, MethodInserter> getMethodInserters() {
+        return this.methodInserters;
     }
 
-    public int getTargetVersion() {
-        return this.targetVersion;
+    Map<String, ClassReplacement> getClassReplacements() {
+        return this.classReplacements;
+    }
+
+    private boolean overridesHook(final String name) {
+        for (Class<?> type = this.getClass(); type != DowngradingTransformer.class; type = type.getSuperclass()) {
+            try {
+                type.getDeclaredMethod(name, ClassNode.class, DowngradeResult.class);
+                return true;
+            } catch (NoSuchMethodException ignored) {
+            }
+        }
+        return false;
+    }
+
+    private DowngradePlan getPlan() {
+        if (this.plan == null) {
+            this.plan = new DowngradePlan(Collections.singletonList(this));
+        }
+        return this.plan;
     }
 
     protected static final class ClassReplacement {
@@ -234,6 +189,14 @@ public abstract class DowngradingTransformer {
             this.extraDependencies = extraDependencies;
         }
 
+        String apply(final RuntimeDepCollector depCollector) {
+            if (this.includeDependency) {
+                depCollector.accept(this.newName);
+                this.extraDependencies.forEach(depCollector);
+            }
+            return this.newName;
+        }
+
         public static ClassReplacement ofAbsolute(String newName) {
             return new ClassReplacement(newName, true, Collections.emptyList());
         }
@@ -20,6 +20,10 @@ package net.raphimc.javadowngrader.transformer.j10;
 import net.raphimc.javadowngrader.transformer.DowngradeResult;
 import net.raphimc.javadowngrader.transformer.DowngradingTransformer;
 import net.raphimc.javadowngrader.transformer.j10.methodcallreplacer.*;
+import net.raphimc.javadowngrader.util.ConstantPoolScan;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldNode;
@@ -60,6 +64,46 @@ public class Java11ToJava10 extends DowngradingTransformer {
         this.makePackagePrivate(classNode);
     }
 
+    @Override
+    protected boolean requiresHooks(ConstantPoolScan scan) {
+        return scan.hasUtf8("NestHost") || scan.hasUtf8("NestMembers");
+    }
+
+    @Override
+    protected boolean hooksRequireTree(ConstantPoolScan scan) {
+        return false;
+    }
+
+    @Override
+    protected ClassVisitor createHookVisitor(ClassVisitor classVisitor, DowngradeResult result) {
+        return new ClassVisitor(Opcodes.ASM9, classVisitor) {
+            // The nest attributes are always visited before any field or method
+            private boolean isNestMate;
+
+            @Override
+            public void visitNestHost(String nestHost) {
+                this.isNestMate = true;
+            }
+
+            @Override
+            public void visitNestMember(String nestMember) {
+                this.isNestMate = true;
+            }
+
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+                if (this.isNestMate) access &= ~Opcodes.ACC_PRIVATE;
+                return super.visitField(access, name, descriptor, signature, value);
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                if (this.isNestMate) access &= ~Opcodes.ACC_PRIVATE;
+                return super.visitMethod(access, name, descriptor, signature, exceptions);
+            }
+        };
+    }
+
     private void makePackagePrivate(final ClassNode classNode) {
         if (classNode.nestHostClass == null && classNode.nestMembers == null) return;
         for (final MethodNode methodNode : classNode.methods) {
@@ -30,12 +30,12 @@ public class StringIsBlankMCR implements MethodCallReplacer {
 
     @Override
     public InsnList getReplacement(ClassNode classNode, MethodNode methodNode, String originalName, String originalDesc, RuntimeDepCollector depCollector, DowngradeResult result) {
+        depCollector.accept("net/raphimc/javadowngrader/runtime/java/lang/StringMethods");
+
         final InsnList replacement = new InsnList();
 
         // String
-        replacement.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/String", "trim", "()Ljava/lang/String;"));
-        // String
-        replacement.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/String", "isEmpty", "()Z"));
+        replacement.add(new MethodInsnNode(Opcodes.INVOKESTATIC, "net/raphimc/javadowngrader/runtime/java/lang/StringMethods", "isBlank", "(Ljava/lang/String;)Z"));
         // boolean
 
         return replacement;
@@ -27,14 +27,12 @@ public class StringStripMCR implements MethodCallReplacer {
 
     @Override
     public InsnList getReplacement(ClassNode classNode, MethodNode methodNode, String originalName, String originalDesc, RuntimeDepCollector depCollector, DowngradeResult result) {
+        depCollector.accept("net/raphimc/javadowngrader/runtime/java/lang/StringMethods");
+
         final InsnList replacement = new InsnList();
 
         // String
-        replacement.add(new LdcInsnNode("^\\s++|\\s++$"));
-        // String String
-        replacement.add(new LdcInsnNode(""));
-        // String String String
-        replacement.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/String", "replaceAll", "(Ljava/lang/String;Ljava/lang/String;)Ljava/lang/String;"));
+        replacement.add(new MethodInsnNode(Opcodes.INVOKESTATIC, "net/raphimc/javadowngrader/runtime/java/lang/StringMethods", "strip", "(Ljava/lang/String;)Ljava/lang/String;"));
         // String
 
         return replacement;
@@ -27,14 +27,12 @@ public class StringStripTrailingMCR implements MethodCallReplacer {
 
     @Override
     public InsnList getReplacement(ClassNode classNode, MethodNode methodNode, String originalName, String originalDesc, RuntimeDepCollector depCollector, DowngradeResult result) {
+        depCollector.accept("net/raphimc/javadowngrader/runtime/java/lang/StringMethods");
+
         final InsnList replacement = new InsnList();
 
         // String
-        replacement.add(new LdcInsnNode("\\s++$"));
-        // String String
-        replacement.add(new LdcInsnNode(""));
-        // String String String
-        replacement.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/String", "replaceFirst", "(Ljava/lang/String;Ljava/lang/String;)Ljava/lang/String;"));
+        replacement.add(new MethodInsnNode(Opcodes.INVOKESTATIC, "net/raphimc/javadowngrader/runtime/java/lang/StringMethods", "stripTrailing", "(Ljava/lang/String;)Ljava/lang/String;"));
         // String
 
         return replacement;
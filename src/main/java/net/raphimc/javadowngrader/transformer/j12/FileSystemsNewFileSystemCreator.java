@@ -17,18 +17,38 @@
  */
 package net.raphimc.javadowngrader.transformer.j12;
 
+import net.raphimc.javadowngrader.RuntimeDepCollector;
+import net.raphimc.javadowngrader.transformer.DowngradeResult;
 import net.raphimc.javadowngrader.util.ASMUtil;
+import net.raphimc.javadowngrader.util.RuntimeDeps;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
 
 public class FileSystemsNewFileSystemCreator {
 
     public static final String NEWFILESYSTEM_NAME = "javadowngrader-newFileSystem";
     public static final String NEWFILESYSTEM_DESC = "(Ljava/nio/file/Path;Ljava/util/Map;Ljava/lang/ClassLoader;)Ljava/nio/file/FileSystem;";
 
+    /**
+     * Creates a call to the newFileSystem helper. The helper is copied into the given class, unless the collector requests
+     * {@link RuntimeDepCollector#useSharedHelpers() shared helpers}.
+     */
+    public static MethodInsnNode createCall(final ClassNode classNode, final RuntimeDepCollector depCollector, final DowngradeResult result) {
+        if (depCollector.useSharedHelpers()) {
+            depCollector.accept(RuntimeDeps.FILE_SYSTEMS_METHODS);
+            return new MethodInsnNode(Opcodes.INVOKESTATIC, RuntimeDeps.FILE_SYSTEMS_METHODS, "newFileSystem", NEWFILESYSTEM_DESC);
+        }
+
+        if (ensureHasMethod(classNode)) {
+            result.setRequiresStackMapFrames();
+        }
+        return new MethodInsnNode(Opcodes.INVOKESTATIC, classNode.name, NEWFILESYSTEM_NAME, NEWFILESYSTEM_DESC);
+    }
+
     public static boolean ensureHasMethod(final ClassNode classNode) {
         if (ASMUtil.hasMethod(classNode, NEWFILESYSTEM_NAME, NEWFILESYSTEM_DESC)) return false;
 
@@ -24,9 +24,6 @@ import net.raphimc.javadowngrader.transformer.j12.FileSystemsNewFileSystemCreato
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.*;
 
-import static net.raphimc.javadowngrader.transformer.j12.FileSystemsNewFileSystemCreator.NEWFILESYSTEM_DESC;
-import static net.raphimc.javadowngrader.transformer.j12.FileSystemsNewFileSystemCreator.NEWFILESYSTEM_NAME;
-
 public class FileSystemsNewFileSystemMCR implements MethodCallReplacer {
 
     private final int arity;
@@ -37,10 +34,6 @@ public class FileSystemsNewFileSystemMCR implements MethodCallReplacer {
 
     @Override
     public InsnList getReplacement(ClassNode classNode, MethodNode method, String originalName, String originalDesc, RuntimeDepCollector depCollector, DowngradeResult result) {
-        if (FileSystemsNewFileSystemCreator.ensureHasMethod(classNode)) {
-            result.setRequiresStackMapFrames();
-        }
-
         final InsnList replacement = new InsnList();
         if (arity < 2) {
             replacement.add(new MethodInsnNode(Opcodes.INVOKESTATIC, "java/util/Map", "of", "()Ljava/util/Map;"));
@@ -48,7 +41,7 @@ public class FileSystemsNewFileSystemMCR implements MethodCallReplacer {
         if (arity < 3) {
             replacement.add(new InsnNode(Opcodes.ACONST_NULL));
         }
-        replacement.add(new MethodInsnNode(Opcodes.INVOKESTATIC, classNode.name, NEWFILESYSTEM_NAME, NEWFILESYSTEM_DESC));
+        replacement.add(FileSystemsNewFileSystemCreator.createCall(classNode, depCollector, result));
         return replacement;
     }
 
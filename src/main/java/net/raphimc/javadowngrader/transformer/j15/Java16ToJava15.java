@@ -20,8 +20,10 @@ package net.raphimc.javadowngrader.transformer.j15;
 import net.raphimc.javadowngrader.transformer.DowngradeResult;
 import net.raphimc.javadowngrader.transformer.DowngradingTransformer;
 import net.raphimc.javadowngrader.transformer.j15.methodcallreplacer.StreamToListMCR;
+import net.raphimc.javadowngrader.util.ConstantPoolScan;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
 
 public class Java16ToJava15 extends DowngradingTransformer {
 
@@ -36,8 +38,16 @@ public class Java16ToJava15 extends DowngradingTransformer {
     @Override
     protected void preTransform(ClassNode classNode, DowngradeResult result) {
         if (RecordReplacer.replace(classNode)) {
+            for (MethodNode methodNode : classNode.methods) {
+                result.markModified(methodNode);
+            }
             result.setRequiresStackMapFrames();
         }
     }
 
+    @Override
+    protected boolean requiresHooks(ConstantPoolScan scan) {
+        return scan.hasUtf8("java/lang/Record");
+    }
+
 }
@@ -22,6 +22,7 @@ import net.raphimc.javadowngrader.util.Constants;
 import org.objectweb.asm.*;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InnerClassNode;
 import org.objectweb.asm.tree.InvokeDynamicInsnNode;
 import org.objectweb.asm.tree.MethodNode;
 
@@ -34,6 +35,7 @@ public class RecordReplacer {
     private static final String TOSTRING_DESC = "()Ljava/lang/String;";
 
     private static final Map<String, String> PRIMITIVE_WRAPPERS = new HashMap<>();
+    private static final Map<String, Integer> TOSTRING_LENGTH_ESTIMATES = new HashMap<>();
 
     static {
         PRIMITIVE_WRAPPERS.put("V", Type.getInternalName(Void.class));
@@ -45,6 +47,15 @@ public class RecordReplacer {
         PRIMITIVE_WRAPPERS.put("F", Type.getInternalName(Float.class));
         PRIMITIVE_WRAPPERS.put("J", Type.getInternalName(Long.class));
         PRIMITIVE_WRAPPERS.put("D", Type.getInternalName(Double.class));
+
+        TOSTRING_LENGTH_ESTIMATES.put("Z", 5);
+        TOSTRING_LENGTH_ESTIMATES.put("B", 4);
+        TOSTRING_LENGTH_ESTIMATES.put("S", 6);
+        TOSTRING_LENGTH_ESTIMATES.put("C", 1);
+        TOSTRING_LENGTH_ESTIMATES.put("I", 11);
+        TOSTRING_LENGTH_ESTIMATES.put("F", 15);
+        TOSTRING_LENGTH_ESTIMATES.put("J", 20);
+        TOSTRING_LENGTH_ESTIMATES.put("D", 24);
     }
 
     public static boolean replace(final ClassNode classNode) {
@@ -175,60 +186,32 @@ public class RecordReplacer {
             final MethodVisitor toString = classNode.visitMethod(Opcodes.ACC_PUBLIC, "toString", TOSTRING_DESC, null, null);
             toString.visitCode();
 
-            final StringBuilder formatString = new StringBuilder("%s[");
-            for (int i = 0; i < classNode.recordComponents.size(); i++) {
-                formatString.append(classNode.recordComponents.get(i).name).append("=%s");
-                if (i != classNode.recordComponents.size() - 1) {
-                    formatString.append(", ");
+            // Same output as ObjectMethods: SimpleName[a=..., b=...]. Adjacent constants are folded into one append
+            String constant = getSimpleName(classNode) + "[";
+            if (toStringFields.length == 0) {
+                toString.visitLdcInsn(constant + "]");
+            } else {
+                int capacity = constant.length() + 1;
+                for (RecordField field : toStringFields) {
+                    capacity += field.name.length() + 3 + TOSTRING_LENGTH_ESTIMATES.getOrDefault(field.descriptor, 16);
                 }
-            }
-            formatString.append(']');
 
-            toString.visitLdcInsn(formatString.toString());
-            toString.visitIntInsn(Opcodes.SIPUSH, classNode.recordComponents.size() + 1);
-            toString.visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/Object");
-            toString.visitInsn(Opcodes.DUP);
-            toString.visitInsn(Opcodes.ICONST_0);
-            toString.visitVarInsn(Opcodes.ALOAD, 0);
-            toString.visitMethodInsn(
-                    Opcodes.INVOKEVIRTUAL,
-                    "java/lang/Object",
-                    "getClass",
-                    "()Ljava/lang/Class;",
-                    false
-            );
-            toString.visitMethodInsn(
-                    Opcodes.INVOKEVIRTUAL,
-                    "java/lang/Class",
-                    "getSimpleName",
-                    "()Ljava/lang/String;",
-                    false
-            );
-            toString.visitInsn(Opcodes.AASTORE);
-            int i = 1;
-            for (RecordField field : toStringFields) {
+                toString.visitTypeInsn(Opcodes.NEW, "java/lang/StringBuilder");
                 toString.visitInsn(Opcodes.DUP);
-                toString.visitIntInsn(Opcodes.SIPUSH, i);
-                toString.visitVarInsn(Opcodes.ALOAD, 0);
-                toString.visitFieldInsn(Opcodes.GETFIELD, classNode.name, field.name, field.descriptor);
-                final String owner = PRIMITIVE_WRAPPERS.get(field.descriptor);
-                toString.visitMethodInsn(
-                        Opcodes.INVOKESTATIC,
-                        owner != null ? owner : "java/util/Objects",
-                        "toString",
-                        "(" + (owner != null ? field.descriptor : "Ljava/lang/Object;") + ")Ljava/lang/String;",
-                        false
-                );
-                toString.visitInsn(Opcodes.AASTORE);
-                i++;
+                toString.visitIntInsn(Opcodes.SIPUSH, Math.min(capacity, Short.MAX_VALUE));
+                toString.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "(I)V", false);
+                for (RecordField field : toStringFields) {
+                    toString.visitLdcInsn(constant + field.name + "=");
+                    toString.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+                    toString.visitVarInsn(Opcodes.ALOAD, 0);
+                    toString.visitFieldInsn(Opcodes.GETFIELD, classNode.name, field.name, field.descriptor);
+                    toString.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(" + getAppendDescriptor(field.descriptor) + ")Ljava/lang/StringBuilder;", false);
+                    constant = ", ";
+                }
+                toString.visitIntInsn(Opcodes.BIPUSH, ']');
+                toString.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(C)Ljava/lang/StringBuilder;", false);
+                toString.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;", false);
             }
-            toString.visitMethodInsn(
-                    Opcodes.INVOKESTATIC,
-                    "java/lang/String",
-                    "format",
-                    "(Ljava/lang/String;[Ljava/lang/Object;)Ljava/lang/String;",
-                    false
-            );
             toString.visitInsn(Opcodes.ARETURN);
 
             toString.visitEnd();
@@ -238,6 +221,33 @@ public class RecordReplacer {
         return true;
     }
 
+    private static String getSimpleName(final ClassNode classNode) {
+        for (InnerClassNode innerClass : classNode.innerClasses) {
+            if (innerClass.name.equals(classNode.name)) {
+                return innerClass.innerName != null ? innerClass.innerName : "";
+            }
+        }
+        return classNode.name.substring(classNode.name.lastIndexOf('/') + 1);
+    }
+
+    private static String getAppendDescriptor(final String descriptor) {
+        switch (descriptor) {
+            case "Z":
+            case "C":
+            case "I":
+            case "J":
+            case "F":
+            case "D":
+            case "Ljava/lang/String;":
+                return descriptor;
+            case "B":
+            case "S":
+                return "I";
+            default: // Arrays (including char[]) have to go through String.valueOf(Object)
+                return "Ljava/lang/Object;";
+        }
+    }
+
     private static RecordField[] getFields(final MethodNode method) {
         for (AbstractInsnNode instruction : method.instructions) {
             if (!(instruction instanceof InvokeDynamicInsnNode)) continue;
@@ -20,6 +20,7 @@ package net.raphimc.javadowngrader.transformer.j15.methodcallreplacer;
 import net.raphimc.javadowngrader.RuntimeDepCollector;
 import net.raphimc.javadowngrader.transformer.DowngradeResult;
 import net.raphimc.javadowngrader.transformer.MethodCallReplacer;
+import net.raphimc.javadowngrader.util.RuntimeDeps;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.*;
 
@@ -27,16 +28,14 @@ public class StreamToListMCR implements MethodCallReplacer {
 
     @Override
     public InsnList getReplacement(ClassNode classNode, MethodNode methodNode, String originalName, String originalDesc, RuntimeDepCollector depCollector, DowngradeResult result) {
+        RuntimeDeps.collectImmutableCollections(depCollector);
+
         final InsnList replacement = new InsnList();
 
         // Stream
-        replacement.add(new MethodInsnNode(Opcodes.INVOKESTATIC, "java/util/stream/Collectors", "toList", "()Ljava/util/stream/Collector;"));
-        // Stream Collector
-        replacement.add(new MethodInsnNode(Opcodes.INVOKEINTERFACE, "java/util/stream/Stream", "collect", "(Ljava/util/stream/Collector;)Ljava/lang/Object;"));
-        // Object
-        replacement.add(new TypeInsnNode(Opcodes.CHECKCAST, "java/util/List"));
-        // List
-        replacement.add(new MethodInsnNode(Opcodes.INVOKESTATIC, "java/util/Collections", "unmodifiableList", "(Ljava/util/List;)Ljava/util/List;"));
+        replacement.add(new MethodInsnNode(Opcodes.INVOKEINTERFACE, "java/util/stream/Stream", "toArray", "()[Ljava/lang/Object;"));
+        // Object[]
+        replacement.add(new MethodInsnNode(Opcodes.INVOKESTATIC, RuntimeDeps.IMMUTABLE_COLLECTIONS, "listFromTrustedArrayNullsAllowed", "([Ljava/lang/Object;)Ljava/util/List;"));
         // List
 
         return replacement;
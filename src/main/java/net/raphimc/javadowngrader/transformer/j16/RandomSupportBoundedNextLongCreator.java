@@ -17,17 +17,37 @@
  */
 package net.raphimc.javadowngrader.transformer.j16;
 
+import net.raphimc.javadowngrader.RuntimeDepCollector;
+import net.raphimc.javadowngrader.transformer.DowngradeResult;
 import net.raphimc.javadowngrader.util.ASMUtil;
+import net.raphimc.javadowngrader.util.RuntimeDeps;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
 
 public class RandomSupportBoundedNextLongCreator {
 
     public static final String BOUNDEDNEXTLONG_NAME = "javadowngrader-boundedNextLong";
     public static final String BOUNDEDNEXTLONG_DESC = "(Ljava/util/Random;J)J";
 
+    /**
+     * Creates a call to the boundedNextLong helper. The helper is copied into the given class, unless the collector requests
+     * {@link RuntimeDepCollector#useSharedHelpers() shared helpers}.
+     */
+    public static MethodInsnNode createCall(final ClassNode classNode, final RuntimeDepCollector depCollector, final DowngradeResult result) {
+        if (depCollector.useSharedHelpers()) {
+            depCollector.accept(RuntimeDeps.RANDOM_SUPPORT);
+            return new MethodInsnNode(Opcodes.INVOKESTATIC, RuntimeDeps.RANDOM_SUPPORT, "boundedNextLong", BOUNDEDNEXTLONG_DESC);
+        }
+
+        if (ensureHasMethod(classNode)) {
+            result.setRequiresStackMapFrames();
+        }
+        return new MethodInsnNode(Opcodes.INVOKESTATIC, classNode.name, BOUNDEDNEXTLONG_NAME, BOUNDEDNEXTLONG_DESC);
+    }
+
     public static boolean ensureHasMethod(final ClassNode classNode) {
         if (ASMUtil.hasMethod(classNode, BOUNDEDNEXTLONG_NAME, BOUNDEDNEXTLONG_DESC)) return false;
 
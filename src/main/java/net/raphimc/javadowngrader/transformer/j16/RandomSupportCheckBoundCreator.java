@@ -17,11 +17,15 @@
  */
 package net.raphimc.javadowngrader.transformer.j16;
 
+import net.raphimc.javadowngrader.RuntimeDepCollector;
+import net.raphimc.javadowngrader.transformer.DowngradeResult;
 import net.raphimc.javadowngrader.util.ASMUtil;
+import net.raphimc.javadowngrader.util.RuntimeDeps;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
 
 public class RandomSupportCheckBoundCreator {
 
@@ -30,6 +34,22 @@ public class RandomSupportCheckBoundCreator {
     public static final String CHECKBOUND_NAME = "javadowngrader-checkBound";
     public static final String CHECKBOUND_DESC = "(J)V";
 
+    /**
+     * Creates a call to the checkBound helper. The helper is copied into the given class, unless the collector requests
+     * {@link RuntimeDepCollector#useSharedHelpers() shared helpers}.
+     */
+    public static MethodInsnNode createCall(final ClassNode classNode, final RuntimeDepCollector depCollector, final DowngradeResult result) {
+        if (depCollector.useSharedHelpers()) {
+            depCollector.accept(RuntimeDeps.RANDOM_SUPPORT);
+            return new MethodInsnNode(Opcodes.INVOKESTATIC, RuntimeDeps.RANDOM_SUPPORT, "checkBound", CHECKBOUND_DESC);
+        }
+
+        if (ensureHasMethod(classNode)) {
+            result.setRequiresStackMapFrames();
+        }
+        return new MethodInsnNode(Opcodes.INVOKESTATIC, classNode.name, CHECKBOUND_NAME, CHECKBOUND_DESC);
+    }
+
     public static boolean ensureHasMethod(final ClassNode classNode) {
         if (ASMUtil.hasMethod(classNode, CHECKBOUND_NAME, CHECKBOUND_DESC)) return false;
 
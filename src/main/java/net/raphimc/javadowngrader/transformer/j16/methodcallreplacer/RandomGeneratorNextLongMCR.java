@@ -25,31 +25,18 @@ import net.raphimc.javadowngrader.transformer.j16.RandomSupportCheckBoundCreator
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.*;
 
-import static net.raphimc.javadowngrader.transformer.j16.RandomSupportBoundedNextLongCreator.BOUNDEDNEXTLONG_DESC;
-import static net.raphimc.javadowngrader.transformer.j16.RandomSupportBoundedNextLongCreator.BOUNDEDNEXTLONG_NAME;
-import static net.raphimc.javadowngrader.transformer.j16.RandomSupportCheckBoundCreator.CHECKBOUND_DESC;
-import static net.raphimc.javadowngrader.transformer.j16.RandomSupportCheckBoundCreator.CHECKBOUND_NAME;
-
 public class RandomGeneratorNextLongMCR implements MethodCallReplacer {
 
     @Override
     public InsnList getReplacement(ClassNode classNode, MethodNode method, String originalName, String originalDesc, RuntimeDepCollector depCollector, DowngradeResult result) {
         final InsnList replacement = new InsnList();
 
-        if (RandomSupportCheckBoundCreator.ensureHasMethod(classNode)) {
-            result.setRequiresStackMapFrames();
-        }
-        if (RandomSupportBoundedNextLongCreator.ensureHasMethod(classNode)) {
-            result.setRequiresStackMapFrames();
-        }
-
-
         // Random long1 long2
         replacement.add(new InsnNode(Opcodes.DUP2));
         // Random long1 long2 long1 long2
-        replacement.add(new MethodInsnNode(Opcodes.INVOKESTATIC, classNode.name, CHECKBOUND_NAME, CHECKBOUND_DESC));
+        replacement.add(RandomSupportCheckBoundCreator.createCall(classNode, depCollector, result));
         // Random long1 long2
-        replacement.add(new MethodInsnNode(Opcodes.INVOKESTATIC, classNode.name, BOUNDEDNEXTLONG_NAME, BOUNDEDNEXTLONG_DESC));
+        replacement.add(RandomSupportBoundedNextLongCreator.createCall(classNode, depCollector, result));
         // long1 long2
 
         return replacement;
@@ -17,17 +17,37 @@
  */
 package net.raphimc.javadowngrader.transformer.j8;
 
+import net.raphimc.javadowngrader.RuntimeDepCollector;
+import net.raphimc.javadowngrader.transformer.DowngradeResult;
 import net.raphimc.javadowngrader.util.ASMUtil;
+import net.raphimc.javadowngrader.util.RuntimeDeps;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
 
 public class InputStreamTransferToCreator {
 
     public static final String TRANSFERTO_NAME = "javadowngrader-transferTo";
     public static final String TRANSFERTO_DESC = "(Ljava/io/InputStream;Ljava/io/OutputStream;)J";
 
+    /**
+     * Creates a call to the transferTo helper. The helper is copied into the given class, unless the collector requests
+     * {@link RuntimeDepCollector#useSharedHelpers() shared helpers}.
+     */
+    public static MethodInsnNode createCall(final ClassNode classNode, final RuntimeDepCollector depCollector, final DowngradeResult result) {
+        if (depCollector.useSharedHelpers()) {
+            depCollector.accept(RuntimeDeps.INPUT_STREAM_METHODS);
+            return new MethodInsnNode(Opcodes.INVOKESTATIC, RuntimeDeps.INPUT_STREAM_METHODS, "transferTo", TRANSFERTO_DESC);
+        }
+
+        if (ensureHasMethod(classNode)) {
+            result.setRequiresStackMapFrames();
+        }
+        return new MethodInsnNode(Opcodes.INVOKESTATIC, classNode.name, TRANSFERTO_NAME, TRANSFERTO_DESC);
+    }
+
     public static boolean ensureHasMethod(final ClassNode classNode) {
         if (ASMUtil.hasMethod(classNode, TRANSFERTO_NAME, TRANSFERTO_DESC)) return false;
 
@@ -43,6 +43,9 @@ import net.raphimc.javadowngrader.transformer.j8.methodinserter.PathEndsWithMI;
 import net.raphimc.javadowngrader.transformer.j8.methodinserter.PathResolveMI;
 import net.raphimc.javadowngrader.transformer.j8.methodinserter.PathStartsWithMI;
 import net.raphimc.javadowngrader.transformer.j8.methodinserter.PathToFileMI;
+import net.raphimc.javadowngrader.util.ConstantPoolScan;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.MethodNode;
@@ -120,6 +123,46 @@ public class Java9ToJava8 extends DowngradingTransformer {
         this.makeInterfaceMethodsPublic(classNode);
     }
 
+    @Override
+    protected boolean requiresHooks(ConstantPoolScan scan) {
+        return scan.hasUtf8("java/lang/invoke/StringConcatFactory") || (scan.isInterface() && scan.hasPrivateMethods());
+    }
+
+    @Override
+    protected boolean hooksRequireTree(ConstantPoolScan scan) {
+        return false;
+    }
+
+    @Override
+    protected ClassVisitor createHookVisitor(ClassVisitor classVisitor, DowngradeResult result) {
+        return new ClassVisitor(Opcodes.ASM9, classVisitor) {
+            private boolean isInterface;
+
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                this.isInterface = (access & Opcodes.ACC_INTERFACE) != 0;
+                super.visit(version, access, name, signature, superName, interfaces);
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                if (this.isInterface) {
+                    access = (access & ~Opcodes.ACC_PRIVATE) | Opcodes.ACC_PUBLIC;
+                }
+                final MethodVisitor methodVisitor = super.visitMethod(access, name, descriptor, signature, exceptions);
+                if (methodVisitor == null) return null;
+
+                return new MethodNode(Opcodes.ASM9, access, name, descriptor, signature, exceptions) {
+                    @Override
+                    public void visitEnd() {
+                        StringConcatFactoryReplacer.replace(this);
+                        this.accept(methodVisitor);
+                    }
+                };
+            }
+        };
+    }
+
     private void makeInterfaceMethodsPublic(final ClassNode classNode) {
         if ((classNode.access & Opcodes.ACC_INTERFACE) != 0) {
             for (MethodNode method : classNode.methods) {
@@ -22,7 +22,9 @@ import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class StringConcatFactoryReplacer {
 
@@ -31,83 +33,196 @@ public class StringConcatFactoryReplacer {
 
     public static void replace(final ClassNode classNode) {
         for (MethodNode methodNode : classNode.methods) {
-            for (AbstractInsnNode instruction : methodNode.instructions.toArray()) {
-                if (instruction.getOpcode() == Opcodes.INVOKEDYNAMIC) {
-                    final InvokeDynamicInsnNode insn = (InvokeDynamicInsnNode) instruction;
-                    if (insn.bsm.getOwner().equals("java/lang/invoke/StringConcatFactory") && insn.bsm.getName().equals("makeConcatWithConstants")) {
-                        final String pattern = (String) insn.bsmArgs[0];
-                        final Type[] stackArgs = Type.getArgumentTypes(insn.desc);
-                        final Object[] bsmArgs = Arrays.copyOfRange(insn.bsmArgs, 1, insn.bsmArgs.length);
-                        final int stackArgsCount = count(pattern, STACK_ARG_CONSTANT);
-                        final int bsmArgsCount = count(pattern, BSM_ARG_CONSTANT);
-
-                        if (stackArgs.length != stackArgsCount) throw new IllegalStateException("Stack args count does not match");
-                        if (bsmArgs.length != bsmArgsCount) throw new IllegalStateException("BSM args count does not match");
-
-                        int freeVarIndex = ASMUtil.getFreeVarIndex(methodNode);
-                        final int[] stackIndices = new int[stackArgsCount];
-                        for (int i = 0; i < stackArgs.length; i++) {
-                            stackIndices[i] = freeVarIndex;
-                            freeVarIndex += stackArgs[i].getSize();
-                        }
-                        for (int i = stackIndices.length - 1; i >= 0; i--) {
-                            methodNode.instructions.insertBefore(insn, new VarInsnNode(stackArgs[i].getOpcode(Opcodes.ISTORE), stackIndices[i]));
-                        }
-
-                        final InsnList converted = convertStringConcatFactory(pattern, stackArgs, stackIndices, bsmArgs);
-                        methodNode.instructions.insertBefore(insn, converted);
-                        methodNode.instructions.remove(insn);
-                    }
+            replace(methodNode);
+        }
+    }
+
+    public static void replace(final MethodNode methodNode) {
+        for (AbstractInsnNode instruction : methodNode.instructions.toArray()) {
+            if (instruction.getOpcode() == Opcodes.INVOKEDYNAMIC) {
+                final InvokeDynamicInsnNode insn = (InvokeDynamicInsnNode) instruction;
+                if (insn.bsm.getOwner().equals("java/lang/invoke/StringConcatFactory") && insn.bsm.getName().equals("makeConcatWithConstants")) {
+                    final String pattern = (String) insn.bsmArgs[0];
+                    final Type[] stackArgs = Type.getArgumentTypes(insn.desc);
+                    final Object[] bsmArgs = Arrays.copyOfRange(insn.bsmArgs, 1, insn.bsmArgs.length);
+                    final int stackArgsCount = count(pattern, STACK_ARG_CONSTANT);
+                    final int bsmArgsCount = count(pattern, BSM_ARG_CONSTANT);
+
+                    if (stackArgs.length != stackArgsCount) throw new IllegalStateException("Stack args count does not match");
+                    if (bsmArgs.length != bsmArgsCount) throw new IllegalStateException("BSM args count does not match");
+
+                    final InsnList converted = convertStringConcatFactory(methodNode, pattern, stackArgs, bsmArgs);
+                    methodNode.instructions.insertBefore(insn, converted);
+                    methodNode.instructions.remove(insn);
                 }
             }
         }
     }
 
-    private static InsnList convertStringConcatFactory(final String pattern, final Type[] stackArgs, final int[] stackIndices, final Object[] bsmArgs) {
+    private static InsnList convertStringConcatFactory(final MethodNode methodNode, final String pattern, final Type[] stackArgs, final Object[] bsmArgs) {
+        final List<Object> parts = getParts(pattern, bsmArgs);
         final InsnList insns = new InsnList();
-        final char[] chars = pattern.toCharArray();
-        int stackArgsIndex = 0;
-        int bsmArgsIndex = 0;
-        StringBuilder partBuilder = new StringBuilder();
+
+        if (stackArgs.length == 0 && parts.size() <= 1 && (parts.isEmpty() || parts.get(0) instanceof String)) {
+            insns.add(new LdcInsnNode(parts.isEmpty() ? "" : parts.get(0)));
+            return insns;
+        } else if (parts.size() == 1 && parts.get(0) instanceof StackArg) {
+            insns.add(new MethodInsnNode(Opcodes.INVOKESTATIC, "java/lang/String", "valueOf", "(" + getValueOfDescriptor(stackArgs[0]) + ")Ljava/lang/String;"));
+            return insns;
+        }
+
+        // The first stack arg stays on the stack and gets swapped with the StringBuilder, only the following ones are stored
+        int freeVarIndex = ASMUtil.getFreeVarIndex(methodNode);
+        final int[] stackIndices = new int[stackArgs.length];
+        for (int i = 1; i < stackArgs.length; i++) {
+            stackIndices[i] = freeVarIndex;
+            freeVarIndex += stackArgs[i].getSize();
+        }
+        for (int i = stackIndices.length - 1; i >= 1; i--) {
+            insns.add(new VarInsnNode(stackArgs[i].getOpcode(Opcodes.ISTORE), stackIndices[i]));
+        }
+
+        int capacity = 0;
+        for (Object part : parts) {
+            if (part instanceof String) {
+                capacity += ((String) part).length();
+            } else if (part instanceof StackArg) {
+                capacity += estimateLength(stackArgs[((StackArg) part).index]);
+            } else {
+                capacity += 16;
+            }
+        }
 
         insns.add(new TypeInsnNode(Opcodes.NEW, "java/lang/StringBuilder"));
         insns.add(new InsnNode(Opcodes.DUP));
-        insns.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "()V"));
-        for (char c : chars) {
-            if (c == STACK_ARG_CONSTANT) {
-                if (partBuilder.length() != 0) {
-                    insns.add(new LdcInsnNode(partBuilder.toString()));
-                    insns.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;"));
-                    partBuilder = new StringBuilder();
+        insns.add(pushInt(capacity));
+        insns.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "(I)V"));
+        for (Object part : parts) {
+            if (part instanceof StackArg) {
+                final int index = ((StackArg) part).index;
+                final Type stackArg = stackArgs[index];
+                if (index == 0) {
+                    if (stackArg.getSize() == 1) {
+                        insns.add(new InsnNode(Opcodes.SWAP));
+                    } else {
+                        insns.add(new InsnNode(Opcodes.DUP_X2));
+                        insns.add(new InsnNode(Opcodes.POP));
+                    }
+                } else {
+                    insns.add(new VarInsnNode(stackArg.getOpcode(Opcodes.ILOAD), stackIndices[index]));
                 }
-
-                final Type stackArg = stackArgs[stackArgsIndex++];
-                final int stackIndex = stackIndices[stackArgsIndex - 1];
-                if (stackArg.getSort() == Type.OBJECT) {
-                    insns.add(new VarInsnNode(Opcodes.ALOAD, stackIndex));
-                    insns.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/Object;)Ljava/lang/StringBuilder;"));
-                } else if (stackArg.getSort() == Type.ARRAY) {
-                    insns.add(new VarInsnNode(Opcodes.ALOAD, stackIndex));
-                    insns.add(new MethodInsnNode(Opcodes.INVOKESTATIC, "java/util/Arrays", "toString", "([Ljava/lang/Object;)Ljava/lang/String;"));
+                insns.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(" + getAppendDescriptor(stackArg) + ")Ljava/lang/StringBuilder;"));
+            } else if (part instanceof String) {
+                final String constant = (String) part;
+                if (constant.length() == 1) {
+                    insns.add(pushInt(constant.charAt(0)));
+                    insns.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(C)Ljava/lang/StringBuilder;"));
+                } else {
+                    insns.add(new LdcInsnNode(constant));
                     insns.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;"));
+                }
+            } else {
+                insns.add(new LdcInsnNode(part));
+                final String descriptor;
+                if (part instanceof Integer) {
+                    descriptor = "I";
+                } else if (part instanceof Long) {
+                    descriptor = "J";
+                } else if (part instanceof Float) {
+                    descriptor = "F";
+                } else if (part instanceof Double) {
+                    descriptor = "D";
                 } else {
-                    insns.add(new VarInsnNode(stackArg.getOpcode(Opcodes.ILOAD), stackIndex));
-                    insns.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(" + stackArg.getDescriptor() + ")Ljava/lang/StringBuilder;"));
+                    descriptor = "Ljava/lang/Object;";
+                }
+                insns.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(" + descriptor + ")Ljava/lang/StringBuilder;"));
+            }
+        }
+        insns.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;"));
+
+        return insns;
+    }
+
+    /**
+     * Split the recipe into folded string constants, {@link StackArg}s and non-string bsm constants.
+     */
+    private static List<Object> getParts(final String pattern, final Object[] bsmArgs) {
+        final List<Object> parts = new ArrayList<>();
+        int stackArgsIndex = 0;
+        int bsmArgsIndex = 0;
+        StringBuilder partBuilder = new StringBuilder();
+
+        for (char c : pattern.toCharArray()) {
+            if (c == STACK_ARG_CONSTANT || (c == BSM_ARG_CONSTANT && !(bsmArgs[bsmArgsIndex] instanceof String))) {
+                if (partBuilder.length() != 0) {
+                    parts.add(partBuilder.toString());
+                    partBuilder = new StringBuilder();
                 }
+                parts.add(c == STACK_ARG_CONSTANT ? new StackArg(stackArgsIndex++) : bsmArgs[bsmArgsIndex++]);
             } else if (c == BSM_ARG_CONSTANT) {
-                insns.add(new LdcInsnNode(bsmArgs[bsmArgsIndex++]));
-                insns.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/Object;)Ljava/lang/StringBuilder;"));
+                partBuilder.append((String) bsmArgs[bsmArgsIndex++]);
             } else {
                 partBuilder.append(c);
             }
         }
         if (partBuilder.length() != 0) {
-            insns.add(new LdcInsnNode(partBuilder.toString()));
-            insns.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;"));
+            parts.add(partBuilder.toString());
         }
-        insns.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;"));
+        return parts;
+    }
 
-        return insns;
+    private static String getAppendDescriptor(final Type type) {
+        switch (type.getSort()) {
+            case Type.BYTE:
+            case Type.SHORT:
+                return "I";
+            case Type.OBJECT:
+                return type.getDescriptor().equals("Ljava/lang/String;") ? "Ljava/lang/String;" : "Ljava/lang/Object;";
+            case Type.ARRAY: // append(char[]) would append the content, the indy concat uses String.valueOf(Object)
+                return "Ljava/lang/Object;";
+            default:
+                return type.getDescriptor();
+        }
+    }
+
+    private static String getValueOfDescriptor(final Type type) {
+        final String descriptor = getAppendDescriptor(type);
+        return descriptor.equals("Ljava/lang/String;") ? "Ljava/lang/Object;" : descriptor;
+    }
+
+    private static int estimateLength(final Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+                return 5;
+            case Type.CHAR:
+                return 1;
+            case Type.BYTE:
+                return 4;
+            case Type.SHORT:
+                return 6;
+            case Type.INT:
+                return 11;
+            case Type.FLOAT:
+                return 15;
+            case Type.LONG:
+                return 20;
+            case Type.DOUBLE:
+                return 24;
+            default:
+                return 16;
+        }
+    }
+
+    private static AbstractInsnNode pushInt(final int value) {
+        if (value >= -1 && value <= 5) {
+            return new InsnNode(Opcodes.ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            return new IntInsnNode(Opcodes.BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            return new IntInsnNode(Opcodes.SIPUSH, value);
+        } else {
+            return new LdcInsnNode(value);
+        }
     }
 
     private static int count(final String s, final char search) {
@@ -119,4 +234,12 @@ public class StringConcatFactoryReplacer {
         return count;
     }
 
+    private static class StackArg {
+        private final int index;
+
+        private StackArg(final int index) {
+            this.index = index;
+        }
+    }
+
 }
@@ -24,17 +24,10 @@ import net.raphimc.javadowngrader.transformer.j8.InputStreamTransferToCreator;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.*;
 
-import static net.raphimc.javadowngrader.transformer.j8.InputStreamTransferToCreator.TRANSFERTO_DESC;
-import static net.raphimc.javadowngrader.transformer.j8.InputStreamTransferToCreator.TRANSFERTO_NAME;
-
 public class InputStreamReadAllBytesMCR implements MethodCallReplacer {
 
     @Override
     public InsnList getReplacement(ClassNode classNode, MethodNode methodNode, String originalName, String originalDesc, RuntimeDepCollector depCollector, DowngradeResult result) {
-        if (InputStreamTransferToCreator.ensureHasMethod(classNode)) {
-            result.setRequiresStackMapFrames();
-        }
-
         final InsnList replacement = new InsnList();
 
         // InputStream
@@ -46,7 +39,7 @@ public class InputStreamReadAllBytesMCR implements MethodCallReplacer {
         // InputStream ByteArrayOutputStream
         replacement.add(new InsnNode(Opcodes.DUP_X1));
         // ByteArrayOutputStream InputStream ByteArrayOutputStream
-        replacement.add(new MethodInsnNode(Opcodes.INVOKESTATIC, classNode.name, TRANSFERTO_NAME, TRANSFERTO_DESC));
+        replacement.add(InputStreamTransferToCreator.createCall(classNode, depCollector, result));
         // ByteArrayOutputStream long1 long2
         replacement.add(new InsnNode(Opcodes.POP2));
         // ByteArrayOutputStream
@@ -20,6 +20,7 @@ package net.raphimc.javadowngrader.transformer.j9.methodcallreplacer;
 import net.raphimc.javadowngrader.RuntimeDepCollector;
 import net.raphimc.javadowngrader.transformer.DowngradeResult;
 import net.raphimc.javadowngrader.transformer.MethodCallReplacer;
+import net.raphimc.javadowngrader.util.RuntimeDeps;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.*;
 
@@ -27,18 +28,12 @@ public class MapCopyOfMCR implements MethodCallReplacer {
 
     @Override
     public InsnList getReplacement(ClassNode classNode, MethodNode methodNode, String originalName, String originalDesc, RuntimeDepCollector depCollector, DowngradeResult result) {
+        RuntimeDeps.collectImmutableCollections(depCollector);
+
         final InsnList replacement = new InsnList();
 
         // Map
-        replacement.add(new TypeInsnNode(Opcodes.NEW, "java/util/HashMap"));
-        // Map HashMap?
-        replacement.add(new InsnNode(Opcodes.DUP_X1));
-        // HashMap? Map HashMap?
-        replacement.add(new InsnNode(Opcodes.SWAP));
-        // HashMap? HashMap? Map
-        replacement.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, "java/util/HashMap", "<init>", "(Ljava/util/Map;)V"));
-        // HashMap
-        replacement.add(new MethodInsnNode(Opcodes.INVOKESTATIC, "java/util/Collections", "unmodifiableMap", "(Ljava/util/Map;)Ljava/util/Map;"));
+        replacement.add(new MethodInsnNode(Opcodes.INVOKESTATIC, RuntimeDeps.IMMUTABLE_COLLECTIONS, "mapCopyOf", originalDesc));
         // Map
 
         return replacement;
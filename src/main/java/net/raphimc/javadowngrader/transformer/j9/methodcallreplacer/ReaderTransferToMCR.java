@@ -22,25 +22,16 @@ import net.raphimc.javadowngrader.RuntimeDepCollector;
 import net.raphimc.javadowngrader.transformer.DowngradeResult;
 import net.raphimc.javadowngrader.transformer.MethodCallReplacer;
 import net.raphimc.javadowngrader.transformer.j9.ReaderTransferToCreator;
-import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.InsnList;
-import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
 
-import static net.raphimc.javadowngrader.transformer.j9.ReaderTransferToCreator.TRANSFERTO_DESC;
-import static net.raphimc.javadowngrader.transformer.j9.ReaderTransferToCreator.TRANSFERTO_NAME;
-
 public class ReaderTransferToMCR implements MethodCallReplacer {
 
     @Override
     public InsnList getReplacement(ClassNode classNode, MethodNode methodNode, String originalName, String originalDesc, RuntimeDepCollector depCollector, DowngradeResult result) {
-        if (ReaderTransferToCreator.ensureHasMethod(classNode)) {
-            result.setRequiresStackMapFrames();
-        }
-
         final InsnList replacement = new InsnList();
-        replacement.add(new MethodInsnNode(Opcodes.INVOKESTATIC, classNode.name, TRANSFERTO_NAME, TRANSFERTO_DESC));
+        replacement.add(ReaderTransferToCreator.createCall(classNode, depCollector, result));
         return replacement;
     }
 
@@ -20,6 +20,7 @@ package net.raphimc.javadowngrader.transformer.j9.methodcallreplacer;
 import net.raphimc.javadowngrader.RuntimeDepCollector;
 import net.raphimc.javadowngrader.transformer.DowngradeResult;
 import net.raphimc.javadowngrader.transformer.MethodCallReplacer;
+import net.raphimc.javadowngrader.util.RuntimeDeps;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.*;
 
@@ -27,18 +28,12 @@ public class SetCopyOfMCR implements MethodCallReplacer {
 
     @Override
     public InsnList getReplacement(ClassNode classNode, MethodNode methodNode, String originalName, String originalDesc, RuntimeDepCollector depCollector, DowngradeResult result) {
+        RuntimeDeps.collectImmutableCollections(depCollector);
+
         final InsnList replacement = new InsnList();
 
         // Collection
-        replacement.add(new TypeInsnNode(Opcodes.NEW, "java/util/HashSet"));
-        // Collection HashSet?
-        replacement.add(new InsnNode(Opcodes.DUP_X1));
-        // HashSet? Collection HashSet?
-        replacement.add(new InsnNode(Opcodes.SWAP));
-        // HashSet? HashSet? Collection
-        replacement.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, "java/util/HashSet", "<init>", "(Ljava/util/Collection;)V"));
-        // HashSet
-        replacement.add(new MethodInsnNode(Opcodes.INVOKESTATIC, "java/util/Collections", "unmodifiableSet", "(Ljava/util/Set;)Ljava/util/Set;"));
+        replacement.add(new MethodInsnNode(Opcodes.INVOKESTATIC, RuntimeDeps.IMMUTABLE_COLLECTIONS, "setCopyOf", originalDesc));
         // Set
 
         return replacement;
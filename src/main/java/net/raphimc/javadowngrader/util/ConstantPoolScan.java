@@ -0,0 +1,278 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.util;
+
+import org.objectweb.asm.Opcodes;
+
+import java.util.*;
+
+/**
+ * A lightweight scan of a raw class file which collects the UTF8 constants and access flags without building a tree.
+ */
+public class ConstantPoolScan {
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private final int majorVersion;
+    private final int access;
+    private final String className;
+    private final String superName;
+    private final List<String> interfaces;
+    private final Set<String> utf8Constants;
+    private final boolean hasPrivateMethods;
+
+    private ConstantPoolScan(final int majorVersion, final int access, final String className, final String superName, final String[] interfaces, final Set<String> utf8Constants, final boolean hasPrivateMethods) {
+        this.majorVersion = majorVersion;
+        this.access = access;
+        this.className = className;
+        this.superName = superName;
+        this.interfaces = Collections.unmodifiableList(Arrays.asList(interfaces));
+        this.utf8Constants = utf8Constants;
+        this.hasPrivateMethods = hasPrivateMethods;
+    }
+
+    /**
+     * Scans the given class file
+     *
+     * @param bytecode The class file to scan
+     * @return The scan result
+     * @throws IllegalArgumentException If the class file is malformed
+     */
+    public static ConstantPoolScan scan(final byte[] bytecode) {
+        try {
+            if (readInt(bytecode, 0) != 0xCAFEBABE) {
+                throw new IllegalArgumentException("Invalid class file magic");
+            }
+            final int majorVersion = readUnsignedShort(bytecode, 6);
+            final int constantCount = readUnsignedShort(bytecode, 8);
+            final Set<String> utf8Constants = new HashSet<>(constantCount);
+            final String[] utf8ByIndex = new String[constantCount];
+            final int[] classNameIndices = new int[constantCount];
+            char[] charBuffer = new char[64];
+
+            int offset = 10;
+            for (int i = 1; i < constantCount; i++) {
+                final int tag = bytecode[offset++];
+                switch (tag) {
+                    case CONSTANT_UTF8:
+                        final int length = readUnsignedShort(bytecode, offset);
+                        if (charBuffer.length < length) {
+                            charBuffer = new char[length];
+                        }
+                        utf8ByIndex[i] = readUtf8(bytecode, offset + 2, length, charBuffer);
+                        utf8Constants.add(utf8ByIndex[i]);
+                        offset += 2 + length;
+                        break;
+                    case CONSTANT_CLASS:
+                        classNameIndices[i] = readUnsignedShort(bytecode, offset);
+                        offset += 2;
+                        break;
+                    case CONSTANT_STRING:
+                    case CONSTANT_METHOD_TYPE:
+                    case CONSTANT_MODULE:
+                    case CONSTANT_PACKAGE:
+                        offset += 2;
+                        break;
+                    case CONSTANT_METHOD_HANDLE:
+                        offset += 3;
+                        break;
+                    case CONSTANT_INTEGER:
+                    case CONSTANT_FLOAT:
+                    case CONSTANT_FIELDREF:
+                    case CONSTANT_METHODREF:
+                    case CONSTANT_INTERFACE_METHODREF:
+                    case CONSTANT_NAME_AND_TYPE:
+                    case CONSTANT_DYNAMIC:
+                    case CONSTANT_INVOKE_DYNAMIC:
+                        offset += 4;
+                        break;
+                    case CONSTANT_LONG:
+                    case CONSTANT_DOUBLE:
+                        offset += 8;
+                        i++;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown constant pool tag " + tag);
+                }
+            }
+
+            final int access = readUnsignedShort(bytecode, offset);
+            final String className = utf8ByIndex[classNameIndices[readUnsignedShort(bytecode, offset + 2)]];
+            final int superIndex = readUnsignedShort(bytecode, offset + 4);
+            final String superName = superIndex != 0 ? utf8ByIndex[classNameIndices[superIndex]] : null;
+            final String[] interfaces = new String[readUnsignedShort(bytecode, offset + 6)];
+            offset += 8;
+            for (int i = 0; i < interfaces.length; i++) {
+                interfaces[i] = utf8ByIndex[classNameIndices[readUnsignedShort(bytecode, offset)]];
+                offset += 2;
+            }
+
+            final int fieldCount = readUnsignedShort(bytecode, offset);
+            offset += 2;
+            for (int i = 0; i < fieldCount; i++) {
+                offset = skipMember(bytecode, offset);
+            }
+
+            boolean hasPrivateMethods = false;
+            final int methodCount = readUnsignedShort(bytecode, offset);
+            offset += 2;
+            for (int i = 0; i < methodCount; i++) {
+                hasPrivateMethods |= (readUnsignedShort(bytecode, offset) & Opcodes.ACC_PRIVATE) != 0;
+                offset = skipMember(bytecode, offset);
+            }
+
+            return new ConstantPoolScan(majorVersion, access, className, superName, interfaces, utf8Constants, hasPrivateMethods);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated class file", e);
+        }
+    }
+
+    /**
+     * @return The major version of the class file
+     */
+    public int getMajorVersion() {
+        return this.majorVersion;
+    }
+
+    /**
+     * @return The access flags of the class
+     */
+    public int getAccess() {
+        return this.access;
+    }
+
+    /**
+     * @return The internal name of the class
+     */
+    public String getClassName() {
+        return this.className;
+    }
+
+    /**
+     * @return The internal name of the super class or null for {@code java/lang/Object} and module-info
+     */
+    public String getSuperName() {
+        return this.superName;
+    }
+
+    /**
+     * @return The internal names of the directly implemented interfaces
+     */
+    public List<String> getInterfaces() {
+        return this.interfaces;
+    }
+
+    /**
+     * @return If the class is an interface
+     */
+    public boolean isInterface() {
+        return (this.access & Opcodes.ACC_INTERFACE) != 0;
+    }
+
+    /**
+     * @return If the class declares at least one private method
+     */
+    public boolean hasPrivateMethods() {
+        return this.hasPrivateMethods;
+    }
+
+    /**
+     * @param value The value to search for
+     * @return If the constant pool contains a UTF8 constant which is equal to the given value
+     */
+    public boolean hasUtf8(final String value) {
+        return this.utf8Constants.contains(value);
+    }
+
+    /**
+     * @param prefix The prefix to search for
+     * @return If the constant pool contains a UTF8 constant which starts with the given prefix
+     */
+    public boolean hasUtf8StartingWith(final String prefix) {
+        for (String constant : this.utf8Constants) {
+            if (constant.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if any UTF8 constant references the given internal name. This includes class constants as well as
+     * descriptors and signatures which mention the class.
+     *
+     * @param internalName The internal name to search for
+     * @return If the internal name is referenced anywhere in the constant pool
+     */
+    public boolean referencesClass(final String internalName) {
+        if (this.utf8Constants.contains(internalName)) return true;
+        for (String constant : this.utf8Constants) {
+            if (constant.length() > internalName.length() && constant.contains(internalName)) return true;
+        }
+        return false;
+    }
+
+    private static int skipMember(final byte[] bytecode, int offset) {
+        offset += 6;
+        final int attributeCount = readUnsignedShort(bytecode, offset);
+        offset += 2;
+        for (int i = 0; i < attributeCount; i++) {
+            offset += 6 + readInt(bytecode, offset + 2);
+        }
+        return offset;
+    }
+
+    private static String readUtf8(final byte[] bytecode, int offset, final int length, final char[] charBuffer) {
+        final int end = offset + length;
+        int charLength = 0;
+        while (offset < end) {
+            final int b = bytecode[offset++];
+            if ((b & 0x80) == 0) {
+                charBuffer[charLength++] = (char) (b & 0x7F);
+            } else if ((b & 0xE0) == 0xC0) {
+                charBuffer[charLength++] = (char) (((b & 0x1F) << 6) + (bytecode[offset++] & 0x3F));
+            } else {
+                charBuffer[charLength++] = (char) (((b & 0xF) << 12) + ((bytecode[offset++] & 0x3F) << 6) + (bytecode[offset++] & 0x3F));
+            }
+        }
+        return new String(charBuffer, 0, charLength);
+    }
+
+    private static int readUnsignedShort(final byte[] bytecode, final int offset) {
+        return ((bytecode[offset] & 0xFF) << 8) | (bytecode[offset + 1] & 0xFF);
+    }
+
+    private static int readInt(final byte[] bytecode, final int offset) {
+        return ((bytecode[offset] & 0xFF) << 24) | ((bytecode[offset + 1] & 0xFF) << 16) | ((bytecode[offset + 2] & 0xFF) << 8) | (bytecode[offset + 3] & 0xFF);
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A Java Flight Recorder event type which is only registered if the running JDK provides {@code jdk.jfr}.<br>
+ * The events are created through {@code jdk.jfr.EventFactory}, so this class can be loaded on Java 8 where all
+ * methods do nothing.<br>
+ * Every event carries a name, a size in bytes and a transformer count. The duration is measured from {@link #begin()}
+ * to {@link #commit}.
+ */
+public final class JfrEvent {
+
+    private static final MethodHandle NEW_EVENT;
+    private static final MethodHandle BEGIN;
+    private static final MethodHandle SHOULD_COMMIT;
+    private static final MethodHandle SET;
+    private static final MethodHandle COMMIT;
+
+    static {
+        MethodHandle newEvent = null, begin = null, shouldCommit = null, set = null, commit = null;
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            final Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+            final Class<?> event = Class.forName("jdk.jfr.Event");
+            newEvent = lookup.findVirtual(eventFactory, "newEvent", MethodType.methodType(event));
+            begin = lookup.findVirtual(event, "begin", MethodType.methodType(void.class));
+            shouldCommit = lookup.findVirtual(event, "shouldCommit", MethodType.methodType(boolean.class));
+            set = lookup.findVirtual(event, "set", MethodType.methodType(void.class, int.class, Object.class));
+            commit = lookup.findVirtual(event, "commit", MethodType.methodType(void.class));
+        } catch (Throwable ignored) {
+            // jdk.jfr is not available
+        }
+        NEW_EVENT = newEvent;
+        BEGIN = begin;
+        SHOULD_COMMIT = shouldCommit;
+        SET = set;
+        COMMIT = commit;
+    }
+
+    public static final JfrEvent CLASS_DOWNGRADE = new JfrEvent("ClassDowngrade", "Class Downgrade", "Downgrading of a single class", "Class Name");
+    public static final JfrEvent FRAME_COMPUTATION = new JfrEvent("FrameComputation", "Stack Map Frame Computation", "Recalculation of the stack map frames of a downgraded class", "Class Name");
+    public static final JfrEvent JAR_ENTRY_READ = new JfrEvent("JarEntryRead", "Jar Entry Read", "Reading of a jar entry", "Entry Name");
+    public static final JfrEvent JAR_ENTRY_WRITE = new JfrEvent("JarEntryWrite", "Jar Entry Write", "Writing of a jar entry", "Entry Name");
+    public static final JfrEvent RUNTIME_CLASS_COPY = new JfrEvent("RuntimeClassCopy", "Runtime Class Copy", "Copying of a runtime class into the output", "Class Name");
+
+    private final Object factory;
+
+    private JfrEvent(final String name, final String label, final String description, final String nameLabel) {
+        Object factory = null;
+        if (NEW_EVENT != null) {
+            try {
+                factory = createFactory(name, label, description, nameLabel);
+            } catch (Throwable ignored) {
+            }
+        }
+        this.factory = factory;
+    }
+
+    /**
+     * @return If the running JDK supports this event
+     */
+    public boolean isAvailable() {
+        return this.factory != null;
+    }
+
+    /**
+     * Starts a new event.
+     *
+     * @return The started event or null if JFR is not available
+     */
+    public Object begin() {
+        if (this.factory == null) {
+            return null;
+        }
+        try {
+            final Object event = NEW_EVENT.invoke(this.factory);
+            BEGIN.invoke(event);
+            return event;
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /**
+     * Ends the given event and commits it if it is enabled in the current recording.
+     *
+     * @param event            The event returned by {@link #begin()}
+     * @param name             The class or entry name
+     * @param size             The size in bytes or 0 if unknown
+     * @param transformerCount The amount of applied transformers
+     */
+    public void commit(final Object event, final String name, final long size, final int transformerCount) {
+        if (event == null) {
+            return;
+        }
+        try {
+            if ((boolean) SHOULD_COMMIT.invoke(event)) {
+                SET.invoke(event, 0, name);
+                SET.invoke(event, 1, size);
+                SET.invoke(event, 2, transformerCount);
+                COMMIT.invoke(event);
+            }
+        } catch (Throwable ignored) {
+        }
+    }
+
+    private static Object createFactory(final String name, final String label, final String description, final String nameLabel) throws Throwable {
+        final Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+        final Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+        final Constructor<?> annotation = annotationElement.getConstructor(Class.class, Object.class);
+        final Constructor<?> field = valueDescriptor.getConstructor(Class.class, String.class, List.class);
+
+        final List<Object> eventAnnotations = new ArrayList<>();
+        eventAnnotations.add(annotation.newInstance(Class.forName("jdk.jfr.Name"), "net.raphimc.javadowngrader." + name));
+        eventAnnotations.add(annotation.newInstance(Class.forName("jdk.jfr.Label"), label));
+        eventAnnotations.add(annotation.newInstance(Class.forName("jdk.jfr.Description"), description));
+        eventAnnotations.add(annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[]{"JavaDowngrader"}));
+        eventAnnotations.add(annotation.newInstance(Class.forName("jdk.jfr.StackTrace"), false));
+
+        final List<Object> fields = Arrays.asList(
+                field.newInstance(String.class, "name", Collections.singletonList(annotation.newInstance(Class.forName("jdk.jfr.Label"), nameLabel))),
+                field.newInstance(long.class, "size", Arrays.asList(
+                        annotation.newInstance(Class.forName("jdk.jfr.Label"), "Size"),
+                        annotation.newInstance(Class.forName("jdk.jfr.DataAmount"), "BYTES")
+                )),
+                field.newInstance(int.class, "transformerCount", Collections.singletonList(annotation.newInstance(Class.forName("jdk.jfr.Label"), "Transformer Count")))
+        );
+
+        final Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+        return eventFactory.getMethod("create", List.class, List.class).invoke(null, eventAnnotations, fields);
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.util;
+
+import net.raphimc.javadowngrader.RuntimeDepCollector;
+
+public class RuntimeDeps {
+
+    public static final String IMMUTABLE_COLLECTIONS = Constants.JAVADOWNGRADER_RUNTIME_PACKAGE + "java/util/ImmutableCollections";
+    public static final String INPUT_STREAM_METHODS = Constants.JAVADOWNGRADER_RUNTIME_PACKAGE + "java/io/InputStreamMethods";
+    public static final String READER_METHODS = Constants.JAVADOWNGRADER_RUNTIME_PACKAGE + "java/io/ReaderMethods";
+    public static final String FILE_SYSTEMS_METHODS = Constants.JAVADOWNGRADER_RUNTIME_PACKAGE + "java/nio/file/FileSystemsMethods";
+    public static final String RANDOM_SUPPORT = Constants.JAVADOWNGRADER_RUNTIME_PACKAGE + "jdk/internal/util/random/RandomSupport";
+
+    private static final String[] IMMUTABLE_COLLECTIONS_CLASSES = {
+            IMMUTABLE_COLLECTIONS,
+            IMMUTABLE_COLLECTIONS + "$AbstractImmutableList",
+            IMMUTABLE_COLLECTIONS + "$SubList",
+            IMMUTABLE_COLLECTIONS + "$List12",
+            IMMUTABLE_COLLECTIONS + "$ListN",
+            IMMUTABLE_COLLECTIONS + "$AbstractImmutableSet",
+            IMMUTABLE_COLLECTIONS + "$Set12",
+            IMMUTABLE_COLLECTIONS + "$Set12Iterator",
+            IMMUTABLE_COLLECTIONS + "$SetN",
+            IMMUTABLE_COLLECTIONS + "$SetNIterator",
+            IMMUTABLE_COLLECTIONS + "$AbstractImmutableMap",
+            IMMUTABLE_COLLECTIONS + "$Map1",
+            IMMUTABLE_COLLECTIONS + "$MapN",
+            IMMUTABLE_COLLECTIONS + "$MapNEntrySet",
+            IMMUTABLE_COLLECTIONS + "$MapNEntryIterator"
+    };
+
+    /**
+     * Runtime classes are copied one by one, so the nested implementation classes have to be collected as well.
+     *
+     * @param depCollector The runtime dependency collector
+     */
+    public static void collectImmutableCollections(final RuntimeDepCollector depCollector) {
+        for (String className : IMMUTABLE_COLLECTIONS_CLASSES) {
+            depCollector.accept(className);
+        }
+    }
+
+}
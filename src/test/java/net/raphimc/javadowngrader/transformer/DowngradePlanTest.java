@@ -0,0 +1,134 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.transformer;
+
+import net.raphimc.javadowngrader.JavaDowngrader;
+import net.raphimc.javadowngrader.RuntimeDepCollector;
+import net.raphimc.javadowngrader.util.ConstantPoolScan;
+import net.raphimc.javadowngrader.util.RuntimeDeps;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DowngradePlanTest {
+
+    @Test
+    void downgradedClassesBehaveLikeTheOriginal() throws ReflectiveOperationException {
+        final Set<String> runtimeDeps = new HashSet<>();
+        final Map<String, byte[]> downgraded = new HashMap<>();
+        for (Map.Entry<String, byte[]> entry : Fixtures.classes().entrySet()) {
+            final ClassNode classNode = read(entry.getValue());
+            JavaDowngrader.downgrade(classNode, Opcodes.V1_8, runtimeDeps::add);
+            assertEquals(Opcodes.V1_8, classNode.version);
+            downgraded.put(entry.getKey(), Fixtures.toBytes(classNode));
+        }
+
+        assertEquals(Fixtures.EXPECTED, Fixtures.run(downgraded));
+        assertFalse(runtimeDeps.isEmpty(), "The Java 9+ APIs have to be backported by runtime classes");
+    }
+
+    @Test
+    void fusedPlanMatchesOneTransformerAfterAnother() {
+        for (Map.Entry<String, byte[]> entry : Fixtures.classes().entrySet()) {
+            final ClassNode fused = read(entry.getValue());
+            JavaDowngrader.downgrade(fused, Opcodes.V1_8);
+
+            final ClassNode stepped = read(entry.getValue());
+            for (int version = stepped.version; version > Opcodes.V1_8; version--) {
+                JavaDowngrader.getPlan(version, version - 1).transform(stepped, RuntimeDepCollector.NULL, new DowngradeResult());
+            }
+
+            assertEquals(Fixtures.toText(Fixtures.toBytes(stepped)), Fixtures.toText(Fixtures.toBytes(fused)), entry.getKey());
+        }
+    }
+
+    @Test
+    void recordsBehaveLikeTheOriginal() throws ReflectiveOperationException {
+        final ClassNode classNode = read(Fixtures.point());
+        JavaDowngrader.downgrade(classNode, Opcodes.V1_8);
+        assertEquals("java/lang/Object", classNode.superName);
+
+        final Class<?> point = Fixtures.load(Collections.singletonMap(Fixtures.POINT, Fixtures.toBytes(classNode)), Fixtures.POINT);
+        final Constructor<?> constructor = point.getConstructor(int.class, String.class);
+        final Object a = constructor.newInstance(1, "a");
+        assertEquals("Point[x=1, y=a]", a.toString());
+        assertEquals("Point[x=2, y=null]", constructor.newInstance(2, null).toString());
+        assertEquals(a, constructor.newInstance(1, "a"));
+        assertNotEquals(a, constructor.newInstance(1, "b"));
+        assertNotEquals(a, constructor.newInstance(2, "a"));
+        assertNotEquals(a, null);
+        assertNotEquals(a, "Point[x=1, y=a]");
+        assertEquals(constructor.newInstance(1, "a").hashCode(), a.hashCode());
+        assertEquals(constructor.newInstance(2, null).hashCode(), constructor.newInstance(2, null).hashCode());
+    }
+
+    @Test
+    void sharedHelpersBehaveLikeCopiedHelpers() throws ReflectiveOperationException {
+        final Set<String> copiedDeps = new HashSet<>();
+        final ClassNode copied = read(Fixtures.copier());
+        JavaDowngrader.downgrade(copied, Opcodes.V1_8, copiedDeps::add);
+        assertEquals(2, copied.methods.size(), "The helper has to be copied into the class");
+
+        final Set<String> sharedDeps = new HashSet<>();
+        final ClassNode shared = read(Fixtures.copier());
+        JavaDowngrader.downgrade(shared, Opcodes.V1_8, RuntimeDepCollector.withSharedHelpers(sharedDeps::add));
+        assertEquals(1, shared.methods.size(), "The helper has to be called from the runtime classes");
+        assertTrue(sharedDeps.contains(RuntimeDeps.INPUT_STREAM_METHODS), sharedDeps.toString());
+        assertFalse(copiedDeps.contains(RuntimeDeps.INPUT_STREAM_METHODS), copiedDeps.toString());
+
+        final byte[] data = new byte[20000];
+        new Random(0).nextBytes(data);
+        for (ClassNode classNode : Arrays.asList(copied, shared)) {
+            final Method copy = Fixtures.load(Collections.singletonMap(Fixtures.COPIER, Fixtures.toBytes(classNode)), Fixtures.COPIER).getMethod("copy", InputStream.class, OutputStream.class);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals((long) data.length, copy.invoke(null, new ByteArrayInputStream(data), out));
+            assertArrayEquals(data, out.toByteArray());
+        }
+    }
+
+    @Test
+    void classesWithoutReplacedCodeOnlyChangeTheirVersion() {
+        final ClassNode classNode = new ClassNode();
+        classNode.visit(Opcodes.V17, Opcodes.ACC_PUBLIC, "fixture/Empty", null, "java/lang/Object", null);
+        classNode.visitEnd();
+        final byte[] bytecode = Fixtures.toBytes(classNode);
+
+        final DowngradePlan plan = JavaDowngrader.getPlan(Opcodes.V17, Opcodes.V1_8);
+        assertFalse(plan.requiresTransformation(ConstantPoolScan.scan(bytecode)));
+        assertEquals(Opcodes.V1_8, read(plan.downgradeVersion(bytecode)).version);
+        assertTrue(plan.requiresTransformation(ConstantPoolScan.scan(Fixtures.classes().get(Fixtures.SAMPLE))));
+    }
+
+    private static ClassNode read(final byte[] bytecode) {
+        final ClassNode classNode = new ClassNode();
+        new ClassReader(bytecode).accept(classNode, 0);
+        return classNode;
+    }
+
+}
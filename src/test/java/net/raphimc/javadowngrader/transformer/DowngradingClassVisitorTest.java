@@ -0,0 +1,93 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.transformer;
+
+import net.raphimc.javadowngrader.JavaDowngrader;
+import net.raphimc.javadowngrader.RuntimeDepCollector;
+import net.raphimc.javadowngrader.util.ConstantPoolScan;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DowngradingClassVisitorTest {
+
+    @Test
+    void streamedClassesBehaveLikeTheOriginal() throws ReflectiveOperationException {
+        final Set<String> runtimeDeps = new HashSet<>();
+        final Map<String, byte[]> downgraded = new HashMap<>();
+        for (Map.Entry<String, byte[]> entry : Fixtures.classes().entrySet()) {
+            downgraded.put(entry.getKey(), stream(entry.getValue(), new Fixtures.FixtureClassWriter(ClassWriter.COMPUTE_FRAMES), runtimeDeps::add, new DowngradeResult()).toByteArray());
+        }
+
+        assertEquals(Fixtures.EXPECTED, Fixtures.run(downgraded));
+        assertFalse(runtimeDeps.isEmpty(), "The Java 9+ APIs have to be backported by runtime classes");
+    }
+
+    @Test
+    void streamingMatchesTheTree() {
+        for (Map.Entry<String, byte[]> entry : Fixtures.classes().entrySet()) {
+            final List<String> treeDeps = new ArrayList<>();
+            final ClassNode classNode = new ClassNode();
+            new ClassReader(entry.getValue()).accept(classNode, 0);
+            JavaDowngrader.downgrade(classNode, Opcodes.V1_8, treeDeps::add);
+
+            final List<String> streamDeps = new ArrayList<>();
+            final byte[] streamed = stream(entry.getValue(), new ClassWriter(ClassWriter.COMPUTE_MAXS), streamDeps::add, new DowngradeResult()).toByteArray();
+
+            assertEquals(Fixtures.toText(Fixtures.toBytes(classNode)), Fixtures.toText(streamed), entry.getKey());
+            assertEquals(new HashSet<>(treeDeps), new HashSet<>(streamDeps), entry.getKey());
+        }
+    }
+
+    @Test
+    void onlyModifiedMethodsAreReported() {
+        final byte[] bytecode = Fixtures.classes().get(Fixtures.SAMPLE);
+        final DowngradePlan plan = JavaDowngrader.getPlan(Opcodes.V17, Opcodes.V1_8);
+        final ConstantPoolScan scan = ConstantPoolScan.scan(bytecode);
+        final ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        final DowngradeResult result = new DowngradeResult();
+        final DowngradingClassVisitor visitor = new DowngradingClassVisitor(classWriter, plan, scan, RuntimeDepCollector.NULL, result);
+        new ClassReader(bytecode).accept(visitor, 0);
+
+        final ClassNode classNode = new ClassNode();
+        new ClassReader(classWriter.toByteArray()).accept(classNode, 0);
+        final Set<String> modified = new HashSet<>();
+        final BitSet modifiedMethods = visitor.getModifiedMethods();
+        for (int i = modifiedMethods.nextSetBit(0); i >= 0; i = modifiedMethods.nextSetBit(i + 1)) {
+            modified.add(classNode.methods.get(i).name);
+        }
+        // The constructor doesn't call anything which has to be replaced
+        assertEquals(new HashSet<>(Arrays.asList("describe", "get")), modified);
+        assertTrue(result.requiresStackMapFrames());
+    }
+
+    private static ClassWriter stream(final byte[] bytecode, final ClassWriter classWriter, final RuntimeDepCollector depCollector, final DowngradeResult result) {
+        final ConstantPoolScan scan = ConstantPoolScan.scan(bytecode);
+        final DowngradePlan plan = JavaDowngrader.getPlan(scan.getMajorVersion(), Opcodes.V1_8);
+        assertTrue(plan.canStream(scan), scan.getClassName());
+        new ClassReader(bytecode).accept(new DowngradingClassVisitor(classWriter, plan, scan, depCollector, result), 0);
+        return classWriter;
+    }
+
+}
@@ -0,0 +1,308 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.transformer;
+
+import org.objectweb.asm.*;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.util.Textifier;
+import org.objectweb.asm.util.TraceClassVisitor;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Generates Java 17 classes which use language features and APIs the downgraders have to replace, and runs them after
+ * they were downgraded.
+ */
+final class Fixtures {
+
+    static final String SAMPLE = "fixture/Sample";
+    static final String GREETER = "fixture/Greeter";
+    static final String POINT = "fixture/Point";
+    static final String COPIER = "fixture/Copier";
+    /**
+     * The value {@link #SAMPLE} returns from {@link Supplier#get()} when it behaves like the original class.
+     */
+    static final String EXPECTED = "blank|x:1|2|d|hi you";
+
+    private static final Handle CONCAT = new Handle(
+            Opcodes.H_INVOKESTATIC,
+            "java/lang/invoke/StringConcatFactory",
+            "makeConcatWithConstants",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;",
+            false
+    );
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return The input classes by their internal name
+     */
+    static Map<String, byte[]> classes() {
+        final Map<String, byte[]> classes = new LinkedHashMap<>();
+        classes.put(GREETER, greeter());
+        classes.put(SAMPLE, sample());
+        return classes;
+    }
+
+    /**
+     * An interface with a private method which is called from a default method.
+     */
+    private static byte[] greeter() {
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_INTERFACE, GREETER, null, "java/lang/Object", null);
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PRIVATE, "prefix", "()Ljava/lang/String;", null, null);
+        mv.visitCode();
+        mv.visitLdcInsn("hi");
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "greet", "(Ljava/lang/String;)Ljava/lang/String;", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, GREETER, "prefix", "()Ljava/lang/String;", true);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitInvokeDynamicInsn("makeConcatWithConstants", "(Ljava/lang/String;Ljava/lang/String;)Ljava/lang/String;", CONCAT, "\u0001 \u0001");
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * A class which uses string concatenation, Java 9+ APIs and branches which need stack map frames.
+     */
+    private static byte[] sample() {
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, SAMPLE, null, "java/lang/Object", new String[]{"java/util/function/Supplier", GREETER});
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // if (s.isBlank()) return "blank"; return s + ":" + s.length();
+        mv = cw.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, "describe", "(Ljava/lang/String;)Ljava/lang/String;", null, null);
+        mv.visitCode();
+        final Label notBlank = new Label();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "isBlank", "()Z", false);
+        mv.visitJumpInsn(Opcodes.IFEQ, notBlank);
+        mv.visitLdcInsn("blank");
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitLabel(notBlank);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+        mv.visitInvokeDynamicInsn("makeConcatWithConstants", "(Ljava/lang/String;I)Ljava/lang/String;", CONCAT, "\u0001:\u0001");
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // return describe("  ") + "|" + describe("x") + "|" + List.of("a", "b").stream().toList().size() + "|" + Objects.requireNonNullElse(null, "d") + "|" + this.greet("you");
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "get", "()Ljava/lang/Object;", null, null);
+        mv.visitCode();
+        mv.visitLdcInsn("  ");
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, SAMPLE, "describe", "(Ljava/lang/String;)Ljava/lang/String;", false);
+        mv.visitLdcInsn("x");
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, SAMPLE, "describe", "(Ljava/lang/String;)Ljava/lang/String;", false);
+        mv.visitLdcInsn("a");
+        mv.visitLdcInsn("b");
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/List", "of", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/util/List;", true);
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/List", "stream", "()Ljava/util/stream/Stream;", true);
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/stream/Stream", "toList", "()Ljava/util/List;", true);
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/List", "size", "()I", true);
+        mv.visitInsn(Opcodes.ACONST_NULL);
+        mv.visitLdcInsn("d");
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/Objects", "requireNonNullElse", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", false);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitLdcInsn("you");
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, SAMPLE, "greet", "(Ljava/lang/String;)Ljava/lang/String;", false);
+        mv.visitInvokeDynamicInsn(
+                "makeConcatWithConstants",
+                "(Ljava/lang/String;Ljava/lang/String;ILjava/lang/Object;Ljava/lang/String;)Ljava/lang/String;",
+                CONCAT,
+                "\u0001|\u0001|\u0001|\u0001|\u0001"
+        );
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * {@code record Point(int x, String y)} with the {@code toString}, {@code equals} and {@code hashCode} methods javac
+     * generates.
+     */
+    static byte[] point() {
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_RECORD, POINT, null, "java/lang/Record", null);
+        cw.visitRecordComponent("x", "I", null).visitEnd();
+        cw.visitRecordComponent("y", "Ljava/lang/String;", null).visitEnd();
+        cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "x", "I", null, null).visitEnd();
+        cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "y", "Ljava/lang/String;", null, null).visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "(ILjava/lang/String;)V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Record", "<init>", "()V", false);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, POINT, "x", "I");
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, POINT, "y", "Ljava/lang/String;");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        final Handle bootstrap = new Handle(
+                Opcodes.H_INVOKESTATIC,
+                "java/lang/runtime/ObjectMethods",
+                "bootstrap",
+                "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/TypeDescriptor;Ljava/lang/Class;Ljava/lang/String;[Ljava/lang/invoke/MethodHandle;)Ljava/lang/Object;",
+                false
+        );
+        final Object[] bootstrapArgs = {
+                Type.getObjectType(POINT),
+                "x;y",
+                new Handle(Opcodes.H_GETFIELD, POINT, "x", "I", false),
+                new Handle(Opcodes.H_GETFIELD, POINT, "y", "Ljava/lang/String;", false)
+        };
+        final String[][] objectMethods = {
+                {"toString", "()Ljava/lang/String;", "(L" + POINT + ";)Ljava/lang/String;"},
+                {"hashCode", "()I", "(L" + POINT + ";)I"},
+                {"equals", "(Ljava/lang/Object;)Z", "(L" + POINT + ";Ljava/lang/Object;)Z"}
+        };
+        for (String[] method : objectMethods) {
+            mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, method[0], method[1], null, null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            if (method[0].equals("equals")) {
+                mv.visitVarInsn(Opcodes.ALOAD, 1);
+            }
+            mv.visitInvokeDynamicInsn(method[0], method[2], bootstrap, bootstrapArgs);
+            mv.visitInsn(Type.getReturnType(method[1]).getOpcode(Opcodes.IRETURN));
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * {@code static long copy(InputStream in, OutputStream out) { return in.transferTo(out); }}, whose replacement needs a
+     * helper method.
+     */
+    static byte[] copier() {
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, COPIER, null, "java/lang/Object", null);
+        final MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "copy", "(Ljava/io/InputStream;Ljava/io/OutputStream;)J", null, new String[]{"java/io/IOException"});
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/io/InputStream", "transferTo", "(Ljava/io/OutputStream;)J", false);
+        mv.visitInsn(Opcodes.LRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * Writes a class and computes all of its stack map frames.
+     */
+    static byte[] toBytes(final ClassNode classNode) {
+        final ClassWriter cw = new FixtureClassWriter(ClassWriter.COMPUTE_FRAMES);
+        classNode.accept(cw);
+        return cw.toByteArray();
+    }
+
+    /**
+     * @return A textual representation of the class which doesn't depend on the stack map frames, the debug information
+     * or the labels which aren't jumped to
+     */
+    static String toText(final byte[] bytecode) {
+        final StringWriter text = new StringWriter();
+        new ClassReader(bytecode).accept(new TraceClassVisitor(null, new Textifier(), new PrintWriter(text)), ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
+        return text.toString();
+    }
+
+    /**
+     * Loads the downgraded classes and calls {@link Supplier#get()} on a new instance of {@link #SAMPLE}.
+     */
+    static Object run(final Map<String, byte[]> classes) throws ReflectiveOperationException {
+        final Object sample = load(classes, SAMPLE).getConstructor().newInstance();
+        final Method get = Supplier.class.getMethod("get");
+        return get.invoke(sample);
+    }
+
+    /**
+     * Loads the downgraded classes in a new class loader.
+     *
+     * @return The class with the given internal name
+     */
+    static Class<?> load(final Map<String, byte[]> classes, final String className) throws ClassNotFoundException {
+        final ClassLoader loader = new ClassLoader(Fixtures.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                final byte[] bytecode = classes.get(name.replace('.', '/'));
+                if (bytecode == null) {
+                    throw new ClassNotFoundException(name);
+                }
+                return this.defineClass(name, bytecode, 0, bytecode.length);
+            }
+        };
+        return loader.loadClass(className.replace('/', '.'));
+    }
+
+    /**
+     * Resolves the common super class of the fixture classes without loading them.
+     */
+    static final class FixtureClassWriter extends ClassWriter {
+
+        FixtureClassWriter(final int flags) {
+            super(flags);
+        }
+
+        @Override
+        protected String getCommonSuperClass(String type1, String type2) {
+            if (type1.startsWith("fixture/") || type2.startsWith("fixture/")) {
+                return "java/lang/Object";
+            }
+            return super.getCommonSuperClass(type1, type2);
+        }
+
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.standalone;
+
+import net.lenni0451.classtransform.additionalclassprovider.LazyFileClassProvider;
+import net.lenni0451.classtransform.utils.tree.BasicClassProvider;
+import net.raphimc.javadowngrader.ClassHierarchy;
+import net.raphimc.javadowngrader.impl.classtransform.jar.JarPipeline;
+import net.raphimc.javadowngrader.impl.classtransform.jar.ZipEntryData;
+import net.raphimc.javadowngrader.impl.classtransform.util.BuildInfo;
+import net.raphimc.javadowngrader.impl.classtransform.util.ClassProviderHierarchy;
+import net.raphimc.javadowngrader.runtime.RuntimeRoot;
+import net.raphimc.javadowngrader.standalone.util.IncrementalManifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The state which is shared between downgrade runs: The thread pool, the classes of the library paths and the
+ * compressed runtime classes.<br>
+ * A normal run creates one context for all of its jars, the daemon keeps its context until it shuts down.
+ */
+public class DowngradeContext implements AutoCloseable {
+
+    private static final int MAX_LIBRARY_PATHS = 4;
+
+    private final int threadCount;
+    private final ExecutorService threadPool;
+    private final Map<String, Libraries> libraries = new LinkedHashMap<>(16, 0.75F, true);
+    private final Map<String, ZipEntryData> runtimeClasses = new ConcurrentHashMap<>();
+
+    public DowngradeContext(final int threadCount) {
+        this.threadCount = threadCount;
+        this.threadPool = Executors.newWorkStealingPool(threadCount);
+    }
+
+    public int getThreadCount() {
+        return this.threadCount;
+    }
+
+    public ExecutorService getThreadPool() {
+        return this.threadPool;
+    }
+
+    /**
+     * Get the classes of the given library path.<br>
+     * The libraries are reused as long as none of the files changed.
+     *
+     * @param libraryPath The library jars
+     * @return The libraries
+     */
+    public synchronized Libraries getLibraries(final List<File> libraryPath) {
+        final List<Object> options = new ArrayList<>();
+        options.add(BuildInfo.BUILD_ID);
+        // The JDK classes are loaded from the running java version
+        options.add(System.getProperty("java.version"));
+        for (File library : libraryPath) {
+            options.add(library.getAbsolutePath() + '/' + library.length() + '/' + library.lastModified());
+        }
+        final String fingerprint = IncrementalManifest.fingerprint(options.toArray());
+
+        Libraries libraries = this.libraries.get(fingerprint);
+        if (libraries == null) {
+            libraries = new Libraries(fingerprint, libraryPath);
+            this.libraries.put(fingerprint, libraries);
+            final Iterator<Libraries> it = this.libraries.values().iterator();
+            while (this.libraries.size() > MAX_LIBRARY_PATHS) {
+                it.next().close();
+                it.remove();
+            }
+        }
+        return libraries;
+    }
+
+    /**
+     * Get a compressed runtime class.
+     *
+     * @param classPath The path of the runtime class
+     * @param pipeline  The pipeline used to compress the class
+     * @return The compressed class or null if it doesn't exist
+     */
+    public ZipEntryData getRuntimeClass(final String classPath, final JarPipeline pipeline) {
+        return this.runtimeClasses.computeIfAbsent(classPath, path -> {
+            try (InputStream is = RuntimeRoot.class.getResourceAsStream("/" + path)) {
+                return is != null ? pipeline.compress(path, is) : null;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Drop all cached libraries and runtime classes.
+     */
+    public synchronized void trim() {
+        this.libraries.values().forEach(Libraries::close);
+        this.libraries.clear();
+        this.runtimeClasses.clear();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        this.trim();
+        this.threadPool.shutdown();
+        if (!this.threadPool.awaitTermination(1000, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("Thread pool didn't shutdown correctly");
+        }
+    }
+
+    public static class Libraries {
+
+        private final String fingerprint;
+        private final LazyFileClassProvider classProvider;
+        private final ClassHierarchy classHierarchy;
+
+        private Libraries(final String fingerprint, final List<File> libraryPath) {
+            this.fingerprint = fingerprint;
+            this.classProvider = new LazyFileClassProvider(libraryPath, new BasicClassProvider());
+            this.classHierarchy = new ClassProviderHierarchy(this.classProvider);
+        }
+
+        /**
+         * @return A hash of the library files which changes if any of them changes
+         */
+        public String getFingerprint() {
+            return this.fingerprint;
+        }
+
+        public LazyFileClassProvider getClassProvider() {
+            return this.classProvider;
+        }
+
+        public ClassHierarchy getClassHierarchy() {
+            return this.classHierarchy;
+        }
+
+        private void close() {
+            try {
+                this.classProvider.close();
+            } catch (Throwable ignored) {
+            }
+        }
+
+    }
+
+}
@@ -21,33 +21,46 @@ import joptsimple.*;
 import me.tongfei.progressbar.ProgressBarBuilder;
 import me.tongfei.progressbar.ProgressBarStyle;
 import net.lenni0451.classtransform.TransformerManager;
-import net.lenni0451.classtransform.additionalclassprovider.LazyFileClassProvider;
-import net.lenni0451.classtransform.additionalclassprovider.PathClassProvider;
-import net.lenni0451.classtransform.utils.tree.BasicClassProvider;
+import net.raphimc.javadowngrader.ClassHierarchy;
 import net.raphimc.javadowngrader.impl.classtransform.JavaDowngraderTransformer;
+import net.raphimc.javadowngrader.impl.classtransform.cache.DowngradeCache;
+import net.raphimc.javadowngrader.impl.classtransform.jar.JarClassProvider;
+import net.raphimc.javadowngrader.impl.classtransform.jar.JarPipeline;
+import net.raphimc.javadowngrader.impl.classtransform.jar.NestedJarClassProvider;
+import net.raphimc.javadowngrader.impl.classtransform.jar.ZipEntryData;
+import net.raphimc.javadowngrader.impl.classtransform.jar.ZipSink;
+import net.raphimc.javadowngrader.impl.classtransform.jar.ZipSource;
 import net.raphimc.javadowngrader.impl.classtransform.util.ClassNameUtil;
-import net.raphimc.javadowngrader.runtime.RuntimeRoot;
+import net.raphimc.javadowngrader.impl.classtransform.util.ClassProviderHierarchy;
+import net.raphimc.javadowngrader.standalone.daemon.DaemonClient;
+import net.raphimc.javadowngrader.standalone.daemon.DowngradeDaemon;
 import net.raphimc.javadowngrader.standalone.progress.MultiThreadedProgressBar;
 import net.raphimc.javadowngrader.standalone.util.GeneralUtil;
+import net.raphimc.javadowngrader.standalone.util.IncrementalManifest;
+import net.raphimc.javadowngrader.transformer.DowngradeResult;
 import net.raphimc.javadowngrader.util.JavaVersion;
+import net.raphimc.javadowngrader.util.JfrEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.UncheckedIOException;
-import java.net.URI;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.time.Duration;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -57,21 +70,48 @@ public class Main {
     private static final Logger LOGGER = LoggerFactory.getLogger(Main.class);
 
     public static void main(String[] args) throws Throwable {
+        final int exitCode = run(args, null, null);
+        if (exitCode != 0) {
+            System.exit(exitCode);
+        }
+    }
+
+    /**
+     * Run the standalone with the given arguments.
+     *
+     * @param args             The command line arguments
+     * @param workingDirectory The directory relative paths are resolved against or null for the current directory
+     * @param daemonContext    The context of the daemon running this job or null if it runs in its own process
+     * @return The exit code
+     */
+    private static int run(final String[] args, final File workingDirectory, final DowngradeContext daemonContext) throws Throwable {
         final OptionParser parser = new OptionParser();
         final OptionSpec<Void> help = parser.acceptsAll(asList("help", "h", "?"), "Get a list of all arguments").forHelp();
+        final OptionSpec<Void> daemon = parser.acceptsAll(asList("daemon"), "Start a daemon which keeps running and downgrades the jars sent to it with --use_daemon");
+        final OptionSpec<Void> useDaemon = parser.acceptsAll(asList("use_daemon"), "Send the job to the running daemon instead of downgrading in this process");
+        final OptionSpec<Void> stopDaemon = parser.acceptsAll(asList("stop_daemon"), "Stop the running daemon");
+        final OptionSpec<Integer> idleTimeout = parser.acceptsAll(asList("idle_timeout"), "The number of minutes after which an idle daemon shuts down")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(30);
+        final OptionSpec<Integer> maxMemory = parser.acceptsAll(asList("max_memory"), "The heap usage in megabytes above which the daemon drops its cached classes")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo((int) (Runtime.getRuntime().maxMemory() / 1024 / 1024 * 3 / 4));
 
-        final OptionSpec<File> inputLocation = parser.acceptsAll(asList("input_file", "input", "i"), "The location of the input jar file")
+        final OptionSpec<File> inputLocation = parser.acceptsAll(asList("input_file", "input", "i"), "The location of the input jar file (can be given multiple times)")
                 .withRequiredArg()
-                .ofType(File.class)
-                .required();
-        final OptionSpec<File> outputLocation = parser.acceptsAll(asList("output_file", "output", "o"), "The location of the output jar file")
+                .ofType(File.class);
+        final OptionSpec<File> outputLocation = parser.acceptsAll(asList("output_file", "output", "o"), "The location of the output jar file (once for every input jar)")
                 .withRequiredArg()
-                .ofType(File.class)
-                .required();
+                .ofType(File.class);
+        final OptionSpec<File> batchFile = parser.acceptsAll(asList("batch_file", "batch"), "A file with one 'input.jar -> output.jar' pair per line")
+                .withRequiredArg()
+                .ofType(File.class);
         final OptionSpec<JavaVersion> version = parser.acceptsAll(asList("target_version", "version", "v"), "The target/output java version")
+                .requiredUnless("daemon", "stop_daemon")
                 .withRequiredArg()
-                .withValuesConvertedBy(new JavaVersionEnumConverter())
-                .required();
+                .withValuesConvertedBy(new JavaVersionEnumConverter());
         final OptionSpec<List<File>> libraryPath = parser.acceptsAll(asList("library_path", "library", "l"), "Additional libraries to add to the classpath (required for stack frames)")
                 .withRequiredArg()
                 .withValuesConvertedBy(new PathConverter());
@@ -79,6 +119,22 @@ public class Main {
                 .withRequiredArg()
                 .ofType(Integer.class)
                 .defaultsTo(Math.min(Runtime.getRuntime().availableProcessors(), 255));
+        final OptionSpec<Integer> hotSpots = parser.acceptsAll(asList("hot_spots", "hotspots"), "Print the given number of rewrites which took the most time")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(0);
+        final OptionSpec<File> cacheDirectory = parser.acceptsAll(asList("cache_dir", "cache"), "The directory to cache downgraded classes in")
+                .withRequiredArg()
+                .ofType(File.class);
+        final OptionSpec<Integer> cacheSize = parser.acceptsAll(asList("cache_size"), "The maximum size of the cache in megabytes")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(512);
+        final OptionSpec<Void> incremental = parser.acceptsAll(asList("incremental"), "Only downgrade the entries which changed since the output jar was created");
+        final OptionSpec<Void> sharedHelpers = parser.acceptsAll(asList("shared_helpers"), "Call injected helper methods from shared runtime classes instead of copying them into every class");
+        final OptionSpec<JavaVersion> multiReleaseVersion = parser.acceptsAll(asList("flatten_multi_release"), "Replace the classes of multi-release jars with the variants the given java version would load and remove META-INF/versions")
+                .withRequiredArg()
+                .withValuesConvertedBy(new JavaVersionEnumConverter());
 
         final OptionSet options;
         try {
@@ -86,73 +142,153 @@ public class Main {
         } catch (OptionException | ValueConversionException e) {
             LOGGER.error("Error parsing options: " + e.getMessage());
             parser.printHelpOn(System.out);
-            System.exit(1);
-            return;
+            return 1;
         }
         if (options.has(help)) {
             parser.printHelpOn(System.out);
-            System.exit(1);
+            return 1;
+        }
+
+        if (options.has(daemon) || options.has(useDaemon) || options.has(stopDaemon)) {
+            if (daemonContext != null) {
+                LOGGER.error("The daemon options can't be used in a job sent to a daemon");
+                return 1;
+            }
+            if (options.has(stopDaemon)) {
+                try {
+                    DaemonClient.stop();
+                    LOGGER.info("Stopped the daemon");
+                    return 0;
+                } catch (IOException e) {
+                    LOGGER.error("Failed to stop the daemon: " + e.getMessage());
+                    return 1;
+                }
+            }
+            if (options.has(daemon)) {
+                try (DowngradeContext context = new DowngradeContext(Math.min(options.valueOf(threadCount), 255))) {
+                    new DowngradeDaemon(
+                            context,
+                            Main::run,
+                            TimeUnit.MINUTES.toMillis(options.valueOf(idleTimeout)),
+                            options.valueOf(maxMemory) * 1024L * 1024L
+                    ).run();
+                }
+                return 0;
+            }
+
+            final List<String> forwardedArgs = new ArrayList<>(asList(args));
+            forwardedArgs.removeIf(arg -> arg.equals("--use_daemon") || arg.equals("-use_daemon"));
+            try {
+                final long start = System.nanoTime();
+                final int exitCode = DaemonClient.send(forwardedArgs.toArray(new String[0]), new File("").getAbsoluteFile());
+                if (exitCode == 0) {
+                    LOGGER.info("Done in {} by the daemon.", GeneralUtil.formatDuration(System.nanoTime() - start));
+                } else {
+                    LOGGER.error("The daemon failed to downgrade the jar file. Check its log for details");
+                }
+                return exitCode;
+            } catch (IOException e) {
+                LOGGER.warn("Failed to reach the daemon ({}). Downgrading in this process", e.getMessage());
+            }
         }
 
-        final File inputFile = options.valueOf(inputLocation);
-        if (!inputFile.isFile()) {
-            LOGGER.error("Input file does not exist or is not a file");
-            System.exit(1);
+        final Map<File, File> jars = new LinkedHashMap<>();
+        final Function<File, File> resolver = file -> workingDirectory == null || file.isAbsolute() ? file : new File(workingDirectory, file.getPath());
+        final List<File> inputFiles = options.valuesOf(inputLocation);
+        final List<File> outputFiles = options.valuesOf(outputLocation);
+        if (inputFiles.size() != outputFiles.size()) {
+            LOGGER.error("Every input file needs exactly one output file");
+            return 1;
         }
-        if (!inputFile.canRead()) {
-            LOGGER.error("Cannot read input file");
-            System.exit(1);
+        for (int i = 0; i < inputFiles.size(); i++) {
+            jars.put(resolver.apply(inputFiles.get(i)), resolver.apply(outputFiles.get(i)));
         }
+        if (options.has(batchFile)) {
+            try {
+                jars.putAll(readBatchFile(resolver.apply(options.valueOf(batchFile)), resolver));
+            } catch (IOException | IllegalArgumentException e) {
+                LOGGER.error("Failed to read batch file: " + e.getMessage());
+                return 1;
+            }
+        }
+        if (jars.isEmpty()) {
+            LOGGER.error("No input file given");
+            parser.printHelpOn(System.out);
+            return 1;
+        }
+
+        for (Map.Entry<File, File> jar : jars.entrySet()) {
+            final File inputFile = jar.getKey();
+            if (!inputFile.isFile()) {
+                LOGGER.error("Input file {} does not exist or is not a file", inputFile);
+                return 1;
+            }
+            if (!inputFile.canRead()) {
+                LOGGER.error("Cannot read input file {}", inputFile);
+                return 1;
+            }
 
-        final File outputFile = options.valueOf(outputLocation);
-        final File parentFile = outputFile.getParentFile();
-        if (parentFile != null) {
-            outputFile.getParentFile().mkdirs();
-            if (!outputFile.getParentFile().isDirectory()) {
-                LOGGER.error("Failed to create output directory");
-                System.exit(1);
+            final File outputFile = jar.getValue();
+            final File parentFile = outputFile.getParentFile();
+            if (parentFile != null) {
+                outputFile.getParentFile().mkdirs();
+                if (!outputFile.getParentFile().isDirectory()) {
+                    LOGGER.error("Failed to create output directory for {}", outputFile);
+                    return 1;
+                }
+            }
+            if (outputFile.isFile() && !outputFile.canWrite()) {
+                LOGGER.error("Cannot write to {}", outputFile);
+                return 1;
             }
         }
 
         try {
             final long start = System.nanoTime();
-            doConversion(
-                    inputFile, outputFile,
-                    options.valueOf(version),
-                    GeneralUtil.flatten(options.valuesOf(libraryPath)),
-                    Math.min(options.valueOf(threadCount), 255)
-            );
-            final long end = System.nanoTime();
-            LOGGER.info(
-                    "Done in {}.",
-                    Duration.ofNanos(end - start)
-                            .toString()
-                            .substring(2)
-                            .replaceAll("(\\d[HMS])(?!$)", "$1 ")
-                            .toLowerCase(Locale.ROOT)
-            );
+            final List<File> libraries = GeneralUtil.flatten(options.valuesOf(libraryPath)).stream().map(resolver).collect(Collectors.toList());
+            final int flattenVersion = options.has(multiReleaseVersion) ? options.valueOf(multiReleaseVersion).getVersion() : 0;
+            final DowngradeCache cache = options.has(cacheDirectory) ? new DowngradeCache(resolver.apply(options.valueOf(cacheDirectory)).toPath(), options.valueOf(cacheSize) * 1024L * 1024L) : null;
+            if (daemonContext != null) {
+                doConversion(daemonContext, jars, options.valueOf(version), libraries, options.valueOf(hotSpots), cache, options.has(incremental), flattenVersion, options.has(sharedHelpers));
+            } else {
+                try (DowngradeContext context = new DowngradeContext(Math.min(options.valueOf(threadCount), 255))) {
+                    doConversion(context, jars, options.valueOf(version), libraries, options.valueOf(hotSpots), cache, options.has(incremental), flattenVersion, options.has(sharedHelpers));
+                }
+            }
+            LOGGER.info("Done in {}.", GeneralUtil.formatDuration(System.nanoTime() - start));
         } catch (Throwable e) {
             LOGGER.error("Error while converting jar file. Please report this issue on the JavaDowngrader GitHub page", e);
-            System.exit(1);
+            return 1;
+        }
+        return 0;
+    }
+
+    private static Map<File, File> readBatchFile(final File batchFile, final Function<File, File> resolver) throws IOException {
+        final Map<File, File> jars = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(batchFile.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+
+            final int separator = line.indexOf(" -> ");
+            if (separator == -1) {
+                throw new IllegalArgumentException("Invalid line '" + line + "'");
+            }
+            jars.put(resolver.apply(new File(line.substring(0, separator).trim())), resolver.apply(new File(line.substring(separator + 4).trim())));
         }
+        return jars;
     }
 
     private static void doConversion(
-            final File inputFile,
-            final File outputFile,
+            final DowngradeContext context,
+            final Map<File, File> jars,
             final JavaVersion targetVersion,
             List<File> libraryPath,
-            int threadCount
+            int hotSpots,
+            DowngradeCache cache,
+            boolean incremental,
+            int multiReleaseVersion,
+            boolean sharedHelpers
     ) throws Throwable {
-        LOGGER.info("Downgrading {} to Java {}", inputFile, targetVersion.getName());
-        if (outputFile.isFile() && !outputFile.canWrite()) {
-            LOGGER.error("Cannot write to {}", outputFile);
-            System.exit(1);
-        }
-        if (Files.deleteIfExists(outputFile.toPath())) {
-            LOGGER.info("Deleted old {}", outputFile);
-        }
-
         try (Stream<File> stream = libraryPath.stream()
                 .flatMap(f -> {
                     if (f.isFile()) {
@@ -173,100 +309,205 @@ public class Main {
             libraryPath = stream.collect(Collectors.toList());
         }
 
-        LOGGER.info("Opening source JAR");
-        try (FileSystem inFs = FileSystems.newFileSystem(inputFile.toPath(), null)) {
-            final Path inRoot = inFs.getRootDirectories().iterator().next();
+        // The libraries and their hierarchy are shared by all jars
+        final DowngradeContext.Libraries libraries = context.getLibraries(libraryPath);
+        final String fingerprint = IncrementalManifest.fingerprint(targetVersion.getVersion(), multiReleaseVersion, sharedHelpers, libraries.getFingerprint());
+        final DowngradeResult stats = new DowngradeResult();
+
+        int totalEntries = 0;
+        for (File inputFile : jars.keySet()) {
+            try (ZipSource inZip = new ZipSource(inputFile)) {
+                totalEntries += inZip.size();
+            }
+        }
+
+        LOGGER.info("Downgrading {} jar(s) with {} thread(s)", jars.size(), context.getThreadCount());
+        try (MultiThreadedProgressBar pb = MultiThreadedProgressBar.create(
+                new ProgressBarBuilder()
+                        .setTaskName("Downgrading")
+                        .setStyle(ProgressBarStyle.ASCII)
+                        .setInitialMax(totalEntries)
+                        .setUpdateIntervalMillis(100)
+        )) {
+            for (Map.Entry<File, File> jar : jars.entrySet()) {
+                downgradeJar(context, jar.getKey(), jar.getValue(), targetVersion, libraries, pb, hotSpots > 0 ? stats : null, cache, incremental ? fingerprint : null, multiReleaseVersion, sharedHelpers);
+            }
+        }
+        if (hotSpots > 0) {
+            LOGGER.info("Downgrade hot spots:{}{}", System.lineSeparator(), stats.formatHotSpots(hotSpots));
+        }
+    }
+
+    private static void downgradeJar(
+            final DowngradeContext context,
+            final File inputFile,
+            final File outputFile,
+            final JavaVersion targetVersion,
+            final DowngradeContext.Libraries libraries,
+            final MultiThreadedProgressBar pb,
+            final DowngradeResult stats,
+            final DowngradeCache cache,
+            final String incrementalFingerprint,
+            final int multiReleaseVersion,
+            final boolean sharedHelpers
+    ) throws IOException {
+        LOGGER.info("Downgrading {} to Java {}", inputFile, targetVersion.getName());
+        if (incrementalFingerprint == null && Files.deleteIfExists(outputFile.toPath())) {
+            LOGGER.info("Deleted old {}", outputFile);
+        }
+
+        try (ZipSource inZip = new ZipSource(inputFile);
+             NestedJarClassProvider nestedClasses = new NestedJarClassProvider(inZip, libraries.getClassProvider())) {
+            // The classes of the jar are part of the class hierarchy, so changing their headers can change every output
+            final String classHeaders = cache != null || incrementalFingerprint != null ? DowngradeCache.classHeaderFingerprint(inZip) : null;
+            IncrementalManifest previousManifest = null;
+            IncrementalManifest manifest = null;
+            if (incrementalFingerprint != null) {
+                manifest = new IncrementalManifest(IncrementalManifest.fingerprint(incrementalFingerprint, classHeaders));
+                if (inZip.getEntry(IncrementalManifest.ENTRY_NAME) != null) {
+                    LOGGER.warn("The input jar was created by an incremental run. Downgrading everything");
+                    manifest = null;
+                }
+            }
 
             final Collection<String> runtimeDeps = Collections.newSetFromMap(new ConcurrentHashMap<>());
-            final TransformerManager transformerManager = new TransformerManager(
-                    new PathClassProvider(inRoot, new LazyFileClassProvider(libraryPath, new BasicClassProvider()))
-            );
+            final Map<String, Collection<String>> entryRuntimeDeps = new ConcurrentHashMap<>();
+            final ThreadLocal<Collection<String>> classRuntimeDeps = new ThreadLocal<>();
+            final JarClassProvider jarClasses = multiReleaseVersion != 0 ? new JarClassProvider(inZip, multiReleaseVersion, nestedClasses) : new JarClassProvider(inZip, nestedClasses);
+            final TransformerManager transformerManager = new TransformerManager(jarClasses);
+            final ClassHierarchy jarHierarchy = new ClassProviderHierarchy(transformerManager.getClassProvider());
+            final ClassHierarchy classHierarchy = new ClassHierarchy() {
+                @Override
+                public Collection<String> getSuperTypes(String className) {
+                    return this.select(className).getSuperTypes(className);
+                }
+
+                @Override
+                public boolean declaresMethod(String className, String name, String descriptor) {
+                    return this.select(className).declaresMethod(className, name, descriptor);
+                }
+
+                private ClassHierarchy select(final String className) {
+                    return jarClasses.contains(className) || nestedClasses.contains(className) ? jarHierarchy : libraries.getClassHierarchy();
+                }
+            };
             transformerManager.addBytecodeTransformer(
                     JavaDowngraderTransformer.builder(transformerManager)
                             .targetVersion(targetVersion.getVersion())
-                            .classFilter(c -> Files.isRegularFile(inRoot.resolve(ClassNameUtil.toClassFilename(c))))
-                            .depCollector(runtimeDeps::add)
+                            .classFilter(c -> jarClasses.contains(c) || nestedClasses.contains(c))
+                            .depCollector(dep -> {
+                                runtimeDeps.add(dep);
+                                final Collection<String> deps = classRuntimeDeps.get();
+                                if (deps != null) {
+                                    deps.add(dep);
+                                }
+                            })
+                            .sharedHelpers(sharedHelpers)
+                            .classHierarchy(classHierarchy)
+                            .resultConsumer(stats != null ? result -> {
+                                synchronized (stats) {
+                                    stats.add(result);
+                                }
+                            } : null)
+                            .cache(cache, cache != null ? libraries.getFingerprint() + classHeaders : null)
                             .build()
             );
 
-            try (FileSystem outFs = FileSystems.newFileSystem(new URI("jar:" + outputFile.toURI()), Collections.singletonMap("create", "true"))) {
-                final Path outRoot = outFs.getRootDirectories().iterator().next();
-
-                LOGGER.info("Downgrading classes with {} thread(s)", threadCount);
-                final ExecutorService threadPool = Executors.newFixedThreadPool(threadCount);
-                final List<Callable<Void>> tasks;
-                final MultiThreadedProgressBar[] pb = new MultiThreadedProgressBar[1];
-                try (Stream<Path> stream = Files.walk(inRoot)) {
-                    tasks = stream.map(path -> (Callable<Void>) () -> {
-                        final String relative = ClassNameUtil.slashName(inRoot.relativize(path));
-                        pb[0].setThreadTask(relative);
-                        final Path dest = outRoot.resolve(relative);
-                        if (Files.isDirectory(path)) {
-                            Files.createDirectories(dest);
-                            pb[0].step();
-                            return null;
-                        }
-                        final Path parent = dest.getParent();
-                        if (parent != null) {
-                            Files.createDirectories(parent);
-                        }
-                        if (!relative.endsWith(".class") || relative.contains("META-INF/versions/")) {
-                            Files.copy(path, dest);
-                            pb[0].step();
+            // The previous output is still read while the new one is written
+            final Path outputPath = manifest != null ? outputFile.toPath().resolveSibling(outputFile.getName() + ".tmp") : outputFile.toPath();
+            try (ZipSource previousZip = manifest != null && outputFile.isFile() ? new ZipSource(outputFile) : null;
+                 ZipSink outZip = new ZipSink(new BufferedOutputStream(Files.newOutputStream(outputPath)))) {
+                if (previousZip != null) {
+                    previousManifest = readManifest(previousZip, manifest.getOptions());
+                    if (previousManifest == null) {
+                        LOGGER.info("The output jar can't be reused. Downgrading everything");
+                    }
+                }
+
+                // Bound the memory used by the entries in flight to a fraction of the heap
+                final JarPipeline pipeline = new JarPipeline(inZip, context.getThreadPool(), Runtime.getRuntime().maxMemory() / 8)
+                        .nestedJars(NestedJarClassProvider::isNestedJar)
+                        .flattenMultiRelease(multiReleaseVersion);
+                final AtomicInteger reusedEntries = new AtomicInteger();
+                if (manifest != null) {
+                    final IncrementalManifest newManifest = manifest;
+                    final IncrementalManifest oldManifest = previousManifest;
+                    // Flattened entries are recorded with the name they have in the output jar
+                    pipeline.reuseEntries((name, entry) -> {
+                        final IncrementalManifest.Record record = newManifest.put(name, entry.getCrc(), entry.getSize());
+                        final IncrementalManifest.Record oldRecord = oldManifest != null ? oldManifest.get(name) : null;
+                        final ZipSource.Entry oldEntry = previousZip != null ? previousZip.getEntry(name) : null;
+                        if (oldRecord == null || oldEntry == null || !oldRecord.matches(entry.getCrc(), entry.getSize())) {
+                            entryRuntimeDeps.put(name, record.getRuntimeDeps());
                             return null;
                         }
-                        final String className = ClassNameUtil.toClassName(relative);
-                        final byte[] bytecode = Files.readAllBytes(path);
-                        byte[] result = null;
-                        try {
-                            result = transformerManager.transform(className, bytecode);
-                        } catch (Exception e) {
-                            LOGGER.error("Failed to transform {}", className, e);
-                        }
-                        Files.write(dest, result != null ? result : bytecode);
 
-                        pb[0].step();
-                        return null;
-                    }).collect(Collectors.toList());
+                        record.getRuntimeDeps().addAll(oldRecord.getRuntimeDeps());
+                        runtimeDeps.addAll(oldRecord.getRuntimeDeps());
+                        reusedEntries.incrementAndGet();
+                        return ZipEntryData.raw(oldEntry, previousZip.readRaw(oldEntry));
+                    });
                 }
-                try {
-                    pb[0] = MultiThreadedProgressBar.create(
-                            new ProgressBarBuilder()
-                                    .setTaskName("Downgrading")
-                                    .setStyle(ProgressBarStyle.ASCII)
-                                    .setInitialMax(tasks.size())
-                                    .setUpdateIntervalMillis(100)
-                    );
-                    threadPool.invokeAll(tasks);
-                } finally {
-                    if (pb[0] != null) {
-                        pb[0].close();
+                pipeline.run(outZip, name -> name.endsWith(".class") && !name.startsWith("META-INF/versions/"), (name, data) -> {
+                    final String className = ClassNameUtil.toClassName(JarPipeline.stripNestedJars(name));
+                    // The runtime classes of nested jars are recorded for the outermost jar
+                    final int nestedJar = name.indexOf("!/");
+                    classRuntimeDeps.set(entryRuntimeDeps.get(nestedJar != -1 ? name.substring(0, nestedJar) : name));
+                    try {
+                        return transformerManager.transform(className, data);
+                    } catch (Exception e) {
+                        LOGGER.error("Failed to transform {}", name, e);
+                        return null;
+                    } finally {
+                        classRuntimeDeps.remove();
                     }
-                }
-                threadPool.shutdown();
-                if (!threadPool.awaitTermination(1000, TimeUnit.MILLISECONDS)) {
-                    throw new IllegalStateException("Thread pool didn't shutdown correctly");
+                }, name -> {
+                    pb.setThreadTask(name);
+                    pb.step();
+                });
+                if (manifest != null) {
+                    LOGGER.info("Reused {} unchanged entries", reusedEntries.get());
                 }
 
                 LOGGER.info("Copying {} runtime class(es)", runtimeDeps.size());
                 for (final String runtimeDep : runtimeDeps) {
                     final String classPath = runtimeDep.concat(".class");
                     LOGGER.debug("Copying {}", classPath);
-                    try (InputStream is = RuntimeRoot.class.getResourceAsStream("/" + classPath)) {
-                        if (is == null) {
-                            LOGGER.warn("Runtime class '{}' not found! Skipping.", runtimeDep);
-                            continue;
-                        }
-                        final Path dest = outRoot.resolve(classPath);
-                        final Path parent = dest.getParent();
-                        if (parent != null) {
-                            Files.createDirectories(parent);
-                        }
-                        Files.copy(is, dest);
+                    final Object copyEvent = JfrEvent.RUNTIME_CLASS_COPY.begin();
+                    final ZipEntryData entry = context.getRuntimeClass(classPath, pipeline);
+                    if (entry == null) {
+                        LOGGER.warn("Runtime class '{}' not found! Skipping.", runtimeDep);
+                        continue;
                     }
+                    if (outZip.contains(classPath)) {
+                        continue;
+                    }
+                    outZip.writeParentDirectories(classPath);
+                    outZip.write(entry);
+                    JfrEvent.RUNTIME_CLASS_COPY.commit(copyEvent, runtimeDep, entry.getSize(), 0);
+                }
+
+                if (manifest != null) {
+                    outZip.writeParentDirectories(IncrementalManifest.ENTRY_NAME);
+                    outZip.write(pipeline.compress(IncrementalManifest.ENTRY_NAME, new ByteArrayInputStream(manifest.write())));
                 }
-                LOGGER.info("Writing final JAR");
             }
+            if (manifest != null) {
+                Files.move(outputPath, outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    private static IncrementalManifest readManifest(final ZipSource zip, final String options) {
+        final ZipSource.Entry entry = zip.getEntry(IncrementalManifest.ENTRY_NAME);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            final IncrementalManifest manifest = IncrementalManifest.read(zip.read(entry));
+            return manifest != null && manifest.getOptions().equals(options) ? manifest : null;
+        } catch (IOException e) {
+            return null;
         }
     }
 
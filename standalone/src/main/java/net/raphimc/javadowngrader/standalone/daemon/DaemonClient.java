@@ -0,0 +1,95 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.standalone.daemon;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Properties;
+
+/**
+ * Sends jobs to a running {@link DowngradeDaemon}.
+ */
+public class DaemonClient {
+
+    /**
+     * Send a job to the daemon and wait until it is done.
+     *
+     * @param args             The arguments of the job
+     * @param workingDirectory The directory relative paths in the arguments are resolved against
+     * @return The exit code of the job
+     * @throws IOException If the daemon is not running, rejected the job or the connection failed
+     */
+    public static int send(final String[] args, final File workingDirectory) throws IOException {
+        return request(DowngradeDaemon.REQUEST_JOB, out -> {
+            out.writeUTF(workingDirectory.getAbsolutePath());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+        });
+    }
+
+    /**
+     * Stop the running daemon.
+     *
+     * @throws IOException If the daemon is not running, rejected the request or the connection failed
+     */
+    public static void stop() throws IOException {
+        request(DowngradeDaemon.REQUEST_STOP, out -> {
+        });
+    }
+
+    private static int request(final byte request, final RequestWriter writer) throws IOException {
+        final Properties properties = DowngradeDaemon.readInfoFile();
+        if (properties == null) {
+            throw new FileNotFoundException("No daemon is running");
+        }
+        final int port;
+        try {
+            port = Integer.parseInt(properties.getProperty("port"));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid daemon info file", e);
+        }
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(DowngradeDaemon.PROTOCOL_VERSION);
+            out.writeUTF(properties.getProperty("token", ""));
+            out.writeByte(request);
+            writer.write(out);
+            out.flush();
+
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final int exitCode = in.readInt();
+            final String message = in.readUTF();
+            if (exitCode == DowngradeDaemon.REJECTED) {
+                throw new IOException(message);
+            }
+            return exitCode;
+        }
+    }
+
+    @FunctionalInterface
+    private interface RequestWriter {
+
+        void write(final DataOutputStream out) throws IOException;
+
+    }
+
+}
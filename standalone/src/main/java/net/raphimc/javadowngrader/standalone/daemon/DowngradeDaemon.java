@@ -0,0 +1,262 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.standalone.daemon;
+
+import net.raphimc.javadowngrader.standalone.DowngradeContext;
+import net.raphimc.javadowngrader.standalone.util.GeneralUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A daemon which keeps a {@link DowngradeContext} warm and runs the jobs sent to it by the {@link DaemonClient}.<br>
+ * It only listens on the loopback interface and every request has to contain the random token from the
+ * {@link #getInfoFile() info file}, which can only be read by the user who started the daemon.<br>
+ * Jobs are run one at a time. The daemon shuts down after it was idle for the given time.
+ */
+public class DowngradeDaemon {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DowngradeDaemon.class);
+
+    static final int PROTOCOL_VERSION = 1;
+    static final byte REQUEST_JOB = 0;
+    static final byte REQUEST_STOP = 1;
+    static final int REJECTED = -1;
+    private static final int MAX_ARGS = 4096;
+    private static final int REQUEST_TIMEOUT = 10_000;
+
+    private final DowngradeContext context;
+    private final JobRunner jobRunner;
+    private final long idleTimeout;
+    private final long maxMemory;
+
+    /**
+     * @param context     The context shared by all jobs
+     * @param jobRunner   The runner which executes the jobs
+     * @param idleTimeout The time in milliseconds after which the daemon shuts down if it received no jobs
+     * @param maxMemory   The heap usage in bytes above which the cached classes of the context are dropped
+     */
+    public DowngradeDaemon(final DowngradeContext context, final JobRunner jobRunner, final long idleTimeout, final long maxMemory) {
+        this.context = context;
+        this.jobRunner = jobRunner;
+        this.idleTimeout = idleTimeout;
+        this.maxMemory = maxMemory;
+    }
+
+    /**
+     * @return The file which contains the port and the token of the running daemon
+     */
+    public static File getInfoFile() {
+        return new File(System.getProperty("user.home"), ".javadowngrader" + File.separator + "daemon.properties");
+    }
+
+    /**
+     * Run the daemon until it is stopped or idle for too long.
+     *
+     * @throws IOException If the daemon could not be started
+     */
+    public void run() throws IOException {
+        final byte[] tokenBytes = new byte[32];
+        new SecureRandom().nextBytes(tokenBytes);
+        final String token = toHex(tokenBytes);
+
+        try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            writeInfoFile(serverSocket.getLocalPort(), token);
+            LOGGER.info("Daemon listening on port {}", serverSocket.getLocalPort());
+            try {
+                long lastJob = System.nanoTime();
+                while (true) {
+                    final long idleTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastJob);
+                    if (idleTime >= this.idleTimeout) {
+                        LOGGER.info("Shutting down after being idle for {}", GeneralUtil.formatDuration(TimeUnit.MILLISECONDS.toNanos(idleTime)));
+                        break;
+                    }
+
+                    final Socket socket;
+                    try {
+                        serverSocket.setSoTimeout((int) Math.min(this.idleTimeout - idleTime, Integer.MAX_VALUE));
+                        socket = serverSocket.accept();
+                    } catch (SocketTimeoutException e) {
+                        continue;
+                    }
+                    try (Socket s = socket) {
+                        final Boolean keepRunning = this.handle(s, token);
+                        if (keepRunning == null) continue;
+                        if (!keepRunning) {
+                            LOGGER.info("Shutting down on request");
+                            break;
+                        }
+                    } catch (Throwable t) {
+                        LOGGER.error("Failed to handle request", t);
+                    }
+                    lastJob = System.nanoTime();
+                }
+            } finally {
+                deleteInfoFile(token);
+            }
+        }
+    }
+
+    /**
+     * @return If the daemon should keep running or null if the request was rejected
+     */
+    private Boolean handle(final Socket socket, final String token) throws IOException {
+        socket.setSoTimeout(REQUEST_TIMEOUT);
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        if (in.readInt() != PROTOCOL_VERSION) {
+            respond(out, REJECTED, "The daemon runs a different version");
+            return null;
+        }
+        if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), in.readUTF().getBytes(StandardCharsets.UTF_8))) {
+            LOGGER.warn("Rejected request with an invalid token");
+            respond(out, REJECTED, "Invalid token");
+            return null;
+        }
+
+        final byte request = in.readByte();
+        if (request == REQUEST_STOP) {
+            respond(out, 0, "Stopped");
+            return false;
+        } else if (request != REQUEST_JOB) {
+            respond(out, REJECTED, "Unknown request " + request);
+            return null;
+        }
+
+        final File workingDirectory = new File(in.readUTF());
+        final int argCount = in.readInt();
+        if (argCount < 0 || argCount > MAX_ARGS) {
+            respond(out, REJECTED, "Too many arguments");
+            return null;
+        }
+        final String[] args = new String[argCount];
+        for (int i = 0; i < argCount; i++) {
+            args[i] = in.readUTF();
+        }
+
+        // The job can take a long time, the client waits for it
+        socket.setSoTimeout(0);
+        LOGGER.info("Running job from {}", workingDirectory);
+        int exitCode;
+        try {
+            exitCode = this.jobRunner.run(args, workingDirectory, this.context);
+        } catch (Throwable t) {
+            LOGGER.error("Job failed", t);
+            exitCode = 1;
+        }
+        this.checkMemory();
+        respond(out, exitCode, exitCode == 0 ? "Done" : "Failed");
+        return true;
+    }
+
+    private void checkMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        final long usedMemory = runtime.totalMemory() - runtime.freeMemory();
+        if (usedMemory > this.maxMemory) {
+            LOGGER.info("Heap usage of {} MB is above the limit, dropping cached classes", usedMemory / 1024 / 1024);
+            this.context.trim();
+            System.gc();
+        }
+    }
+
+    private static void respond(final DataOutputStream out, final int exitCode, final String message) throws IOException {
+        out.writeInt(exitCode);
+        out.writeUTF(message);
+        out.flush();
+    }
+
+    private static void writeInfoFile(final int port, final String token) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty("port", String.valueOf(port));
+        properties.setProperty("token", token);
+
+        final Path infoFile = getInfoFile().toPath();
+        Files.createDirectories(infoFile.getParent());
+        final Path tempFile = infoFile.resolveSibling(infoFile.getFileName() + ".tmp");
+        Files.deleteIfExists(tempFile);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(tempFile, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(tempFile);
+        }
+        try (OutputStream os = Files.newOutputStream(tempFile)) {
+            properties.store(os, "JavaDowngrader daemon");
+        }
+        Files.move(tempFile, infoFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void deleteInfoFile(final String token) {
+        try {
+            // Another daemon could have been started in the meantime
+            final Properties properties = readInfoFile();
+            if (properties != null && token.equals(properties.getProperty("token"))) {
+                Files.deleteIfExists(getInfoFile().toPath());
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to delete the daemon info file", e);
+        }
+    }
+
+    static Properties readInfoFile() throws IOException {
+        final File infoFile = getInfoFile();
+        if (!infoFile.isFile()) {
+            return null;
+        }
+        final Properties properties = new Properties();
+        try (InputStream is = new FileInputStream(infoFile)) {
+            properties.load(is);
+        }
+        return properties;
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    @FunctionalInterface
+    public interface JobRunner {
+
+        /**
+         * Run a job.
+         *
+         * @param args             The arguments of the job
+         * @param workingDirectory The working directory of the client
+         * @param context          The context of the daemon
+         * @return The exit code
+         */
+        int run(final String[] args, final File workingDirectory, final DowngradeContext context) throws Throwable;
+
+    }
+
+}
@@ -17,7 +17,9 @@
  */
 package net.raphimc.javadowngrader.standalone.util;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.Locale;
 import java.util.stream.Collectors;
 
 public class GeneralUtil {
@@ -28,4 +30,12 @@ public class GeneralUtil {
                 .collect(Collectors.toList());
     }
 
+    public static String formatDuration(long nanos) {
+        return Duration.ofNanos(nanos)
+                .toString()
+                .substring(2)
+                .replaceAll("(\\d[HMS])(?!$)", "$1 ")
+                .toLowerCase(Locale.ROOT);
+    }
+
 }
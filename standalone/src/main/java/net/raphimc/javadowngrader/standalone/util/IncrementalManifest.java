@@ -0,0 +1,177 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.standalone.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The list of input entries an output jar was created from, stored in the output jar for {@code --incremental} runs.<br>
+ * Every entry is identified by the CRC and size of its input data and remembers the runtime classes it needs.
+ */
+public class IncrementalManifest {
+
+    public static final String ENTRY_NAME = "META-INF/javadowngrader-incremental.txt";
+    private static final String HEADER = "JavaDowngrader incremental manifest 1";
+
+    private final String options;
+    private final Map<String, Record> records = new ConcurrentHashMap<>();
+
+    /**
+     * @param options A fingerprint of all options and class headers which influence the output of every entry, see
+     *                {@link #fingerprint}
+     */
+    public IncrementalManifest(final String options) {
+        this.options = options;
+    }
+
+    /**
+     * @param data The manifest as written by {@link #write()}
+     * @return The manifest or null if it is invalid
+     */
+    public static IncrementalManifest read(final byte[] data) {
+        try (BufferedReader reader = new BufferedReader(new StringReader(new String(data, StandardCharsets.UTF_8)))) {
+            if (!HEADER.equals(reader.readLine())) {
+                return null;
+            }
+            final String options = reader.readLine();
+            if (options == null || !options.startsWith("options ")) {
+                return null;
+            }
+
+            final IncrementalManifest manifest = new IncrementalManifest(options.substring(8));
+            Record record = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("entry ")) {
+                    final String[] parts = line.split(" ", 4);
+                    record = new Record(Long.parseLong(parts[1], 16), Long.parseLong(parts[2]));
+                    manifest.records.put(parts[3], record);
+                } else if (line.startsWith("dep ") && record != null) {
+                    record.runtimeDeps.add(line.substring(4));
+                } else {
+                    return null;
+                }
+            }
+            return manifest;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Hashes all options which influence the output.
+     *
+     * @param options The options
+     * @return The fingerprint
+     */
+    public static String fingerprint(final Object... options) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        for (Object option : options) {
+            digest.update(String.valueOf(option).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+
+        final StringBuilder fingerprint = new StringBuilder();
+        for (byte b : digest.digest()) {
+            fingerprint.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return fingerprint.toString();
+    }
+
+    public String getOptions() {
+        return this.options;
+    }
+
+    /**
+     * @param name The name of the input entry
+     * @return The record of the entry or null if the entry is not part of the manifest
+     */
+    public Record get(final String name) {
+        return this.records.get(name);
+    }
+
+    /**
+     * Adds an input entry. Can be called from multiple threads.
+     *
+     * @param name The name of the input entry
+     * @param crc  The CRC of the input data
+     * @param size The size of the input data
+     * @return The record whose runtime dependencies can be filled in afterwards
+     */
+    public Record put(final String name, final long crc, final long size) {
+        final Record record = new Record(crc, size);
+        this.records.put(name, record);
+        return record;
+    }
+
+    /**
+     * @return The manifest in the format read by {@link #read(byte[])}. Entries are sorted by name
+     */
+    public byte[] write() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(HEADER).append('\n');
+        builder.append("options ").append(this.options).append('\n');
+        for (Map.Entry<String, Record> entry : new TreeMap<>(this.records).entrySet()) {
+            final Record record = entry.getValue();
+            builder.append("entry ").append(Long.toHexString(record.crc)).append(' ').append(record.size).append(' ').append(entry.getKey()).append('\n');
+            for (String runtimeDep : record.runtimeDeps) {
+                builder.append("dep ").append(runtimeDep).append('\n');
+            }
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static final class Record {
+
+        private final long crc;
+        private final long size;
+        private final Set<String> runtimeDeps = Collections.synchronizedSet(new LinkedHashSet<>());
+
+        private Record(final long crc, final long size) {
+            this.crc = crc;
+            this.size = size;
+        }
+
+        /**
+         * @param crc  The CRC of the input data
+         * @param size The size of the input data
+         * @return If the input data is most likely unchanged
+         */
+        public boolean matches(final long crc, final long size) {
+            return this.crc == crc && this.size == size;
+        }
+
+        public Set<String> getRuntimeDeps() {
+            return this.runtimeDeps;
+        }
+
+    }
+
+}
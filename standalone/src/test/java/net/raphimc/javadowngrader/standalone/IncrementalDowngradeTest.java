@@ -0,0 +1,200 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.standalone;
+
+import net.raphimc.javadowngrader.standalone.util.IncrementalManifest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the standalone on jars with Java 17 classes and checks that {@code --incremental} runs write the same classes as
+ * full runs.
+ */
+class IncrementalDowngradeTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void incrementalRunsMatchFullRuns() throws Throwable {
+        final File output = new File(this.dir, "incremental.jar");
+        this.assertIncrementalMatchesFull(jar("x", "fixture/P"), output);
+        final IncrementalManifest manifest = readManifest(output);
+        assertNotNull(manifest, "The output jar has to contain the incremental manifest");
+        assertNotNull(manifest.get("fixture/A.class"));
+        assertNotNull(manifest.get("fixture/B.class"));
+
+        // Only the body of A changes
+        this.assertIncrementalMatchesFull(jar("y", "fixture/P"), output);
+        assertEquals(manifest.getOptions(), readManifest(output).getOptions());
+
+        // B doesn't extend P anymore, which changes the stack map frames of the unchanged A
+        final Map<String, byte[]> before = read(output);
+        this.assertIncrementalMatchesFull(jar("y", "java/lang/Object"), output);
+        assertNotEquals(manifest.getOptions(), readManifest(output).getOptions());
+        assertFalse(Arrays.equals(before.get("fixture/A.class"), read(output).get("fixture/A.class")), "The frames of A have to be computed again");
+    }
+
+    private void assertIncrementalMatchesFull(final byte[] jar, final File output) throws Throwable {
+        final File input = new File(this.dir, "input.jar");
+        Files.write(input.toPath(), jar);
+        final File full = new File(this.dir, "full.jar");
+        Main.main(new String[]{"-i", input.getPath(), "-o", full.getPath(), "-v", "8", "-t", "2"});
+        Main.main(new String[]{"-i", input.getPath(), "-o", output.getPath(), "-v", "8", "-t", "2", "--incremental"});
+
+        final Map<String, byte[]> expected = read(full);
+        final Map<String, byte[]> actual = read(output);
+        // The incremental manifest and its directory are the only additional entries
+        actual.remove(IncrementalManifest.ENTRY_NAME);
+        actual.remove("META-INF/");
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getValue(), actual.get(entry.getKey()), entry.getKey());
+        }
+    }
+
+    /**
+     * @param constant The constant A returns for strings which aren't blank
+     * @param superB   The super class of B
+     * @return A jar with the Java 17 class A whose only method merges B and C into a local
+     */
+    private static byte[] jar(final String constant, final String superB) throws IOException {
+        final Map<String, String> supers = new HashMap<>();
+        supers.put("fixture/B", superB);
+        supers.put("fixture/C", "fixture/P");
+        supers.put("fixture/P", "java/lang/Object");
+
+        final Map<String, byte[]> classes = new TreeMap<>();
+        classes.put("fixture/A", classA(constant, supers));
+        for (Map.Entry<String, String> entry : supers.entrySet()) {
+            final ClassWriter cw = new ClassWriter(0);
+            cw.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, entry.getKey(), null, entry.getValue(), null);
+            final MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+            init.visitCode();
+            init.visitVarInsn(Opcodes.ALOAD, 0);
+            init.visitMethodInsn(Opcodes.INVOKESPECIAL, entry.getValue(), "<init>", "()V", false);
+            init.visitInsn(Opcodes.RETURN);
+            init.visitMaxs(1, 1);
+            init.visitEnd();
+            cw.visitEnd();
+            classes.put(entry.getKey(), cw.toByteArray());
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(out)) {
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                zos.putNextEntry(new ZipEntry(entry.getKey() + ".class"));
+                zos.write(entry.getValue());
+                zos.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * {@code static String pick(boolean b) { Object o = b ? new B() : new C(); return o.toString().isBlank() ? "blank" : constant; }}
+     */
+    private static byte[] classA(final String constant, final Map<String, String> supers) {
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+            @Override
+            protected String getCommonSuperClass(final String type1, final String type2) {
+                final Set<String> superTypes = new HashSet<>();
+                for (String type = type1; type != null; type = supers.get(type)) {
+                    superTypes.add(type);
+                }
+                for (String type = type2; type != null; type = supers.get(type)) {
+                    if (superTypes.contains(type)) return type;
+                }
+                return "java/lang/Object";
+            }
+        };
+        cw.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "fixture/A", null, "java/lang/Object", null);
+        final MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "pick", "(Z)Ljava/lang/String;", null, null);
+        mv.visitCode();
+        final Label c = new Label();
+        final Label merge = new Label();
+        final Label notBlank = new Label();
+        mv.visitVarInsn(Opcodes.ILOAD, 0);
+        mv.visitJumpInsn(Opcodes.IFEQ, c);
+        mv.visitTypeInsn(Opcodes.NEW, "fixture/B");
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "fixture/B", "<init>", "()V", false);
+        mv.visitJumpInsn(Opcodes.GOTO, merge);
+        mv.visitLabel(c);
+        mv.visitTypeInsn(Opcodes.NEW, "fixture/C");
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "fixture/C", "<init>", "()V", false);
+        mv.visitLabel(merge);
+        mv.visitVarInsn(Opcodes.ASTORE, 1);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Object", "toString", "()Ljava/lang/String;", false);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "isBlank", "()Z", false);
+        mv.visitJumpInsn(Opcodes.IFEQ, notBlank);
+        mv.visitLdcInsn("blank");
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitLabel(notBlank);
+        mv.visitLdcInsn(constant);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static IncrementalManifest readManifest(final File jar) throws IOException {
+        final byte[] data = read(jar).get(IncrementalManifest.ENTRY_NAME);
+        return data != null ? IncrementalManifest.read(data) : null;
+    }
+
+    private static Map<String, byte[]> read(final File jar) throws IOException {
+        final Map<String, byte[]> entries = new TreeMap<>();
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            final Enumeration<? extends ZipEntry> it = zipFile.entries();
+            while (it.hasMoreElements()) {
+                final ZipEntry entry = it.nextElement();
+                try (InputStream is = zipFile.getInputStream(entry)) {
+                    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    final byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = is.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                    entries.put(entry.getName(), out.toByteArray());
+                }
+            }
+        }
+        return entries;
+    }
+
+}
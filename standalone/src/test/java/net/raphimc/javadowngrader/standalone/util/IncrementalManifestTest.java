@@ -0,0 +1,69 @@
+/*
+ * This file is part of JavaDowngrader - https://github.com/RaphiMC/JavaDowngrader
+ * Copyright (C) 2023-2024 RK_01/RaphiMC and contributors
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.javadowngrader.standalone.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalManifestTest {
+
+    @Test
+    void writtenManifestsCanBeRead() {
+        final IncrementalManifest manifest = new IncrementalManifest(IncrementalManifest.fingerprint(8, true, "libraries"));
+        manifest.put("a/A.class", 0xCAFEBABEL, 100).getRuntimeDeps().addAll(Arrays.asList("dep/One", "dep/Two"));
+        manifest.put("a/with space.txt", 0, 0);
+        manifest.put("lib/nested.jar", 0xFFFFFFFFL, 1234).getRuntimeDeps().add("dep/Three");
+
+        final IncrementalManifest read = IncrementalManifest.read(manifest.write());
+        assertNotNull(read);
+        assertEquals(manifest.getOptions(), read.getOptions());
+        assertTrue(read.get("a/A.class").matches(0xCAFEBABEL, 100));
+        assertFalse(read.get("a/A.class").matches(0xCAFEBABEL, 101));
+        assertFalse(read.get("a/A.class").matches(0xCAFEBABFL, 100));
+        assertEquals(new LinkedHashSet<>(Arrays.asList("dep/One", "dep/Two")), read.get("a/A.class").getRuntimeDeps());
+        assertTrue(read.get("a/with space.txt").matches(0, 0));
+        assertEquals(Collections.singleton("dep/Three"), read.get("lib/nested.jar").getRuntimeDeps());
+        assertNull(read.get("a/B.class"));
+        assertArrayEquals(manifest.write(), read.write());
+    }
+
+    @Test
+    void invalidManifestsAreIgnored() {
+        final String valid = "JavaDowngrader incremental manifest 1\noptions abc\nentry ff 1 a/A.class\n";
+        assertNotNull(IncrementalManifest.read(valid.getBytes(StandardCharsets.UTF_8)));
+        for (String invalid : new String[]{"", "JavaDowngrader incremental manifest 0\noptions abc\n", "JavaDowngrader incremental manifest 1\n", valid + "unknown\n", valid.replace("ff", "xx"), valid.replace(" 1 ", " ")}) {
+            assertNull(IncrementalManifest.read(invalid.getBytes(StandardCharsets.UTF_8)), invalid);
+        }
+    }
+
+    @Test
+    void fingerprintDependsOnEveryOption() {
+        assertEquals(IncrementalManifest.fingerprint(8, false, "a"), IncrementalManifest.fingerprint(8, false, "a"));
+        assertNotEquals(IncrementalManifest.fingerprint(8, false, "a"), IncrementalManifest.fingerprint(9, false, "a"));
+        assertNotEquals(IncrementalManifest.fingerprint(8, false, "a"), IncrementalManifest.fingerprint(8, true, "a"));
+        assertNotEquals(IncrementalManifest.fingerprint(8, false, "a"), IncrementalManifest.fingerprint(8, false, "b"));
+        assertNotEquals(IncrementalManifest.fingerprint("ab", "c"), IncrementalManifest.fingerprint("a", "bc"));
+    }
+
+}